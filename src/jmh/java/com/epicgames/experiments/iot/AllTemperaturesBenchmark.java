@@ -0,0 +1,49 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class AllTemperaturesBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int groupSize;
+
+    // NOTE(mmm): 0 queries every device from a single DeviceGroupQuery.
+    @Param({"0", "1000"})
+    public int queryShardSize;
+
+    private ActorSystem<DeviceManager.Command> system;
+    private Semaphore replied;
+    private ActorRef<DeviceManager.ReplyAllTemperatures> sink;
+    private long requestId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var settings = DeviceGroup.Settings.DEFAULT.withQueryShardSize(queryShardSize);
+        system = ActorSystem.create(DeviceManager.create(settings), "all-temperatures-benchmark");
+        var devices = BenchmarkSupport.registerDevices(system, "group", groupSize);
+        BenchmarkSupport.recordOnce(system, devices);
+        replied = new Semaphore(0);
+        sink = BenchmarkSupport.spawnSink(system, replied, "temperatures-sink");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.terminate(system);
+    }
+
+    @Benchmark
+    public void requestAllTemperatures() throws InterruptedException {
+        system.tell(new DeviceManager.RequestAllTemperatures(requestId++, "group", sink));
+        replied.acquire();
+    }
+}
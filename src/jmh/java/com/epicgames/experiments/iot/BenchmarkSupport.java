@@ -0,0 +1,79 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.Props;
+import org.apache.pekko.actor.typed.javadsl.AskPattern;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+final class BenchmarkSupport {
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Spawns an actor that releases one permit of {@code permits} per message
+     * it receives, so the benchmark thread can block until N replies arrived.
+     */
+    static <T> ActorRef<T> spawnSink(ActorSystem<?> system, Semaphore permits, String name) {
+        Behavior<T> sink = Behaviors.receive((context, msg) -> {
+            permits.release();
+            return Behaviors.same();
+        });
+        return system.systemActorOf(sink, name, Props.empty());
+    }
+
+    static List<ActorRef<Device.Command>> registerDevices(
+            ActorSystem<DeviceManager.Command> manager,
+            String groupId,
+            int count
+    ) {
+        return registerDevices(manager, manager, groupId, count);
+    }
+
+    static List<ActorRef<Device.Command>> registerDevices(
+            ActorSystem<?> system,
+            ActorRef<DeviceManager.Command> manager,
+            String groupId,
+            int count
+    ) {
+        var registrations = new ArrayList<CompletableFuture<DeviceManager.DeviceRegistered>>(count);
+        for (int i = 0; i < count; i++) {
+            var deviceId = "d" + i;
+            var requestId = i;
+            registrations.add(AskPattern.<DeviceManager.Command, DeviceManager.DeviceRegistered>ask(
+                    manager,
+                    replyTo -> new DeviceManager.RequestTrackDevice(requestId, groupId, deviceId, replyTo),
+                    TIMEOUT,
+                    system.scheduler()).toCompletableFuture());
+        }
+
+        var devices = new ArrayList<ActorRef<Device.Command>>(count);
+        for (var registration : registrations) {
+            devices.add(registration.join().device());
+        }
+        return devices;
+    }
+
+    static void recordOnce(ActorSystem<?> system, List<ActorRef<Device.Command>> devices) {
+        var permits = new Semaphore(0);
+        ActorRef<Device.TemperatureRecorded> sink = spawnSink(system, permits, "warmup-sink");
+        for (int i = 0; i < devices.size(); i++) {
+            devices.get(i).tell(new Device.RecordTemperature(i, i, sink));
+        }
+        permits.acquireUninterruptibly(devices.size());
+    }
+
+    static void terminate(ActorSystem<?> system) {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,84 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// NOTE(mmm): Registers a whole group with each DeviceGroup storage mode. The
+//  score is the time to register the group (divide the group size by it to
+//  get the registration rate), and the heapBytesPerDevice counter is the
+//  retained heap growth per registered device, measured after a full GC.
+//  The heap is measured in Footprint's invocation fixtures, which JMH keeps
+//  out of the score, so the GCs don't count as registration time.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeviceFootprintBenchmark {
+    @Param({"ACTORS", "OFF_HEAP", "VIRTUAL"})
+    public DeviceGroup.Storage storage;
+
+    @Param({"100000"})
+    public int groupSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long heapBytesPerDevice;
+        private long heapBefore;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            heapBytesPerDevice = 0;
+        }
+
+        @Setup(Level.Invocation)
+        public void measureBefore() {
+            heapBefore = usedHeapAfterGc();
+        }
+
+        @TearDown(Level.Invocation)
+        public void measureAfter(DeviceFootprintBenchmark benchmark) {
+            heapBytesPerDevice = (usedHeapAfterGc() - heapBefore) / benchmark.groupSize;
+        }
+    }
+
+    private ActorSystem<DeviceManager.Command> system;
+    private Semaphore registered;
+    private ActorRef<DeviceManager.DeviceRegistered> sink;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        var settings = DeviceGroup.Settings.DEFAULT.withStorage(storage);
+        system = ActorSystem.create(DeviceManager.create(settings), "footprint-benchmark");
+        registered = new Semaphore(0);
+        sink = BenchmarkSupport.spawnSink(system, registered, "registered-sink");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        BenchmarkSupport.terminate(system);
+    }
+
+    // NOTE(mmm): {footprint} is only here so that JMH runs its fixtures.
+    @Benchmark
+    public void trackDevices(Footprint footprint) throws InterruptedException {
+        for (int i = 0; i < groupSize; i++) {
+            system.tell(new DeviceManager.RequestTrackDevice(i, "group", "d" + i, sink));
+        }
+        registered.acquire(groupSize);
+    }
+
+    private static long usedHeapAfterGc() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,108 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// NOTE(mmm): Mixed load on each profile of dispatchers.conf. Every
+//  invocation sends BATCHES_PER_ROUND batches of {batchSize} readings to
+//  each of {groups} groups, then one RequestAllTemperatures per group, and
+//  waits for every reply. The first group is a hot group. The score is
+//  rounds per second; multiply by BATCHES_PER_ROUND * groups * batchSize for
+//  readings per second. Run with `-PjmhProfilers=gc` to see what the extra
+//  pools cost.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DispatcherProfileBenchmark {
+    static final int BATCHES_PER_ROUND = 10;
+
+    @Param({"default", "tiered", "latency", "throughput"})
+    public String profile;
+
+    @Param({"10"})
+    public int groups;
+
+    @Param({"1000"})
+    public int devicesPerGroup;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private ActorSystem<Void> system;
+    private ActorRef<DeviceManager.Command> manager;
+    private Semaphore recorded;
+    private Semaphore queried;
+    private ActorRef<DeviceManager.TemperaturesRecorded> recordedSink;
+    private ActorRef<DeviceManager.ReplyAllTemperatures> queriedSink;
+    private String[][] deviceIds;
+    private long requestId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var config = ConfigFactory.parseResources("dispatchers.conf").resolve();
+        var dispatchers = DispatcherProfile.fromConfig(config, profile).withHotGroups(Set.of(groupId(0)));
+        var settings = DeviceGroup.Settings.DEFAULT.withDispatchers(dispatchers);
+        system = ActorSystem.create(Behaviors.empty(), "dispatcher-profile-benchmark", ConfigFactory.load(config));
+        manager = system.systemActorOf(DeviceManager.create(settings), "device-manager", dispatchers.managerProps());
+        for (int group = 0; group < groups; group++) {
+            var devices = BenchmarkSupport.registerDevices(system, manager, groupId(group), devicesPerGroup);
+            BenchmarkSupport.recordOnce(system, devices);
+        }
+
+        recorded = new Semaphore(0);
+        queried = new Semaphore(0);
+        recordedSink = BenchmarkSupport.spawnSink(system, recorded, "recorded-sink");
+        queriedSink = BenchmarkSupport.spawnSink(system, queried, "queried-sink");
+
+        deviceIds = new String[BATCHES_PER_ROUND][batchSize];
+        for (int batch = 0; batch < BATCHES_PER_ROUND; batch++) {
+            for (int i = 0; i < batchSize; i++) {
+                deviceIds[batch][i] = "d" + (batch * batchSize + i) % devicesPerGroup;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.terminate(system);
+    }
+
+    @Benchmark
+    public void recordAndQuery() throws InterruptedException {
+        // NOTE(mmm): Fresh arrays every round, as devices may still be reading
+        //  the previous ones after their group replied.
+        var values = new double[batchSize];
+        var timestamps = new long[batchSize];
+        var now = System.currentTimeMillis();
+        for (int i = 0; i < batchSize; i++) {
+            values[i] = requestId % 400 / 10.0;
+            timestamps[i] = now;
+        }
+        for (var batch : deviceIds) {
+            for (int group = 0; group < groups; group++) {
+                manager.tell(new DeviceManager.RecordTemperatures(
+                        requestId++, groupId(group), batch, values, timestamps, recordedSink));
+            }
+        }
+        for (int group = 0; group < groups; group++) {
+            manager.tell(new DeviceManager.RequestAllTemperatures(requestId++, groupId(group), queriedSink));
+        }
+
+        recorded.acquire(BATCHES_PER_ROUND * groups);
+        queried.acquire(groups);
+    }
+
+    private static String groupId(int group) {
+        return "group-" + group;
+    }
+}
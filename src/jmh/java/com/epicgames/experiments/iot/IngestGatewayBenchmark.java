@@ -0,0 +1,63 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.stream.javadsl.Tcp;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+// NOTE(mmm): End to end ingest through an IngestGateway on loopback: every
+//  invocation opens a connection, tracks the devices and sends READINGS
+//  readings with IngestLoadGenerator, and waits for the last ack. The score
+//  is readings per second, tracks included in the cost.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IngestGatewayBenchmark {
+    static final int READINGS = 100_000;
+
+    @Param({"ACTORS", "VIRTUAL"})
+    public DeviceGroup.Storage storage;
+
+    @Param({"100", "1000"})
+    public int maxBatchSize;
+
+    @Param({"10"})
+    public int groups;
+
+    @Param({"1000"})
+    public int devicesPerGroup;
+
+    private ActorSystem<DeviceManager.Command> system;
+    private Tcp.ServerBinding binding;
+    private InetSocketAddress address;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var groupSettings = DeviceGroup.Settings.DEFAULT.withStorage(storage);
+        system = ActorSystem.create(DeviceManager.create(groupSettings), "ingest-gateway-benchmark");
+        var gatewaySettings = IngestGateway.Settings.DEFAULT
+                .withPort(0)
+                .withMaxBatchSize(maxBatchSize);
+        binding = IngestGateway.bind(system, system, gatewaySettings).toCompletableFuture().join();
+        address = binding.localAddress();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        binding.unbind().toCompletableFuture().join();
+        BenchmarkSupport.terminate(system);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READINGS)
+    public IngestLoadGenerator.Result ingest() {
+        return IngestLoadGenerator.run(system, address, groups, devicesPerGroup, READINGS)
+                .toCompletableFuture()
+                .join();
+    }
+}
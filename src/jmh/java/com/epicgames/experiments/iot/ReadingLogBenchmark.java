@@ -0,0 +1,117 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.Props;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.OptionalDouble;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// NOTE(mmm): Device's record path with each ReadingLogMode, run with INFO off
+//  (see logback.xml). Run it with `-PjmhProfilers=gc`: gc.alloc.rate.norm
+//  should be the same for every mode, and the same as for the baselines,
+//  i.e. the reading log adds nothing to what recording a reading allocates
+//  anyway (the message and its ack). The baselines send the same messages
+//  to an actor that only acks them, without a Device or a ReadingLog; they
+//  don't depend on {mode}.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ReadingLogBenchmark {
+    static final int BATCH_SIZE = 1000;
+    static final int SAMPLES_PER_BATCH = 100;
+
+    @Param({"EVERY", "SAMPLED", "AGGREGATED"})
+    public Device.ReadingLogMode mode;
+
+    private ActorSystem<Device.Command> device;
+    private ActorRef<Device.Command> ackOnly;
+    private Semaphore replies;
+    private ActorRef<Device.TemperatureRecorded> recordedSink;
+    private ActorRef<Device.Temperature> readSink;
+    private double[] values;
+    private long[] timestamps;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var settings = Device.Settings.DEFAULT.withReadingLogMode(mode);
+        device = ActorSystem.create(Device.create("group", "device", settings), "reading-log-benchmark");
+        replies = new Semaphore(0);
+        recordedSink = BenchmarkSupport.spawnSink(device, replies, "recorded-sink");
+        readSink = BenchmarkSupport.spawnSink(device, replies, "read-sink");
+        ackOnly = device.systemActorOf(ackOnly(), "ack-only", Props.empty());
+        values = new double[SAMPLES_PER_BATCH];
+        timestamps = new long[SAMPLES_PER_BATCH];
+        for (int i = 0; i < SAMPLES_PER_BATCH; i++) {
+            values[i] = i;
+            timestamps[i] = i;
+        }
+    }
+
+    private static Behavior<Device.Command> ackOnly() {
+        return Behaviors.receiveMessage(ReadingLogBenchmark::ack);
+    }
+
+    private static Behavior<Device.Command> ack(Device.Command msg) {
+        switch (msg) {
+            case Device.RecordTemperature cmd -> cmd.replyTo().tell(new Device.TemperatureRecorded(cmd.requestId()));
+            case Device.ReadTemperature cmd ->
+                    cmd.replyTo().tell(new Device.Temperature(cmd.requestId(), "device", OptionalDouble.of(0)));
+            default -> {
+            }
+        }
+        return Behaviors.same();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.terminate(device);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void record() throws InterruptedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            device.tell(new Device.RecordTemperature(i, i, recordedSink));
+        }
+        replies.acquire(BATCH_SIZE);
+    }
+
+    // NOTE(mmm): Batches aren't acked, so a read behind them tells when the
+    //  device is done with them.
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void recordBatch() throws InterruptedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            device.tell(new Device.RecordTemperatures(i, values, timestamps));
+        }
+        device.tell(new Device.ReadTemperature(BATCH_SIZE, readSink));
+        replies.acquire();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void recordBaseline() throws InterruptedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ackOnly.tell(new Device.RecordTemperature(i, i, recordedSink));
+        }
+        replies.acquire(BATCH_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void recordBatchBaseline() throws InterruptedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ackOnly.tell(new Device.RecordTemperatures(i, values, timestamps));
+        }
+        ackOnly.tell(new Device.ReadTemperature(BATCH_SIZE, readSink));
+        replies.acquire();
+    }
+}
@@ -0,0 +1,65 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class RecordTemperatureBenchmark {
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"10", "1000", "100000"})
+    public int groupSize;
+
+    private ActorSystem<DeviceManager.Command> system;
+    private List<ActorRef<Device.Command>> devices;
+    private Semaphore recorded;
+    private ActorRef<Device.TemperatureRecorded> sink;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create(DeviceManager.create(), "record-benchmark");
+        devices = BenchmarkSupport.registerDevices(system, "group", groupSize);
+        recorded = new Semaphore(0);
+        sink = BenchmarkSupport.spawnSink(system, recorded, "recorded-sink");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.terminate(system);
+    }
+
+    // NOTE(mmm): Spreads the readings round-robin over the group, so with
+    //  larger groups every message lands on a different (and colder) actor.
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void throughput() throws InterruptedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            nextDevice().tell(new Device.RecordTemperature(i, i, sink));
+        }
+        recorded.acquire(BATCH_SIZE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void latency() throws InterruptedException {
+        nextDevice().tell(new Device.RecordTemperature(next, next, sink));
+        recorded.acquire();
+    }
+
+    private ActorRef<Device.Command> nextDevice() {
+        var device = devices.get(next);
+        next = (next + 1) % devices.size();
+        return device;
+    }
+}
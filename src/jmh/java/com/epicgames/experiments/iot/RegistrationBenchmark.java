@@ -0,0 +1,46 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// NOTE(mmm): Measures how long it takes to register a whole group of devices
+//  through the DeviceManager, starting from an empty actor system each time.
+//  Divide the group size by the score to get the registration rate.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RegistrationBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int groupSize;
+
+    private ActorSystem<DeviceManager.Command> system;
+    private Semaphore registered;
+    private ActorRef<DeviceManager.DeviceRegistered> sink;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        system = ActorSystem.create(DeviceManager.create(), "registration-benchmark");
+        registered = new Semaphore(0);
+        sink = BenchmarkSupport.spawnSink(system, registered, "registered-sink");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        BenchmarkSupport.terminate(system);
+    }
+
+    @Benchmark
+    public void trackDevices() throws InterruptedException {
+        for (int i = 0; i < groupSize; i++) {
+            system.tell(new DeviceManager.RequestTrackDevice(i, "group", "d" + i, sink));
+        }
+        registered.acquire(groupSize);
+    }
+}
@@ -0,0 +1,171 @@
+package com.epicgames.experiments.iot;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.ExtendedActorSystem;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.javadsl.Adapter;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.apache.pekko.serialization.Serialization;
+import org.apache.pekko.serialization.jackson.JacksonObjectMapperProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// NOTE(mmm): IotMessageSerializer against Jackson CBOR, configured the way
+//  Pekko's jackson-cbor serializer configures it. The encodedBytes counter is
+//  the size of one encoded message; the scores are the time to encode one,
+//  and to decode one. A group replies with TemperatureColumns, which
+//  REPLY_ALL_TEMPERATURES uses; REPLY_ALL_TEMPERATURES_MAP has the same
+//  readings in a HashMap, as any other sender would build them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    public enum Format {
+        IOT,
+        JACKSON_CBOR
+    }
+
+    public enum Message {
+        RECORD_TEMPERATURES,
+        REPLY_ALL_TEMPERATURES,
+        REPLY_ALL_TEMPERATURES_MAP
+    }
+
+    @Param({"IOT", "JACKSON_CBOR"})
+    public Format format;
+
+    @Param({"RECORD_TEMPERATURES", "REPLY_ALL_TEMPERATURES", "REPLY_ALL_TEMPERATURES_MAP"})
+    public Message message;
+
+    // NOTE(mmm): Samples in the batch, or devices in the reply.
+    @Param({"16", "1024"})
+    public int size;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Encoded {
+        public long encodedBytes;
+    }
+
+    // NOTE(mmm): TemperatureReading has several implementations, which Jackson
+    //  can only tell apart with a type id.
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME)
+    @JsonSubTypes({
+            @JsonSubTypes.Type(value = DeviceManager.Temperature.class, name = "T"),
+            @JsonSubTypes.Type(value = DeviceManager.TemperatureNotAvailable.class, name = "N"),
+            @JsonSubTypes.Type(value = DeviceManager.DeviceNotAvailable.class, name = "D"),
+            @JsonSubTypes.Type(value = DeviceManager.DeviceTimedOut.class, name = "O")
+    })
+    interface TemperatureReadingMixin {
+    }
+
+    private ActorSystem<Void> system;
+    private ExtendedActorSystem classicSystem;
+    private IotMessageSerializer iotSerializer;
+    private ObjectMapper cborMapper;
+    private Object msg;
+    private String manifest;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        system = ActorSystem.create(
+                Behaviors.empty(),
+                "serialization-benchmark",
+                ConfigFactory.parseResources("serialization.conf").withFallback(ConfigFactory.load()));
+        classicSystem = (ExtendedActorSystem) Adapter.toClassic(system);
+        iotSerializer = new IotMessageSerializer(classicSystem);
+        cborMapper = JacksonObjectMapperProvider.get(classicSystem)
+                .getOrCreate("jackson-cbor", Optional.of(new CBORFactory()))
+                .copy()
+                .addMixIn(DeviceManager.TemperatureReading.class, TemperatureReadingMixin.class);
+
+        msg = switch (message) {
+            case RECORD_TEMPERATURES -> recordTemperatures();
+            case REPLY_ALL_TEMPERATURES -> replyAllTemperatures();
+            case REPLY_ALL_TEMPERATURES_MAP -> new DeviceManager.ReplyAllTemperatures(
+                    1L, new HashMap<>(replyAllTemperatures().temperatures()));
+        };
+        manifest = iotSerializer.manifest(msg);
+        bytes = encodeOnce();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.terminate(system);
+    }
+
+    @Benchmark
+    public byte[] encode(Encoded encoded) throws IOException {
+        var result = encodeOnce();
+        encoded.encodedBytes = result.length;
+        return result;
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return switch (format) {
+            case IOT -> iotSerializer.fromBinary(bytes, manifest);
+            // NOTE(mmm): Pekko's ActorRef deserializer finds the system here.
+            case JACKSON_CBOR -> Serialization.withTransportInformation(classicSystem, this::decodeCbor);
+        };
+    }
+
+    private Object decodeCbor() {
+        try {
+            return cborMapper.readValue(bytes, msg.getClass());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] encodeOnce() throws IOException {
+        return switch (format) {
+            case IOT -> iotSerializer.toBinary(msg);
+            case JACKSON_CBOR -> cborMapper.writeValueAsBytes(msg);
+        };
+    }
+
+    private DeviceManager.RecordTemperatures recordTemperatures() {
+        var deviceIds = new String[size];
+        var values = new double[size];
+        var timestamps = new long[size];
+        var now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            deviceIds[i] = "sensor-" + (i % 64);
+            values[i] = 20 + i % 100 / 10.0;
+            timestamps[i] = now + i;
+        }
+        return new DeviceManager.RecordTemperatures(
+                1L, "building-7", deviceIds, values, timestamps, system.ignoreRef());
+    }
+
+    private DeviceManager.ReplyAllTemperatures replyAllTemperatures() {
+        var deviceIds = new String[size];
+        var values = new double[size];
+        var statuses = new byte[size];
+        for (int i = 0; i < size; i++) {
+            deviceIds[i] = "sensor-" + i;
+            if (i % 10 == 0) {
+                values[i] = Double.NaN;
+                statuses[i] = TemperatureColumns.DEVICE_TIMED_OUT;
+            } else {
+                values[i] = 20 + i % 100 / 10.0;
+                statuses[i] = TemperatureColumns.TEMPERATURE;
+            }
+        }
+        return new DeviceManager.ReplyAllTemperatures(1L, new TemperatureColumns(deviceIds, values, statuses));
+    }
+}
@@ -0,0 +1,48 @@
+package com.epicgames.experiments.iot;
+
+import java.time.Duration;
+
+// NOTE(mmm): How long a group's queries wait for their devices: the
+//  {percentile} of how long devices took to answer in earlier queries, never
+//  less than {min} and never more than {max}. Until it has seen enough
+//  samples, or with a {percentile} of 0, it's always {max}. Not thread-safe;
+//  it belongs to a single actor.
+final class AdaptiveTimeout {
+    // NOTE(mmm): The percentile is trusted once this many device replies
+    //  have been seen, and older samples are halved past the maximum.
+    static final long MIN_SAMPLES = 100;
+    static final long MAX_SAMPLES = 100_000;
+
+    private final double percentile;
+    private final Duration min;
+    private final Duration max;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    AdaptiveTimeout(double percentile, Duration min, Duration max) {
+        this.percentile = percentile;
+        this.min = min;
+        this.max = max;
+    }
+
+    Duration timeout() {
+        if (percentile <= 0 || latencies.count() < MIN_SAMPLES) {
+            return max;
+        }
+
+        var adaptive = Duration.ofNanos(latencies.valueAtPercentile(percentile));
+        if (adaptive.compareTo(min) < 0) {
+            return min;
+        }
+        if (adaptive.compareTo(max) > 0) {
+            return max;
+        }
+        return adaptive;
+    }
+
+    void record(LatencyHistogram queryLatencies) {
+        latencies.merge(queryLatencies);
+        if (latencies.count() > MAX_SAMPLES) {
+            latencies.decay();
+        }
+    }
+}
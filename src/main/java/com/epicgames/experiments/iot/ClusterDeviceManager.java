@@ -0,0 +1,73 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.javadsl.AbstractBehavior;
+import org.apache.pekko.actor.typed.javadsl.ActorContext;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.apache.pekko.actor.typed.javadsl.Receive;
+import org.apache.pekko.cluster.sharding.typed.ShardingEnvelope;
+import org.apache.pekko.cluster.sharding.typed.javadsl.ClusterSharding;
+import org.apache.pekko.cluster.sharding.typed.javadsl.Entity;
+import org.apache.pekko.cluster.sharding.typed.javadsl.EntityTypeKey;
+
+// NOTE(mmm): DeviceManager for cluster mode. DeviceGroups are sharded
+//  entities keyed by groupId, spread over every node that called
+//  initSharding(), and started on the first message sent to them. A group
+//  that has no devices once it has answered a query passivates itself, so
+//  queries for unknown groups get an empty reply and leave nothing behind.
+//  This actor only wraps group commands in an envelope for the shard region;
+//  it keeps no state, so every node can run one.
+public class ClusterDeviceManager extends AbstractBehavior<DeviceManager.Command> {
+    public static final EntityTypeKey<DeviceGroup.Command> GROUP_TYPE_KEY =
+            EntityTypeKey.create(DeviceGroup.Command.class, "DeviceGroup");
+
+    public static Behavior<DeviceManager.Command> create() {
+        return create(DeviceGroup.Settings.DEFAULT);
+    }
+
+    public static Behavior<DeviceManager.Command> create(DeviceGroup.Settings groupSettings) {
+        return Behaviors.setup(context ->
+                new ClusterDeviceManager(context, initSharding(context.getSystem(), groupSettings)));
+    }
+
+    // NOTE(mmm): Must run on every node that hosts groups, with the same
+    //  settings. Calling it again on the same node returns the same region.
+    public static ActorRef<ShardingEnvelope<DeviceGroup.Command>> initSharding(
+            ActorSystem<?> system,
+            DeviceGroup.Settings groupSettings
+    ) {
+        return ClusterSharding.get(system).init(
+                Entity.of(GROUP_TYPE_KEY, entityContext ->
+                                DeviceGroup.create(
+                                        entityContext.getEntityId(), groupSettings, entityContext.getShard()))
+                        .withEntityProps(groupSettings.groupProps(null))
+                        .withStopMessage(DeviceGroup.Stop.INSTANCE));
+    }
+
+    @Override
+    public Receive<DeviceManager.Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(DeviceManager.GroupCommand.class, this::onGroupCommand)
+                .build();
+    }
+
+    private final ActorRef<ShardingEnvelope<DeviceGroup.Command>> groupRegion;
+
+    private ClusterDeviceManager(
+            ActorContext<DeviceManager.Command> context,
+            ActorRef<ShardingEnvelope<DeviceGroup.Command>> groupRegion
+    ) {
+        super(context);
+        this.groupRegion = groupRegion;
+
+        context.getLog().info("Cluster device manager started");
+    }
+
+    private Behavior<DeviceManager.Command> onGroupCommand(DeviceManager.GroupCommand msg) {
+        groupRegion.tell(new ShardingEnvelope<>(msg.groupId(), msg));
+
+        return this;
+    }
+}
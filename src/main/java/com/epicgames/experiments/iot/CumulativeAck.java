@@ -0,0 +1,88 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+
+import java.util.BitSet;
+
+// NOTE(mmm): The ack of one device's Device.RecordTemperatureCumulativeAck
+//  readings (see there). requestId is the highest contiguous requestId of
+//  the current run. Readings past a gap are bits in aheadOfGap, bit {i}
+//  being requestId gapStart + i, until the gap is filled. Whoever owns it
+//  decides when the pending ack goes out. Not thread-safe, it belongs to one
+//  actor.
+final class CumulativeAck {
+    // NOTE(mmm): Readings this far past a gap or further aren't remembered;
+    //  they only count once they come again after the gap is filled.
+    private static final int MAX_GAP = 1 << 16;
+
+    private ActorRef<Device.TemperatureRecorded> replyTo;
+    private long requestId;
+    private int unacked;
+    private final BitSet aheadOfGap = new BitSet();
+    private long gapStart;
+
+    // NOTE(mmm): Returns whether the reading now waits for an ack, in which
+    //  case the owner flushes once unacked() is high enough, or a while
+    //  later. A reading past a gap, or for a different replyTo, flushes the
+    //  ack right away instead.
+    boolean record(long requestId, ActorRef<Device.TemperatureRecorded> replyTo) {
+        if (!replyTo.equals(this.replyTo)) {
+            flush();
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+            aheadOfGap.clear();
+            unacked++;
+            return true;
+        }
+
+        if (requestId == this.requestId + 1) {
+            this.requestId++;
+            unacked++;
+            fillGap();
+            return true;
+        }
+
+        if (requestId > this.requestId + 1) {
+            if (aheadOfGap.isEmpty()) {
+                gapStart = this.requestId + 1;
+            }
+            if (requestId - gapStart < MAX_GAP) {
+                aheadOfGap.set((int) (requestId - gapStart));
+            }
+            // NOTE(mmm): Let the sender know where the gap is.
+            flush();
+        }
+
+        // NOTE(mmm): Otherwise already covered by the ack.
+        return false;
+    }
+
+    int unacked() {
+        return unacked;
+    }
+
+    void flush() {
+        if (unacked == 0) {
+            return;
+        }
+
+        replyTo.tell(new Device.TemperatureRecorded(requestId));
+        unacked = 0;
+    }
+
+    // NOTE(mmm): Moves requestId over the readings past the gap that now
+    //  follow it.
+    private void fillGap() {
+        if (aheadOfGap.isEmpty()) {
+            return;
+        }
+
+        var next = (int) (requestId + 1 - gapStart);
+        var filled = aheadOfGap.nextClearBit(next) - next;
+        requestId += filled;
+        unacked += filled;
+        if (aheadOfGap.nextSetBit(next + filled) < 0) {
+            aheadOfGap.clear();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.epicgames.experiments.iot;
 
+import lombok.With;
 import org.apache.pekko.actor.typed.ActorRef;
 import org.apache.pekko.actor.typed.Behavior;
 import org.apache.pekko.actor.typed.PostStop;
@@ -7,11 +8,15 @@ import org.apache.pekko.actor.typed.javadsl.AbstractBehavior;
 import org.apache.pekko.actor.typed.javadsl.ActorContext;
 import org.apache.pekko.actor.typed.javadsl.Behaviors;
 import org.apache.pekko.actor.typed.javadsl.Receive;
+import org.apache.pekko.actor.typed.javadsl.TimerScheduler;
 
+import java.time.Duration;
 import java.util.OptionalDouble;
 
 public class Device extends AbstractBehavior<Device.Command> {
-    public interface Command {
+    public static final int NO_INDEX = -1;
+
+    public interface Command extends IotMessage {
     }
 
     public record RecordTemperature(
@@ -21,53 +26,259 @@ public class Device extends AbstractBehavior<Device.Command> {
     ) implements Command {
     }
 
+    public record RecordTemperatureNoReply(
+            long requestId,
+            double value
+    ) implements Command {
+    }
+
+    // NOTE(mmm): The device doesn't ack every reading. It acks the highest
+    //  contiguous requestId seen so far every {ackBatchSize} readings, or
+    //  {ackInterval} after the first unacked one, whichever comes first. A
+    //  reading past a gap in the requestIds is recorded, but the ack stays at
+    //  the last requestId before the gap until the gap is filled. A different
+    //  replyTo acks the previous run and starts a new one.
+    public record RecordTemperatureCumulativeAck(
+            long requestId,
+            double value,
+            ActorRef<TemperatureRecorded> replyTo
+    ) implements Command {
+    }
+
+    // NOTE(mmm): {busy} marks a reading that was shed by a SheddingMailbox
+    //  instead of recorded.
     public record TemperatureRecorded(
-            long requestId
-    ) {
+            long requestId,
+            boolean busy
+    ) implements IotMessage {
+        public TemperatureRecorded(long requestId) {
+            this(requestId, false);
+        }
     }
 
+    public record RecordTemperatures(
+            long requestId,
+            double[] values,
+            long[] timestamps
+    ) implements Command {
+    }
+
+    // NOTE(mmm): This device's share of a DeviceManager.RecordTemperatures,
+    //  from its group. The device reports it to {replyTo} once it's recorded.
+    record RecordTemperatureSlice(
+            long requestId,
+            double[] values,
+            long[] timestamps,
+            ActorRef<DeviceGroupBatch.SliceRecorded> replyTo
+    ) implements Command {
+    }
+
+    // NOTE(mmm): {index} is for whoever asks several devices at once, such
+    //  as DeviceGroupQuery, to tell the replies apart: the reply echoes it,
+    //  next to the unchanged {requestId}. NO_INDEX if there is none.
     public record ReadTemperature(
             long requestId,
-            ActorRef<Temperature> replyTo
+            ActorRef<Temperature> replyTo,
+            int index
     ) implements Command {
+        public ReadTemperature(long requestId, ActorRef<Temperature> replyTo) {
+            this(requestId, replyTo, NO_INDEX);
+        }
     }
 
+    // NOTE(mmm): Also a DeviceGroupQuery.Command, so the query takes the
+    //  replies of its devices as they are, without a message adapter.
     public record Temperature(
             long requestId,
             String deviceId,
-            OptionalDouble value
-    ) {
+            OptionalDouble value,
+            int index
+    ) implements IotMessage, DeviceGroupQuery.Command {
+        public Temperature(long requestId, String deviceId, OptionalDouble value) {
+            this(requestId, deviceId, value, NO_INDEX);
+        }
+    }
+
+    // NOTE(mmm): Aggregates over the readings kept in the device's history
+    //  that are at most {window} old. {percentiles} are in [0, 100].
+    public record ReadTemperatureStats(
+            long requestId,
+            Duration window,
+            double[] percentiles,
+            ActorRef<TemperatureStats> replyTo
+    ) implements Command {
+    }
+
+    // NOTE(mmm): min, max, mean and the percentiles are NaN if the window is empty.
+    public record TemperatureStats(
+            long requestId,
+            String deviceId,
+            int count,
+            double min,
+            double max,
+            double mean,
+            double[] percentiles
+    ) implements IotMessage {
     }
 
     public enum Passivate implements Command {
         INSTANCE;
     }
 
+    private enum FlushAck implements Command {
+        INSTANCE;
+    }
+
+    private enum PublishSnapshot implements Command {
+        INSTANCE;
+    }
+
+    private enum IdleTimeout implements Command {
+        INSTANCE;
+    }
+
+    // NOTE(mmm): EVERY logs each reading, SAMPLED logs one reading out of
+    //  every {readingLogSampleEvery}, AGGREGATED logs a count of the readings
+    //  seen every {readingLogInterval}. All of them are free when INFO is off.
+    public enum ReadingLogMode {
+        EVERY,
+        SAMPLED,
+        AGGREGATED
+    }
+
+    @With
+    public record Settings(
+            int ackBatchSize,
+            Duration ackInterval,
+            ReadingLogMode readingLogMode,
+            int readingLogSampleEvery,
+            Duration readingLogInterval,
+            int historyCapacity,
+            Duration snapshotFreshness
+    ) {
+        public static final Settings DEFAULT = new Settings(
+                100,
+                Duration.ofMillis(100),
+                ReadingLogMode.EVERY,
+                100,
+                Duration.ofSeconds(1),
+                32,
+                Duration.ofSeconds(1));
+    }
+
     public static Behavior<Command> create(String groupId, String deviceId) {
-        return Behaviors.setup(context -> new Device(context, groupId, deviceId));
+        return create(groupId, deviceId, Settings.DEFAULT);
+    }
+
+    public static Behavior<Command> create(String groupId, String deviceId, Settings settings) {
+        return create(groupId, deviceId, settings, null);
+    }
+
+    // NOTE(mmm): If {snapshot} is set, the device pushes its latest reading
+    //  there, at most once per {snapshotFreshness}. The latest reading always
+    //  goes out, so the snapshot is never older than {snapshotFreshness}.
+    public static Behavior<Command> create(
+            String groupId,
+            String deviceId,
+            Settings settings,
+            ActorRef<DeviceGroup.Command> snapshot
+    ) {
+        return create(
+                groupId, deviceId, settings, snapshot, null, Duration.ZERO, DeviceTable.NO_READING, 0,
+                IotMetrics.unlisted(groupId));
+    }
+
+    // NOTE(mmm): If {group} is set, the device tells it once nothing has
+    //  reached it for {idleTimeout}, and hands its latest reading over to it
+    //  when passivated (see DeviceGroup.Settings.deviceIdleTimeout). The
+    //  device starts from the reading the group kept the last time, unless
+    //  {lastTimestamp} is DeviceTable.NO_READING. It counts its readings in
+    //  {metrics}, which its group holds.
+    static Behavior<Command> create(
+            String groupId,
+            String deviceId,
+            Settings settings,
+            ActorRef<DeviceGroup.Command> snapshot,
+            ActorRef<DeviceGroup.Command> group,
+            Duration idleTimeout,
+            long lastTimestamp,
+            double lastValue,
+            IotMetrics.Group metrics
+    ) {
+        return Behaviors.setup(context ->
+                Behaviors.withTimers(timers -> {
+                    var device = new Device(context, timers, groupId, deviceId, settings, snapshot, group, metrics);
+                    if (lastTimestamp != DeviceTable.NO_READING) {
+                        device.restore(lastTimestamp, lastValue);
+                    }
+                    if (group != null && !idleTimeout.isZero()) {
+                        context.setReceiveTimeout(idleTimeout, IdleTimeout.INSTANCE);
+                    }
+                    return device;
+                }));
     }
 
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
                 .onMessage(RecordTemperature.class, this::onRecordTemperature)
+                .onMessage(RecordTemperatureNoReply.class, this::onRecordTemperatureNoReply)
+                .onMessage(RecordTemperatureCumulativeAck.class, this::onRecordTemperatureCumulativeAck)
+                .onMessage(FlushAck.class, msg -> onFlushAck())
+                .onMessage(PublishSnapshot.class, msg -> onPublishSnapshot())
+                .onMessage(RecordTemperatures.class, this::onRecordTemperatures)
+                .onMessage(RecordTemperatureSlice.class, this::onRecordTemperatureSlice)
                 .onMessage(ReadTemperature.class, this::onReadTemperature)
-                .onMessage(Passivate.class, msg -> Behaviors.stopped())
+                .onMessage(ReadTemperatureStats.class, this::onReadTemperatureStats)
+                .onMessage(IdleTimeout.class, msg -> onIdleTimeout())
+                .onMessage(Passivate.class, msg -> onPassivate())
                 .onSignal(PostStop.class, signal -> onPostStop())
                 .build();
     }
 
+    private final TimerScheduler<Command> timers;
     private final String groupId;
     private final String deviceId;
+    private final Settings settings;
+    private final ReadingLog readingLog;
+    private final ReadingHistory history;
+    private final ActorRef<DeviceGroup.Command> snapshot;
+    private final ActorRef<DeviceGroup.Command> group;
+    private final IotMetrics.Group metrics;
 
-    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
-    private OptionalDouble lastTemperatureReading = OptionalDouble.empty();
+    // NOTE(mmm): Kept as primitives so that recording a reading doesn't
+    //  allocate. The OptionalDouble is only built when someone reads it.
+    private boolean hasTemperatureReading;
+    private double lastTemperatureReading;
 
-    private Device(ActorContext<Command> context, String groupId, String deviceId) {
+    private final CumulativeAck ack = new CumulativeAck();
+
+    private long lastPublishedNanos;
+    private long lastReadingTimestamp;
+
+    private Device(
+            ActorContext<Command> context,
+            TimerScheduler<Command> timers,
+            String groupId,
+            String deviceId,
+            Settings settings,
+            ActorRef<DeviceGroup.Command> snapshot,
+            ActorRef<DeviceGroup.Command> group,
+            IotMetrics.Group metrics
+    ) {
         super(context);
+        this.timers = timers;
         this.groupId = groupId;
         this.deviceId = deviceId;
+        this.settings = settings;
+        this.readingLog = new ReadingLog(context.getLog(), settings);
+        this.history = new ReadingHistory(settings.historyCapacity());
+        this.snapshot = snapshot;
+        this.group = group;
+        this.metrics = metrics;
+        this.lastPublishedNanos = System.nanoTime() - settings.snapshotFreshness.toNanos();
 
+        IotMetrics.deviceSpawned();
         context.getLog().atInfo()
                 .setMessage("Device started")
                 .addKeyValue("groupId", groupId)
@@ -75,27 +286,156 @@ public class Device extends AbstractBehavior<Device.Command> {
                 .log();
     }
 
+    private void restore(long timestamp, double value) {
+        hasTemperatureReading = true;
+        lastTemperatureReading = value;
+        lastReadingTimestamp = timestamp;
+        history.add(timestamp, value);
+    }
+
     private Behavior<Command> onRecordTemperature(RecordTemperature msg) {
-        lastTemperatureReading = OptionalDouble.of(msg.value);
+        record(msg.requestId, msg.value);
+        msg.replyTo.tell(new TemperatureRecorded(msg.requestId));
 
-        getContext().getLog().atInfo()
-                .setMessage("Temperature reading recorded")
-                .addKeyValue("requestId", msg.requestId)
-                .addKeyValue("value", msg.value)
-                .log();
+        return this;
+    }
 
-        msg.replyTo.tell(new TemperatureRecorded(msg.requestId));
+    private Behavior<Command> onRecordTemperatureNoReply(RecordTemperatureNoReply msg) {
+        record(msg.requestId, msg.value);
+
+        return this;
+    }
+
+    private Behavior<Command> onRecordTemperatureCumulativeAck(RecordTemperatureCumulativeAck msg) {
+        record(msg.requestId, msg.value);
+
+        if (!ack.record(msg.requestId, msg.replyTo)) {
+            return this;
+        }
+
+        if (ack.unacked() >= settings.ackBatchSize) {
+            flushAck();
+        } else if (!timers.isTimerActive(FlushAck.INSTANCE)) {
+            timers.startSingleTimer(FlushAck.INSTANCE, settings.ackInterval);
+        }
+
+        return this;
+    }
+
+    private Behavior<Command> onFlushAck() {
+        flushAck();
+
+        return this;
+    }
+
+    private void flushAck() {
+        ack.flush();
+        timers.cancel(FlushAck.INSTANCE);
+    }
+
+    private void record(long requestId, double value) {
+        var timestamp = System.currentTimeMillis();
+        hasTemperatureReading = true;
+        lastTemperatureReading = value;
+        lastReadingTimestamp = timestamp;
+        history.add(timestamp, value);
+        metrics.recordReadings(1);
+        readingLog.record(requestId, value);
+        scheduleSnapshot();
+    }
+
+    private void scheduleSnapshot() {
+        if (snapshot == null || timers.isTimerActive(PublishSnapshot.INSTANCE)) {
+            return;
+        }
+
+        var untilNext = lastPublishedNanos + settings.snapshotFreshness.toNanos() - System.nanoTime();
+        if (untilNext <= 0) {
+            publishSnapshot();
+        } else {
+            timers.startSingleTimer(PublishSnapshot.INSTANCE, Duration.ofNanos(untilNext));
+        }
+    }
+
+    private Behavior<Command> onPublishSnapshot() {
+        publishSnapshot();
+
+        return this;
+    }
+
+    private void publishSnapshot() {
+        lastPublishedNanos = System.nanoTime();
+        snapshot.tell(new DeviceGroup.DeviceReading(deviceId, lastTemperatureReading, lastReadingTimestamp));
+    }
+
+    private Behavior<Command> onRecordTemperatures(RecordTemperatures msg) {
+        recordBatch(msg.requestId, msg.values, msg.timestamps);
 
         return this;
     }
 
+    private Behavior<Command> onRecordTemperatureSlice(RecordTemperatureSlice msg) {
+        recordBatch(msg.requestId, msg.values, msg.timestamps);
+        msg.replyTo.tell(new DeviceGroupBatch.SliceRecorded(msg.values.length, 0));
+
+        return this;
+    }
+
+    private void recordBatch(long requestId, double[] values, long[] timestamps) {
+        if (values.length == 0) {
+            return;
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            history.add(timestamps[i], values[i]);
+        }
+
+        var last = values.length - 1;
+        hasTemperatureReading = true;
+        lastTemperatureReading = values[last];
+        lastReadingTimestamp = timestamps[last];
+        metrics.recordReadings(values.length);
+        readingLog.recordBatch(requestId, values.length, lastTemperatureReading);
+        scheduleSnapshot();
+    }
+
     private Behavior<Command> onReadTemperature(ReadTemperature msg) {
-        msg.replyTo.tell(new Temperature(msg.requestId, deviceId, lastTemperatureReading));
+        var value = hasTemperatureReading ? OptionalDouble.of(lastTemperatureReading) : OptionalDouble.empty();
+        msg.replyTo.tell(new Temperature(msg.requestId, deviceId, value, msg.index));
+
+        return this;
+    }
+
+    private Behavior<Command> onReadTemperatureStats(ReadTemperatureStats msg) {
+        var since = System.currentTimeMillis() - msg.window.toMillis();
+        msg.replyTo.tell(history.stats(msg.requestId, deviceId, since, msg.percentiles));
+
+        return this;
+    }
+
+    private Behavior<Command> onIdleTimeout() {
+        getContext().cancelReceiveTimeout();
+        group.tell(new DeviceGroup.DeviceIdle(deviceId));
 
         return this;
     }
 
+    private Behavior<Command> onPassivate() {
+        if (group != null) {
+            var timestamp = hasTemperatureReading ? lastReadingTimestamp : DeviceTable.NO_READING;
+            group.tell(new DeviceGroup.DevicePassivated(deviceId, timestamp, lastTemperatureReading));
+        }
+
+        return Behaviors.stopped();
+    }
+
     private Behavior<Command> onPostStop() {
+        // NOTE(mmm): The readings the ack covers were recorded, so let the
+        //  sender know before we go away.
+        ack.flush();
+        readingLog.flush();
+        IotMetrics.deviceStopped();
+
         getContext().getLog().atInfo()
                 .setMessage("Device stopped")
                 .addKeyValue("groupId", groupId)
@@ -1,31 +1,287 @@
 package com.epicgames.experiments.iot;
 
+import lombok.With;
 import org.apache.pekko.actor.typed.ActorRef;
 import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.DeathPactException;
+import org.apache.pekko.actor.typed.MailboxSelector;
 import org.apache.pekko.actor.typed.PostStop;
+import org.apache.pekko.actor.typed.Props;
+import org.apache.pekko.actor.typed.Terminated;
 import org.apache.pekko.actor.typed.javadsl.AbstractBehavior;
 import org.apache.pekko.actor.typed.javadsl.ActorContext;
 import org.apache.pekko.actor.typed.javadsl.Behaviors;
 import org.apache.pekko.actor.typed.javadsl.Receive;
+import org.apache.pekko.actor.typed.javadsl.TimerScheduler;
+import org.apache.pekko.cluster.sharding.typed.javadsl.ClusterSharding;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Set;
 
 public class DeviceGroup extends AbstractBehavior<DeviceGroup.Command> {
     public interface Command {
     }
 
-    private record DeviceTerminated(
-            ActorRef<Device.Command> device,
-            String groupId,
+    // NOTE(mmm): ACTORS spawns a full Device actor per device. OFF_HEAP keeps
+    //  the latest reading of every device in one off-heap table owned by the
+    //  group, and spawns stateless DeviceHandles in place of the devices.
+    //  Batched readings then never touch a device actor at all. VIRTUAL
+    //  doesn't spawn anything: devices are rows in a DeviceTable inside the
+    //  group, and can only be reached through the group-level messages. The
+    //  ref a RequestTrackDevice hands out for them is shared by every device:
+    //  readings sent to it are answered as busy, without recording them, and
+    //  reads find no reading.
+    public enum Storage {
+        ACTORS,
+        OFF_HEAP,
+        VIRTUAL
+    }
+
+    // NOTE(mmm): Only applies to Storage.ACTORS, the other modes always
+    //  answer from their table. FAN_OUT spawns a DeviceGroupQuery that asks
+    //  every device. SNAPSHOT answers straight from the readings the devices
+    //  push to the group, which are at most
+    //  {deviceSettings.snapshotFreshness} old.
+    public enum QueryMode {
+        FAN_OUT,
+        SNAPSHOT
+    }
+
+    // NOTE(mmm): With QueryMode.FAN_OUT, requests that arrive while a query
+    //  is in flight join it instead of starting their own, and a completed
+    //  result is reused for {queryCacheTtl} (Duration.ZERO disables it).
+    //  Requests that set their own timeout always get a query of their own.
+    //
+    //  Queries without a timeout of their own wait up to {queryTimeout}, and
+    //  so do batches split over device actors for the devices to record their
+    //  slices. If
+    //  {adaptiveTimeoutPercentile} is above 0, the group keeps a histogram of
+    //  how long devices take to answer and, once it has enough samples, waits
+    //  for that percentile instead, never less than {adaptiveTimeoutMin} and
+    //  never more than {queryTimeout}.
+    //
+    //  If {queryShardSize} is above 0, groups with more devices than that
+    //  collect RequestAllTemperatures through a DeviceGroupShardedQuery, with
+    //  one sub-query per {queryShardSize} devices.
+    //
+    //  If {deviceIdleTimeout} is above 0 (Storage.ACTORS only), devices that
+    //  get no message for that long are stopped, and the group keeps their
+    //  latest reading in a DeviceTable. Callers get a DeviceHandle in place
+    //  of the device, so their ref stays valid: the device is spawned again
+    //  on the next command that needs it. A ReadTemperature is answered from
+    //  the table, so group-wide queries don't wake every device up.
+    //
+    //  If {persistInterval} is above 0, the group is persistent: the devices
+    //  it tracks and their latest readings go to a DeviceGroupJournal every
+    //  {persistInterval}, with a snapshot every {snapshotEvery} writes, and a
+    //  group started again with the same groupId picks up from there. Device
+    //  actors push their readings to the group for it, as with
+    //  QueryMode.SNAPSHOT. Whatever changed within the last {persistInterval}
+    //  is lost if the group stops.
+    //
+    //  If {segmentLog} is set, every reading that reaches the group is also
+    //  appended to it, unless it comes from ReadingSegmentLog.replay(). The
+    //  log belongs to whoever opened it; it is shared by all groups. Readings
+    //  sent straight to a device actor don't reach the group, so with
+    //  Storage.ACTORS only batches, and single readings of passivated devices
+    //  (whose ref is a DeviceHandle), end up in the log.
+    //
+    //  {groupMailbox} and {deviceMailbox} are config paths of the mailboxes
+    //  for the group and for its device actors (or DeviceHandles), such as
+    //  the SheddingMailboxes in mailboxes.conf; {managerMailbox} and
+    //  {queryMailbox} are those of the manager and of the group's queries.
+    //  Null keeps the default mailbox. {dispatchers} picks the dispatcher of the manager, the
+    //  groups, their devices and their queries.
+    @With
+    public record Settings(
+            Storage storage,
+            QueryMode queryMode,
+            Duration queryCacheTtl,
+            Duration queryTimeout,
+            double adaptiveTimeoutPercentile,
+            Duration adaptiveTimeoutMin,
+            int queryShardSize,
+            Duration deviceIdleTimeout,
+            Duration persistInterval,
+            int snapshotEvery,
+            ReadingSegmentLog segmentLog,
+            String groupMailbox,
+            String deviceMailbox,
+            String managerMailbox,
+            String queryMailbox,
+            DispatcherProfile dispatchers,
+            Device.Settings deviceSettings
+    ) {
+        public static final Settings DEFAULT = new Settings(
+                Storage.ACTORS,
+                QueryMode.FAN_OUT,
+                Duration.ZERO,
+                Duration.ofSeconds(3),
+                0,
+                Duration.ofMillis(10),
+                0,
+                Duration.ZERO,
+                Duration.ZERO,
+                100,
+                null,
+                null,
+                null,
+                null,
+                null,
+                DispatcherProfile.DEFAULT,
+                Device.Settings.DEFAULT);
+
+        Props managerProps() {
+            return dispatchers.managerProps(mailboxProps(managerMailbox));
+        }
+
+        Props groupProps(String groupId) {
+            return dispatchers.groupProps(mailboxProps(groupMailbox), groupId);
+        }
+
+        Props deviceProps() {
+            return dispatchers.deviceProps(mailboxProps(deviceMailbox));
+        }
+
+        Props queryProps() {
+            return dispatchers.queryProps(mailboxProps(queryMailbox));
+        }
+
+        private static Props mailboxProps(String path) {
+            return path != null ? MailboxSelector.fromConfig(path) : Props.empty();
+        }
+    }
+
+    record DeviceReading(
+            String deviceId,
+            double value,
+            long timestamp
+    ) implements Command {
+    }
+
+    record SlotCommand(
+            int slot,
+            Device.Command command
+    ) implements Command {
+    }
+
+    private record FlushSlotAck(
+            int slot
+    ) implements Command {
+    }
+
+    record DeviceIdle(
             String deviceId
     ) implements Command {
     }
 
+    // NOTE(mmm): {timestamp} is DeviceTable.NO_READING if the device never
+    //  had a reading.
+    record DevicePassivated(
+            String deviceId,
+            long timestamp,
+            double value
+    ) implements Command {
+    }
+
+    record JournalRecovered(
+            DeviceGroupJournal.Snapshot snapshot
+    ) implements Command {
+    }
+
+    record QueryLatencies(
+            LatencyHistogram latencies
+    ) implements Command {
+    }
+
+    // NOTE(mmm): Stops the group once its pending changes are written (see
+    //  onStop). Stopping it any other way drops them.
+    public enum Stop implements Command {
+        INSTANCE;
+    }
+
+    private enum FlushJournal implements Command {
+        INSTANCE;
+    }
+
+    private record QueryCompleted(
+            DeviceManager.ReplyAllTemperatures reply
+    ) implements Command {
+    }
+
+    private record VirtualDeviceCommand(
+            Device.Command command
+    ) implements Command {
+    }
+
+    private record DeviceTerminated(
+            ActorRef<Device.Command> deviceActor,
+            int device
+    ) implements Command {
+    }
+
     public static Behavior<Command> create(String groupId) {
-        return Behaviors.setup(context -> new DeviceGroup(context, groupId));
+        return create(groupId, Settings.DEFAULT);
+    }
+
+    public static Behavior<Command> create(String groupId, Settings settings) {
+        return create(groupId, settings, null);
+    }
+
+    // NOTE(mmm): {shard} is only set when the group is a sharded entity (see
+    //  ClusterDeviceManager). Such a group is started by any message for its
+    //  groupId, so one that still has no devices after answering a query
+    //  asks its shard to passivate it. A RequestTrackDevice that reaches it
+    //  after that, ahead of the shard's Stop, goes back through the shard
+    //  region, which holds it until the group has stopped and then starts
+    //  the group again for it.
+    static Behavior<Command> create(
+            String groupId,
+            Settings settings,
+            ActorRef<ClusterSharding.ShardCommand> shard
+    ) {
+        if (!settings.persistInterval.isPositive()) {
+            return Behaviors.setup(context ->
+                    Behaviors.withTimers(timers ->
+                            new DeviceGroup(context, timers, groupId, settings, null, null, shard)));
+        }
+
+        // NOTE(mmm): A persistent group holds every message back until its
+        //  journal has recovered, and dies with the journal.
+        return Behaviors.withStash(RECOVERY_STASH_CAPACITY, stash ->
+                Behaviors.setup(context ->
+                        Behaviors.withTimers(timers -> {
+                            var journal = context.spawn(
+                                    DeviceGroupJournal.create(groupId, settings.snapshotEvery, context.getSelf()),
+                                    "journal");
+                            context.watch(journal);
+
+                            return Behaviors.receive(Command.class)
+                                    .onMessage(JournalRecovered.class, msg -> stash.unstashAll(
+                                            new DeviceGroup(
+                                                    context, timers, groupId, settings, journal, msg.snapshot,
+                                                    shard)))
+                                    .onMessage(Command.class, msg -> {
+                                        // NOTE(mmm): Once the stash is full, batches are
+                                        //  turned away as busy, so their senders back off
+                                        //  as they would from a SheddingMailbox. Anything
+                                        //  else fails the group: stash() throws when full.
+                                        if (stash.isFull() && msg instanceof DeviceManager.RecordTemperatures batch) {
+                                            batch.replyTo().tell(new DeviceManager.TemperaturesRecorded(
+                                                    batch.requestId(), 0, batch.deviceIds().length, true));
+                                        } else {
+                                            stash.stash(msg);
+                                        }
+                                        return Behaviors.same();
+                                    })
+                                    .build();
+                        })));
     }
 
     @Override
@@ -42,28 +298,186 @@ public class DeviceGroup extends AbstractBehavior<DeviceGroup.Command> {
                         DeviceManager.RequestAllTemperatures.class,
                         msg -> groupId.equals(msg.groupId()),
                         this::onAllTemperatures)
+                .onMessage(
+                        DeviceManager.RequestQuorumTemperatures.class,
+                        msg -> groupId.equals(msg.groupId()),
+                        this::onQuorumTemperatures)
+                .onMessage(
+                        DeviceManager.RequestTemperatureStream.class,
+                        msg -> groupId.equals(msg.groupId()),
+                        this::onTemperatureStream)
+                .onMessage(
+                        DeviceManager.RecordTemperatures.class,
+                        msg -> groupId.equals(msg.groupId()),
+                        this::onRecordTemperatures)
+                .onMessage(QueryCompleted.class, this::onQueryCompleted)
+                .onMessage(QueryLatencies.class, this::onQueryLatencies)
+                .onMessage(DeviceReading.class, this::onDeviceReading)
+                .onMessage(SlotCommand.class, this::onSlotCommand)
+                .onMessage(FlushSlotAck.class, this::onFlushSlotAck)
+                .onMessage(VirtualDeviceCommand.class, this::onVirtualDeviceCommand)
+                .onMessage(DeviceIdle.class, this::onDeviceIdle)
+                .onMessage(DevicePassivated.class, this::onDevicePassivated)
+                .onMessage(FlushJournal.class, msg -> onFlushJournal())
+                .onMessage(Stop.class, msg -> onStop())
                 .onMessage(DeviceTerminated.class, this::onDeviceTerminated)
+                .onSignal(Terminated.class, this::onJournalTerminated)
                 .onSignal(PostStop.class, signal -> onPostStop())
                 .build();
     }
 
+    private static final int RECOVERY_STASH_CAPACITY = 10_000;
+
+    // NOTE(mmm): Pending changes are written early once there are this many,
+    //  to keep the events (and the memory held for them) bounded.
+    private static final int MAX_JOURNAL_BATCH = 10_000;
+
     private final String groupId;
-    private final Map<String, ActorRef<Device.Command>> deviceActorById = new HashMap<>();
+    private final Settings settings;
+    private final IotMetrics.Group metrics;
+    private final ActorRef<ClusterSharding.ShardCommand> shard;
+    private final TimerScheduler<Command> timers;
+    private boolean passivating;
+
+    // NOTE(mmm): Devices are known by their handle in deviceIndex inside the
+    //  group, and by their id in messages from and to the outside. A removed
+    //  device's handle is released. Not used with Storage.VIRTUAL.
+    private final IdRegistry deviceIndex;
+    private final IntObjectMap<ActorRef<Device.Command>> deviceActorById;
+
+    // NOTE(mmm): Only used with Storage.OFF_HEAP. A device's slot in
+    //  readings is its handle in deviceIndex, so handles released with their
+    //  device are reused for the slots too. cumulativeAcks holds the ack of
+    //  every slot that got a RecordTemperatureCumulativeAck.
+    private final OffHeapReadings readings;
+    private final IntObjectMap<CumulativeAck> cumulativeAcks;
+
+    // NOTE(mmm): Only used with Storage.VIRTUAL. All virtual devices share
+    //  one ActorRef, since there is no actor per device to hand out (see
+    //  onVirtualDeviceCommand).
+    private final DeviceTable table;
+    private final ActorRef<Device.Command> virtualDevices;
+
+    // NOTE(mmm): Only used with QueryMode.SNAPSHOT.
+    private final DeviceTable snapshot;
 
-    private DeviceGroup(ActorContext<Command> context, String groupId) {
+    // NOTE(mmm): Only used with a {deviceIdleTimeout}. deviceActorById holds
+    //  the handles, liveDeviceById the devices that are currently running.
+    //  Commands for a device that is being passivated wait in handoffById
+    //  until it has handed its reading over.
+    private final DeviceTable idleReadings;
+    private final Map<String, ActorRef<Device.Command>> liveDeviceById = new HashMap<>();
+    private final Map<String, ArrayList<Device.Command>> handoffById = new HashMap<>();
+
+    // NOTE(mmm): Only used with QueryMode.FAN_OUT.
+    private final ActorRef<DeviceManager.ReplyAllTemperatures> queryReplyTo;
+    private final ArrayList<DeviceManager.RequestAllTemperatures> queryWaiters = new ArrayList<>();
+    private long nextQueryId;
+    private TemperatureColumns cachedTemperatures;
+    private long cachedAtNanos;
+
+    // NOTE(mmm): Bumped whenever a device is added or removed. A query that
+    //  started before that answers its waiters, but isn't cached.
+    private long devicesVersion;
+    private long queryDevicesVersion;
+    private final AdaptiveTimeout adaptiveTimeout;
+
+    // NOTE(mmm): Only used with a {persistInterval}.
+    private final ActorRef<DeviceGroupJournal.Command> journal;
+    private final DeviceGroupJournal.Pending pending;
+    private boolean stopping;
+
+    private DeviceGroup(
+            ActorContext<Command> context,
+            TimerScheduler<Command> timers,
+            String groupId,
+            Settings settings,
+            ActorRef<DeviceGroupJournal.Command> journal,
+            DeviceGroupJournal.Snapshot recovered,
+            ActorRef<ClusterSharding.ShardCommand> shard
+    ) {
         super(context);
         this.groupId = groupId;
+        this.settings = settings;
+        this.shard = shard;
+        this.adaptiveTimeout = new AdaptiveTimeout(
+                settings.adaptiveTimeoutPercentile, settings.adaptiveTimeoutMin, settings.queryTimeout);
+        this.metrics = IotMetrics.group(groupId);
+        this.timers = timers;
+        this.journal = journal;
+        this.pending = journal != null ? new DeviceGroupJournal.Pending() : null;
+        this.readings = settings.storage == Storage.OFF_HEAP ? new OffHeapReadings(1024) : null;
+        this.cumulativeAcks = readings != null ? new IntObjectMap<>(16) : null;
+        this.table = settings.storage == Storage.VIRTUAL ? new DeviceTable(1024) : null;
+        this.deviceIndex = table == null ? new IdRegistry(1024) : null;
+        this.deviceActorById = table == null ? new IntObjectMap<>(1024) : null;
+        this.virtualDevices = table != null
+                ? context.messageAdapter(Device.Command.class, VirtualDeviceCommand::new)
+                : null;
+        this.snapshot = settings.storage == Storage.ACTORS && settings.queryMode == QueryMode.SNAPSHOT
+                ? new DeviceTable(1024)
+                : null;
+        this.idleReadings = settings.storage == Storage.ACTORS && settings.deviceIdleTimeout.isPositive()
+                ? new DeviceTable(1024)
+                : null;
+        this.queryReplyTo = context.messageAdapter(DeviceManager.ReplyAllTemperatures.class, QueryCompleted::new);
 
+        IotMetrics.groupStarted();
         context.getLog().atInfo()
                 .setMessage("Device group started")
                 .addKeyValue("groupId", groupId)
                 .log();
+
+        if (recovered != null) {
+            restore(recovered);
+        }
+    }
+
+    private void restore(DeviceGroupJournal.Snapshot recovered) {
+        var deviceIds = recovered.deviceIds();
+        metrics.devicesAdded(deviceIds.length);
+        for (int i = 0; i < deviceIds.length; i++) {
+            if (table != null) {
+                table.put(table.add(deviceIds[i]), recovered.timestamps()[i], recovered.values()[i]);
+            } else {
+                var device = deviceIndex.intern(deviceIds[i]);
+                deviceActorById.put(
+                        device, createDevice(device, recovered.timestamps()[i], recovered.values()[i]));
+            }
+        }
+
+        getContext().getLog().atInfo()
+                .setMessage("Device group recovered")
+                .addKeyValue("groupId", groupId)
+                .addKeyValue("devices", deviceIds.length)
+                .log();
     }
 
     private Behavior<Command> onTrackDevice(DeviceManager.RequestTrackDevice msg) {
-        if (groupId.equals(msg.groupId())) {
-            var device = deviceActorById.computeIfAbsent(msg.deviceId(), this::createDevice);
-            msg.replyTo().tell(new DeviceManager.DeviceRegistered(msg.requestId(), device));
+        if (groupId.equals(msg.groupId()) && passivating) {
+            ClusterSharding.get(getContext().getSystem())
+                    .entityRefFor(ClusterDeviceManager.GROUP_TYPE_KEY, groupId)
+                    .tell(msg);
+
+        } else if (groupId.equals(msg.groupId()) && table != null) {
+            if (table.slotOf(msg.deviceId()) < 0) {
+                journalRegistered(msg.deviceId());
+                metrics.devicesAdded(1);
+            }
+            table.add(msg.deviceId());
+            msg.replyTo().tell(new DeviceManager.DeviceRegistered(msg.requestId(), virtualDevices));
+
+        } else if (groupId.equals(msg.groupId())) {
+            var device = deviceIndex.intern(msg.deviceId());
+            var deviceActor = deviceActorById.get(device);
+            if (deviceActor == null) {
+                journalRegistered(msg.deviceId());
+                metrics.devicesAdded(1);
+                deviceActor = createDevice(device, DeviceTable.NO_READING, 0);
+                deviceActorById.put(device, deviceActor);
+                devicesChanged();
+            }
+            msg.replyTo().tell(new DeviceManager.DeviceRegistered(msg.requestId(), deviceActor));
 
         } else {
             getContext().getLog().atError()
@@ -76,10 +490,34 @@ public class DeviceGroup extends AbstractBehavior<DeviceGroup.Command> {
         return this;
     }
 
-    private ActorRef<Device.Command> createDevice(String deviceId) {
-        var deviceActor = getContext().spawn(Device.create(groupId, deviceId), "device-" + deviceId);
+    // NOTE(mmm): The device starts from the given reading, unless
+    //  {lastTimestamp} is DeviceTable.NO_READING.
+    private ActorRef<Device.Command> createDevice(int device, long lastTimestamp, double lastValue) {
+        var deviceId = deviceIndex.id(device);
+        if (snapshot != null) {
+            snapshot.put(snapshot.add(deviceId), lastTimestamp, lastValue);
+        }
+
+        Behavior<Device.Command> behavior;
+        if (readings != null) {
+            readings.ensureCapacity(device + 1);
+            readings.clear(device);
+            if (lastTimestamp != DeviceTable.NO_READING) {
+                readings.put(device, lastTimestamp, lastValue);
+            }
+            behavior = DeviceHandle.create(getContext().getSelf(), device);
+        } else if (idleReadings != null) {
+            var slot = idleReadings.add(deviceId);
+            idleReadings.put(slot, lastTimestamp, lastValue);
+            behavior = DeviceHandle.create(getContext().getSelf(), slot);
+        } else {
+            behavior = Device.create(
+                    groupId, deviceId, settings.deviceSettings, readingsTo(), null, Duration.ZERO,
+                    lastTimestamp, lastValue, metrics);
+        }
+        var deviceActor = getContext().spawn(behavior, "device-" + deviceId, settings.deviceProps());
 
-        getContext().watchWith(deviceActor, new DeviceTerminated(deviceActor, groupId, deviceId));
+        getContext().watchWith(deviceActor, new DeviceTerminated(deviceActor, device));
 
         return deviceActor;
     }
@@ -87,38 +525,811 @@ public class DeviceGroup extends AbstractBehavior<DeviceGroup.Command> {
     private Behavior<Command> onAllDevices(DeviceManager.RequestAllDevices msg) {
         // NOTE(mmm): HashMap is mutable in Java, so we take a "snapshot" (copy)
         // of the underlying key set at this point in time.
-        var deviceIds = new HashSet<>(deviceActorById.keySet());
+        Set<String> deviceIds;
+        if (table != null) {
+            deviceIds = new HashSet<>(table.size() * 2);
+            for (int slot = 0; slot < table.size(); slot++) {
+                deviceIds.add(table.deviceId(slot));
+            }
+        } else {
+            deviceIds = new HashSet<>(deviceActorById.size() * 2);
+            for (int slot = 0; slot < deviceActorById.slotCount(); slot++) {
+                if (deviceActorById.valueAt(slot) != null) {
+                    deviceIds.add(deviceIndex.id(deviceActorById.keyAt(slot)));
+                }
+            }
+        }
         msg.replyTo().tell(new DeviceManager.ReplyAllDevices(msg.requestId(), deviceIds));
 
+        return passivateIfEmpty();
+    }
+
+    private Behavior<Command> passivateIfEmpty() {
+        if (shard != null && !passivating && deviceCount() == 0) {
+            passivating = true;
+            shard.tell(new ClusterSharding.Passivate<>(getContext().getSelf()));
+        }
+
         return this;
     }
 
+    private int deviceCount() {
+        return table != null ? table.size() : deviceActorById.size();
+    }
+
     private Behavior<Command> onAllTemperatures(DeviceManager.RequestAllTemperatures msg) {
-        // NOTE(mmm): Same thing as above.
-        var deviceActorById_ = new HashMap<>(this.deviceActorById);
+        var temperatures = scanTemperatures();
+        if (temperatures != null) {
+            msg.replyTo().tell(new DeviceManager.ReplyAllTemperatures(msg.requestId(), temperatures));
+            return passivateIfEmpty();
+        }
+
+        if (cachedTemperatures != null && System.nanoTime() - cachedAtNanos < settings.queryCacheTtl.toNanos()) {
+            msg.replyTo().tell(new DeviceManager.ReplyAllTemperatures(msg.requestId(), cachedTemperatures));
+            return this;
+        }
+
+        if (msg.timeout() != null) {
+            spawnAllTemperaturesQuery(msg.requestId(), msg.replyTo(), msg.timeout());
+            return this;
+        }
+
+        queryWaiters.add(msg);
+        if (queryWaiters.size() > 1) {
+            // NOTE(mmm): A query is already in flight, this request joins it.
+            return this;
+        }
+
+        queryDevicesVersion = devicesVersion;
+        spawnAllTemperaturesQuery(nextQueryId++, queryReplyTo, queryTimeout(null));
+
+        return this;
+    }
+
+    private void devicesChanged() {
+        devicesVersion++;
+        cachedTemperatures = null;
+    }
+
+    private void spawnAllTemperaturesQuery(
+            long requestId,
+            ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
+            Duration timeout
+    ) {
+        var devices = queryDevices();
+        if (settings.queryShardSize > 0 && devices.size() > settings.queryShardSize) {
+            getContext().spawnAnonymous(
+                    DeviceGroupShardedQuery.create(
+                            requestId, devices, settings.queryShardSize, replyTo, timeout,
+                            latencyReportTo(), metrics),
+                    settings.queryProps());
+        } else {
+            getContext().spawnAnonymous(
+                    DeviceGroupQuery.createQuorum(
+                            requestId, devices, Integer.MAX_VALUE, replyTo, timeout,
+                            latencyReportTo(), metrics),
+                    settings.queryProps());
+        }
+    }
+
+    private Behavior<Command> onQuorumTemperatures(DeviceManager.RequestQuorumTemperatures msg) {
+        var temperatures = scanTemperatures();
+        if (temperatures != null) {
+            msg.replyTo().tell(new DeviceManager.ReplyAllTemperatures(msg.requestId(), temperatures));
+            return passivateIfEmpty();
+        }
+
         getContext().spawnAnonymous(
-                DeviceGroupQuery.create(
+                DeviceGroupQuery.createQuorum(
                         msg.requestId(),
-                        deviceActorById_,
+                        queryDevices(),
+                        msg.quorum(),
                         msg.replyTo(),
-                        Duration.ofSeconds(3)));
+                        queryTimeout(msg.timeout()),
+                        latencyReportTo(),
+                        metrics),
+                settings.queryProps());
 
         return this;
     }
 
+    private Behavior<Command> onTemperatureStream(DeviceManager.RequestTemperatureStream msg) {
+        var temperatures = scanTemperatures();
+        if (temperatures != null) {
+            msg.replyTo().tell(new DeviceManager.ReplyTemperaturesChunk(msg.requestId(), temperatures, true));
+            return passivateIfEmpty();
+        }
+
+        getContext().spawnAnonymous(
+                DeviceGroupQuery.createStreaming(
+                        msg.requestId(),
+                        queryDevices(),
+                        msg.chunkSize(),
+                        msg.replyTo(),
+                        queryTimeout(msg.timeout()),
+                        latencyReportTo(),
+                        metrics),
+                settings.queryProps());
+
+        return this;
+    }
+
+    // NOTE(mmm): The devices map is mutable, so queries get a copy of it as it
+    //  is at this point in time.
+    private DeviceGroupQuery.Devices queryDevices() {
+        var devices = DeviceGroupQuery.Devices.allocate(deviceActorById.size());
+        var i = 0;
+        for (int slot = 0; slot < deviceActorById.slotCount(); slot++) {
+            var deviceActor = deviceActorById.valueAt(slot);
+            if (deviceActor != null) {
+                devices.deviceIds()[i] = deviceIndex.id(deviceActorById.keyAt(slot));
+                devices.deviceActors()[i] = deviceActor;
+                i++;
+            }
+        }
+        return devices;
+    }
+
+    private Duration queryTimeout(Duration requested) {
+        return requested != null ? requested : adaptiveTimeout.timeout();
+    }
+
+    private ActorRef<Command> latencyReportTo() {
+        return settings.adaptiveTimeoutPercentile > 0 ? getContext().getSelf() : null;
+    }
+
+    private Behavior<Command> onQueryLatencies(QueryLatencies msg) {
+        adaptiveTimeout.record(msg.latencies);
+
+        return this;
+    }
+
+    // NOTE(mmm): Every temperature, if the group keeps them in a table or has
+    //  no devices at all. Null if the devices have to be asked.
+    private TemperatureColumns scanTemperatures() {
+        if (readings != null) {
+            return scanReadings();
+        }
+        if (table != null) {
+            return scanTable();
+        }
+        if (snapshot != null) {
+            return scanSnapshot();
+        }
+        if (deviceActorById.isEmpty()) {
+            // NOTE(mmm): Nothing to ask, don't make the caller wait for the
+            //  query timeout. Sharded groups are started on the first message
+            //  they get, so this is how a cluster answers for unknown groups
+            //  (and the group then passivates itself).
+            return TemperatureColumns.EMPTY;
+        }
+        return null;
+    }
+
+    private Behavior<Command> onQueryCompleted(QueryCompleted msg) {
+        var temperatures = TemperatureColumns.of(msg.reply.temperatures());
+        for (var waiter : queryWaiters) {
+            waiter.replyTo().tell(new DeviceManager.ReplyAllTemperatures(waiter.requestId(), temperatures));
+        }
+        queryWaiters.clear();
+
+        if (queryDevicesVersion == devicesVersion) {
+            cachedTemperatures = temperatures;
+            cachedAtNanos = System.nanoTime();
+        }
+
+        return this;
+    }
+
+    private TemperatureColumns scanReadings() {
+        var deviceIds = new String[deviceActorById.size()];
+        var values = new double[deviceIds.length];
+        var statuses = new byte[deviceIds.length];
+        var i = 0;
+        for (int slot = 0; slot < deviceActorById.slotCount(); slot++) {
+            if (deviceActorById.valueAt(slot) == null) {
+                continue;
+            }
+
+            var device = deviceActorById.keyAt(slot);
+            deviceIds[i] = deviceIndex.id(device);
+            setReading(values, statuses, i, readings.hasReading(device), readings.value(device));
+            i++;
+        }
+
+        return new TemperatureColumns(deviceIds, values, statuses);
+    }
+
+    private TemperatureColumns scanTable() {
+        var deviceIds = new String[table.size()];
+        var values = new double[deviceIds.length];
+        var statuses = new byte[deviceIds.length];
+        for (int slot = 0; slot < table.size(); slot++) {
+            deviceIds[slot] = table.deviceId(slot);
+            setReading(values, statuses, slot, table.hasReading(slot), table.value(slot));
+        }
+
+        return new TemperatureColumns(deviceIds, values, statuses);
+    }
+
+    private TemperatureColumns scanSnapshot() {
+        var deviceIds = new String[deviceActorById.size()];
+        var values = new double[deviceIds.length];
+        var statuses = new byte[deviceIds.length];
+        var j = 0;
+        for (int i = 0; i < deviceActorById.slotCount(); i++) {
+            if (deviceActorById.valueAt(i) == null) {
+                continue;
+            }
+            var deviceId = deviceIndex.id(deviceActorById.keyAt(i));
+            var slot = snapshot.slotOf(deviceId);
+            deviceIds[j] = deviceId;
+            setReading(values, statuses, j, snapshot.hasReading(slot), snapshot.value(slot));
+            j++;
+        }
+
+        return new TemperatureColumns(deviceIds, values, statuses);
+    }
+
+    private static void setReading(double[] values, byte[] statuses, int i, boolean hasReading, double value) {
+        statuses[i] = hasReading ? TemperatureColumns.TEMPERATURE : TemperatureColumns.TEMPERATURE_NOT_AVAILABLE;
+        values[i] = hasReading ? value : Double.NaN;
+    }
+
+    // NOTE(mmm): Where device actors push their readings to, if anywhere.
+    private ActorRef<Command> readingsTo() {
+        return snapshot != null || journal != null ? getContext().getSelf() : null;
+    }
+
+    private Behavior<Command> onDeviceReading(DeviceReading msg) {
+        if (snapshot != null) {
+            var slot = snapshot.slotOf(msg.deviceId);
+            if (slot >= 0) {
+                snapshot.put(slot, msg.timestamp, msg.value);
+            }
+        }
+        journalReading(msg.deviceId, msg.timestamp, msg.value);
+
+        return this;
+    }
+
+    private Behavior<Command> onRecordTemperatures(DeviceManager.RecordTemperatures msg) {
+        if (readings != null) {
+            return onRecordTemperaturesOffHeap(msg);
+        }
+        if (table != null) {
+            return onRecordTemperaturesVirtual(msg);
+        }
+
+        // NOTE(mmm): Two linear passes over the batch. The first one counts
+        //  the samples of every known device, the second one copies them into
+        //  a single slice per device. Devices get one message per batch instead
+        //  of one per sample, and the sender gets a single ack.
+        var deviceIds = msg.deviceIds();
+        var devices = new int[deviceIds.length];
+        var sliceByDevice = new IntObjectMap<BatchSlice>(16);
+        var rejected = 0;
+        for (int i = 0; i < deviceIds.length; i++) {
+            var device = deviceIndex.handleOf(deviceIds[i]);
+            devices[i] = device;
+            var slice = sliceByDevice.get(device);
+            if (slice == null) {
+                var deviceActor = deviceActorById.get(device);
+                if (deviceActor == null) {
+                    devices[i] = IdRegistry.NO_HANDLE;
+                    rejected++;
+                    continue;
+                }
+                slice = new BatchSlice(deviceActor);
+                sliceByDevice.put(device, slice);
+            }
+            slice.size++;
+        }
+
+        for (int slot = 0; slot < sliceByDevice.slotCount(); slot++) {
+            var slice = sliceByDevice.valueAt(slot);
+            if (slice != null) {
+                slice.values = new double[slice.size];
+                slice.timestamps = new long[slice.size];
+                slice.size = 0;
+            }
+        }
+
+        var values = msg.values();
+        var timestamps = msg.timestamps();
+        var segmentLog = msg.replay() ? null : settings.segmentLog;
+        for (int i = 0; i < deviceIds.length; i++) {
+            var slice = sliceByDevice.get(devices[i]);
+            if (slice != null) {
+                slice.values[slice.size] = values[i];
+                slice.timestamps[slice.size] = timestamps[i];
+                slice.size++;
+                if (segmentLog != null) {
+                    segmentLog.append(groupId, deviceIds[i], timestamps[i], values[i]);
+                }
+            }
+        }
+
+        // NOTE(mmm): The devices ack the batch once they have recorded it,
+        //  not the group once it has passed it on.
+        if (sliceByDevice.isEmpty()) {
+            msg.replyTo().tell(new DeviceManager.TemperaturesRecorded(msg.requestId(), 0, rejected));
+            return this;
+        }
+        var ack = getContext().spawnAnonymous(
+                DeviceGroupBatch.create(
+                        msg.requestId(), msg.replyTo(), sliceByDevice.size(), deviceIds.length - rejected, rejected,
+                        settings.queryTimeout),
+                settings.queryProps());
+        for (int slot = 0; slot < sliceByDevice.slotCount(); slot++) {
+            var slice = sliceByDevice.valueAt(slot);
+            if (slice == null) {
+                continue;
+            }
+            var cmd = new Device.RecordTemperatureSlice(
+                    msg.requestId(), slice.values, slice.timestamps, ack.narrow());
+            if (idleReadings != null) {
+                // NOTE(mmm): Skip the round trip through the device's handle.
+                var deviceId = deviceIndex.id(sliceByDevice.keyAt(slot));
+                deliver(deviceId, idleReadings.slotOf(deviceId), cmd);
+            } else {
+                slice.deviceActor.tell(cmd);
+            }
+        }
+
+        return this;
+    }
+
+    private Behavior<Command> onRecordTemperaturesOffHeap(DeviceManager.RecordTemperatures msg) {
+        var deviceIds = msg.deviceIds();
+        var values = msg.values();
+        var timestamps = msg.timestamps();
+        var segmentLog = msg.replay() ? null : settings.segmentLog;
+        var rejected = 0;
+        for (int i = 0; i < deviceIds.length; i++) {
+            var slot = deviceIndex.handleOf(deviceIds[i]);
+            if (slot == IdRegistry.NO_HANDLE) {
+                rejected++;
+            } else {
+                putOffHeap(slot, deviceIds[i], timestamps[i], values[i]);
+                if (segmentLog != null) {
+                    segmentLog.append(groupId, deviceIds[i], timestamps[i], values[i]);
+                }
+            }
+        }
+
+        metrics.recordReadings(deviceIds.length - rejected);
+        msg.replyTo().tell(new DeviceManager.TemperaturesRecorded(
+                msg.requestId(), deviceIds.length - rejected, rejected));
+
+        return this;
+    }
+
+    private Behavior<Command> onRecordTemperaturesVirtual(DeviceManager.RecordTemperatures msg) {
+        var deviceIds = msg.deviceIds();
+        var values = msg.values();
+        var timestamps = msg.timestamps();
+        var segmentLog = msg.replay() ? null : settings.segmentLog;
+        var rejected = 0;
+        for (int i = 0; i < deviceIds.length; i++) {
+            var slot = table.slotOf(deviceIds[i]);
+            if (slot < 0) {
+                rejected++;
+            } else {
+                table.put(slot, timestamps[i], values[i]);
+                journalReading(deviceIds[i], timestamps[i], values[i]);
+                if (segmentLog != null) {
+                    segmentLog.append(groupId, deviceIds[i], timestamps[i], values[i]);
+                }
+            }
+        }
+
+        metrics.recordReadings(deviceIds.length - rejected);
+        msg.replyTo().tell(new DeviceManager.TemperaturesRecorded(
+                msg.requestId(), deviceIds.length - rejected, rejected));
+
+        return this;
+    }
+
+    // NOTE(mmm): The shared ref can't tell which device a command is for, so
+    //  every command that expects an answer gets one right away, rather than
+    //  leaving its sender to wait for its own timeout. Which device the reply
+    //  is about is unknown, so its deviceId is empty.
+    private Behavior<Command> onVirtualDeviceCommand(VirtualDeviceCommand msg) {
+        switch (msg.command) {
+            case Device.RecordTemperature cmd -> cmd.replyTo().tell(new Device.TemperatureRecorded(cmd.requestId(), true));
+            case Device.RecordTemperatureCumulativeAck cmd ->
+                    cmd.replyTo().tell(new Device.TemperatureRecorded(cmd.requestId(), true));
+            case Device.ReadTemperature cmd ->
+                    cmd.replyTo().tell(
+                            new Device.Temperature(cmd.requestId(), "", OptionalDouble.empty(), cmd.index()));
+            case Device.ReadTemperatureStats cmd -> {
+                var percentiles = new double[cmd.percentiles().length];
+                Arrays.fill(percentiles, Double.NaN);
+                cmd.replyTo().tell(new Device.TemperatureStats(
+                        cmd.requestId(), "", 0, Double.NaN, Double.NaN, Double.NaN, percentiles));
+            }
+            case Device.Passivate cmd -> {
+            }
+            default -> getContext().getLog().atWarn()
+                    .setMessage("Virtual devices can only be reached through their group, ignoring command")
+                    .addKeyValue("groupId", groupId)
+                    .addKeyValue("command", msg.command.getClass().getSimpleName())
+                    .log();
+        }
+
+        return this;
+    }
+
+    private Behavior<Command> onSlotCommand(SlotCommand msg) {
+        if (idleReadings != null) {
+            var deviceId = idleReadings.deviceId(msg.slot);
+            if (deviceActorById.containsKey(deviceIndex.handleOf(deviceId))) {
+                appendToSegmentLog(deviceId, msg.command);
+            }
+            deliver(deviceId, msg.slot, msg.command);
+            return this;
+        }
+
+        var slot = msg.slot;
+        if (readings == null || !deviceActorById.containsKey(slot)) {
+            return this;
+        }
+        var deviceId = deviceIndex.id(slot);
+        appendToSegmentLog(deviceId, msg.command);
+
+        // NOTE(mmm): Only the latest reading is kept off-heap, so the stats
+        //  cover at most that one reading. Cumulative acks follow the same
+        //  rules as in a Device.
+        switch (msg.command) {
+            case Device.RecordTemperature cmd -> {
+                putOffHeap(slot, deviceId, System.currentTimeMillis(), cmd.value());
+                metrics.recordReadings(1);
+                cmd.replyTo().tell(new Device.TemperatureRecorded(cmd.requestId()));
+            }
+            case Device.RecordTemperatureNoReply cmd -> {
+                putOffHeap(slot, deviceId, System.currentTimeMillis(), cmd.value());
+                metrics.recordReadings(1);
+            }
+            case Device.RecordTemperatureCumulativeAck cmd -> {
+                putOffHeap(slot, deviceId, System.currentTimeMillis(), cmd.value());
+                metrics.recordReadings(1);
+                recordCumulativeAck(slot, cmd);
+            }
+            case Device.RecordTemperatures cmd -> {
+                metrics.recordReadings(cmd.values().length);
+                var last = cmd.values().length - 1;
+                if (last >= 0) {
+                    putOffHeap(slot, deviceId, cmd.timestamps()[last], cmd.values()[last]);
+                }
+            }
+            case Device.ReadTemperature cmd -> {
+                var value = readings.hasReading(slot) ? OptionalDouble.of(readings.value(slot)) : OptionalDouble.empty();
+                cmd.replyTo().tell(new Device.Temperature(cmd.requestId(), deviceId, value, cmd.index()));
+            }
+            case Device.ReadTemperatureStats cmd -> cmd.replyTo().tell(latestReadingStats(slot, deviceId, cmd));
+            default -> getContext().getLog().atWarn()
+                    .setMessage("Device command not supported with off-heap storage, ignoring it")
+                    .addKeyValue("groupId", groupId)
+                    .addKeyValue("deviceId", deviceId)
+                    .addKeyValue("command", msg.command.getClass().getSimpleName())
+                    .log();
+        }
+
+        return this;
+    }
+
+    private void recordCumulativeAck(int slot, Device.RecordTemperatureCumulativeAck cmd) {
+        var ack = cumulativeAcks.get(slot);
+        if (ack == null) {
+            ack = new CumulativeAck();
+            cumulativeAcks.put(slot, ack);
+        }
+        if (!ack.record(cmd.requestId(), cmd.replyTo())) {
+            return;
+        }
+
+        var flush = new FlushSlotAck(slot);
+        if (ack.unacked() >= settings.deviceSettings.ackBatchSize()) {
+            ack.flush();
+            timers.cancel(flush);
+        } else if (!timers.isTimerActive(flush)) {
+            timers.startSingleTimer(flush, settings.deviceSettings.ackInterval());
+        }
+    }
+
+    private Behavior<Command> onFlushSlotAck(FlushSlotAck msg) {
+        var ack = cumulativeAcks.get(msg.slot);
+        if (ack != null) {
+            ack.flush();
+        }
+
+        return this;
+    }
+
+    // NOTE(mmm): Single readings are stamped here, which is at most a few
+    //  milliseconds off the timestamp the device (or the off-heap table) gives
+    //  them.
+    private void appendToSegmentLog(String deviceId, Device.Command command) {
+        var segmentLog = settings.segmentLog;
+        if (segmentLog == null) {
+            return;
+        }
+
+        switch (command) {
+            case Device.RecordTemperature cmd ->
+                    segmentLog.append(groupId, deviceId, System.currentTimeMillis(), cmd.value());
+            case Device.RecordTemperatureNoReply cmd ->
+                    segmentLog.append(groupId, deviceId, System.currentTimeMillis(), cmd.value());
+            case Device.RecordTemperatureCumulativeAck cmd ->
+                    segmentLog.append(groupId, deviceId, System.currentTimeMillis(), cmd.value());
+            case Device.RecordTemperatures cmd -> {
+                for (int i = 0; i < cmd.values().length; i++) {
+                    segmentLog.append(groupId, deviceId, cmd.timestamps()[i], cmd.values()[i]);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void putOffHeap(int slot, String deviceId, long timestamp, double value) {
+        readings.put(slot, timestamp, value);
+        journalReading(deviceId, timestamp, value);
+    }
+
+    private void deliver(String deviceId, int slot, Device.Command command) {
+        var handle = deviceIndex.handleOf(deviceId);
+        if (!deviceActorById.containsKey(handle)) {
+            return;
+        }
+
+        var handoff = handoffById.get(deviceId);
+        if (handoff != null) {
+            handoff.add(command);
+            return;
+        }
+
+        var device = liveDeviceById.get(deviceId);
+        if (device == null && command instanceof Device.ReadTemperature cmd) {
+            var value = idleReadings.hasReading(slot) ? OptionalDouble.of(idleReadings.value(slot)) : OptionalDouble.empty();
+            cmd.replyTo().tell(new Device.Temperature(cmd.requestId(), deviceId, value, cmd.index()));
+            return;
+        }
+        if (device == null) {
+            device = spawnLiveDevice(handle, slot);
+        }
+        device.tell(command);
+    }
+
+    private ActorRef<Device.Command> spawnLiveDevice(int handle, int slot) {
+        var deviceId = deviceIndex.id(handle);
+        var device = getContext().spawnAnonymous(
+                Device.create(
+                        groupId,
+                        deviceId,
+                        settings.deviceSettings,
+                        readingsTo(),
+                        getContext().getSelf(),
+                        settings.deviceIdleTimeout,
+                        idleReadings.timestamp(slot),
+                        idleReadings.value(slot),
+                        metrics),
+                settings.deviceProps());
+        getContext().watchWith(device, new DeviceTerminated(device, handle));
+        liveDeviceById.put(deviceId, device);
+
+        return device;
+    }
+
+    private Behavior<Command> onDeviceIdle(DeviceIdle msg) {
+        var device = liveDeviceById.get(msg.deviceId);
+        if (device == null || handoffById.containsKey(msg.deviceId)) {
+            return this;
+        }
+
+        // NOTE(mmm): Anything already sent to the device is in its mailbox
+        //  ahead of the Passivate, so it gets recorded before the handover.
+        handoffById.put(msg.deviceId, new ArrayList<>());
+        device.tell(Device.Passivate.INSTANCE);
+
+        return this;
+    }
+
+    private Behavior<Command> onDevicePassivated(DevicePassivated msg) {
+        // NOTE(mmm): The device stops right after this, and there is nothing
+        //  left to learn from its Terminated, so the watch goes with it.
+        var device = liveDeviceById.remove(msg.deviceId);
+        if (device != null) {
+            getContext().unwatch(device);
+        }
+
+        var slot = idleReadings.slotOf(msg.deviceId);
+        if (msg.timestamp != DeviceTable.NO_READING) {
+            idleReadings.put(slot, msg.timestamp, msg.value);
+            journalReading(msg.deviceId, msg.timestamp, msg.value);
+        }
+
+        replayHandoff(msg.deviceId, slot);
+
+        return this;
+    }
+
+    private void replayHandoff(String deviceId, int slot) {
+        var handoff = handoffById.remove(deviceId);
+        if (handoff != null) {
+            for (var command : handoff) {
+                deliver(deviceId, slot, command);
+            }
+        }
+    }
+
+    private Device.TemperatureStats latestReadingStats(int slot, String deviceId, Device.ReadTemperatureStats msg) {
+        var percentiles = new double[msg.percentiles().length];
+        var since = System.currentTimeMillis() - msg.window().toMillis();
+        if (!readings.hasReading(slot) || readings.timestamp(slot) < since) {
+            Arrays.fill(percentiles, Double.NaN);
+            return new Device.TemperatureStats(
+                    msg.requestId(), deviceId, 0, Double.NaN, Double.NaN, Double.NaN, percentiles);
+        }
+
+        var value = readings.value(slot);
+        Arrays.fill(percentiles, value);
+        return new Device.TemperatureStats(msg.requestId(), deviceId, 1, value, value, value, percentiles);
+    }
+
     private Behavior<Command> onDeviceTerminated(DeviceTerminated msg) {
-        if (deviceActorById.keySet().remove(msg.deviceId)) {
+        var deviceId = deviceIndex.id(msg.device);
+        if (idleReadings != null && !msg.deviceActor.equals(deviceActorById.get(msg.device))) {
+            // NOTE(mmm): A live device behind a handle that stopped without
+            //  handing its reading over, or it would have been unwatched. It
+            //  is spawned again from the last reading the group has, on its
+            //  next command or right away if commands were waiting for the
+            //  handover.
+            if (liveDeviceById.remove(deviceId, msg.deviceActor)) {
+                replayHandoff(deviceId, idleReadings.slotOf(deviceId));
+            }
+            return this;
+        }
+
+        if (deviceActorById.remove(msg.device) != null) {
+            journalRemoved(deviceId);
+            metrics.devicesAdded(-1);
+            devicesChanged();
+            if (idleReadings != null) {
+                idleReadings.clear(idleReadings.slotOf(deviceId));
+                handoffById.remove(deviceId);
+                var device = liveDeviceById.remove(deviceId);
+                if (device != null) {
+                    getContext().stop(device);
+                }
+            }
+
+            if (readings != null) {
+                var ack = cumulativeAcks.remove(msg.device);
+                if (ack != null) {
+                    ack.flush();
+                    timers.cancel(new FlushSlotAck(msg.device));
+                }
+            }
+
             getContext().getLog().atInfo()
                     .setMessage("Device actor has been terminated")
-                    .addKeyValue("groupId", msg.groupId)
-                    .addKeyValue("deviceId", msg.deviceId)
+                    .addKeyValue("groupId", groupId)
+                    .addKeyValue("deviceId", deviceId)
+                    .log();
+
+            // NOTE(mmm): The handle may be handed out again while the
+            //  DeviceTerminated of a live device stopped above is on its way.
+            //  That one then names the new device but not its live actor, so
+            //  it's ignored.
+            deviceIndex.release(msg.device);
+        }
+
+        return this;
+    }
+
+    private void journalRegistered(String deviceId) {
+        if (pending != null) {
+            pending.register(deviceId);
+            journalChanged();
+        }
+    }
+
+    private void journalRemoved(String deviceId) {
+        if (pending != null) {
+            pending.remove(deviceId);
+            journalChanged();
+        }
+    }
+
+    private void journalReading(String deviceId, long timestamp, double value) {
+        if (pending != null) {
+            pending.record(deviceId, timestamp, value);
+            journalChanged();
+        }
+    }
+
+    private void journalChanged() {
+        if (stopping) {
+            // NOTE(mmm): The journal is on its way out, see onStop.
+            return;
+        }
+        if (pending.size() >= MAX_JOURNAL_BATCH) {
+            flushJournal();
+        } else if (!timers.isTimerActive(FlushJournal.INSTANCE)) {
+            timers.startSingleTimer(FlushJournal.INSTANCE, settings.persistInterval);
+        }
+    }
+
+    private Behavior<Command> onFlushJournal() {
+        flushJournal();
+
+        return this;
+    }
+
+    private void flushJournal() {
+        timers.cancel(FlushJournal.INSTANCE);
+        if (pending.size() > 0) {
+            journal.tell(pending.drain());
+        }
+    }
+
+    // NOTE(mmm): The journal is a child, so it is already gone by the time
+    //  PostStop runs. A group that is told to Stop hands its pending changes
+    //  over first, and stops once the journal has written them and stopped.
+    private Behavior<Command> onStop() {
+        // NOTE(mmm): Devices are only added by RequestTrackDevice, which goes
+        //  back through the region while passivating, so a group that asked
+        //  to passivate should still be empty here.
+        if (passivating && deviceCount() > 0) {
+            getContext().getLog().atWarn()
+                    .setMessage("Device group passivated with devices, dropping them")
+                    .addKeyValue("groupId", groupId)
+                    .addKeyValue("devices", deviceCount())
                     .log();
         }
+        if (journal == null) {
+            return Behaviors.stopped();
+        }
+
+        stopping = true;
+        flushJournal();
+        journal.tell(DeviceGroupJournal.Stop.INSTANCE);
 
         return this;
     }
 
+    // NOTE(mmm): The journal is the only actor the group watches without a
+    //  message of its own.
+    private Behavior<Command> onJournalTerminated(Terminated signal) {
+        if (!stopping) {
+            throw new DeathPactException(signal.getRef());
+        }
+
+        return Behaviors.stopped();
+    }
+
     private Behavior<Command> onPostStop() {
+        if (pending != null && pending.size() > 0) {
+            getContext().getLog().atWarn()
+                    .setMessage("Device group stopped without writing its pending changes")
+                    .addKeyValue("groupId", groupId)
+                    .addKeyValue("changes", pending.size())
+                    .log();
+        }
+        if (cumulativeAcks != null) {
+            for (int slot = 0; slot < cumulativeAcks.slotCount(); slot++) {
+                var ack = cumulativeAcks.valueAt(slot);
+                if (ack != null) {
+                    ack.flush();
+                }
+            }
+        }
+        metrics.devicesAdded(-deviceCount());
+        metrics.release();
+        IotMetrics.groupStopped();
+
         getContext().getLog().atInfo()
                 .setMessage("Device group stopped")
                 .addKeyValue("groupId", groupId)
@@ -127,4 +1338,14 @@ public class DeviceGroup extends AbstractBehavior<DeviceGroup.Command> {
         return this;
     }
 
+    private static final class BatchSlice {
+        private final ActorRef<Device.Command> deviceActor;
+        private int size;
+        private double[] values;
+        private long[] timestamps;
+
+        private BatchSlice(ActorRef<Device.Command> deviceActor) {
+            this.deviceActor = deviceActor;
+        }
+    }
 }
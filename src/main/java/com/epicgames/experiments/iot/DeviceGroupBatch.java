@@ -0,0 +1,110 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.javadsl.AbstractBehavior;
+import org.apache.pekko.actor.typed.javadsl.ActorContext;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.apache.pekko.actor.typed.javadsl.Receive;
+
+import java.time.Duration;
+
+// NOTE(mmm): Acks a DeviceManager.RecordTemperatures that the group split
+//  over its device actors. Each device reports its slice here once it has
+//  recorded it (or its mailbox has shed it), and the batch acks the sender
+//  once every slice is in. Slices that aren't reported within {timeout},
+//  e.g. because their device stopped with the slice still queued, count as
+//  rejected, so the sender always gets its ack.
+class DeviceGroupBatch extends AbstractBehavior<DeviceGroupBatch.Command> {
+    public interface Command {
+    }
+
+    // NOTE(mmm): {shed} samples were shed by the device's mailbox instead of
+    //  recorded.
+    record SliceRecorded(
+            int recorded,
+            int shed
+    ) implements Command {
+    }
+
+    enum BatchTimeout implements Command {
+        INSTANCE;
+    }
+
+    // NOTE(mmm): {samples} is how many samples the slices hold between them,
+    //  {rejected} how many the group turned away before splitting the batch.
+    static Behavior<Command> create(
+            long requestId,
+            ActorRef<DeviceManager.TemperaturesRecorded> replyTo,
+            int slices,
+            int samples,
+            int rejected,
+            Duration timeout
+    ) {
+        return Behaviors.setup(context ->
+                Behaviors.withTimers(timers -> {
+                    timers.startSingleTimer(BatchTimeout.INSTANCE, timeout);
+                    return new DeviceGroupBatch(context, requestId, replyTo, slices, samples, rejected);
+                }));
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(SliceRecorded.class, this::onSliceRecorded)
+                .onMessage(BatchTimeout.class, msg -> onBatchTimeout())
+                .build();
+    }
+
+    private final long requestId;
+    private final ActorRef<DeviceManager.TemperaturesRecorded> replyTo;
+    private final int samples;
+    private final int rejected;
+    private int slicesLeft;
+    private int recorded;
+    private int shed;
+
+    private DeviceGroupBatch(
+            ActorContext<Command> context,
+            long requestId,
+            ActorRef<DeviceManager.TemperaturesRecorded> replyTo,
+            int slices,
+            int samples,
+            int rejected
+    ) {
+        super(context);
+        this.requestId = requestId;
+        this.replyTo = replyTo;
+        this.slicesLeft = slices;
+        this.samples = samples;
+        this.rejected = rejected;
+    }
+
+    private Behavior<Command> onSliceRecorded(SliceRecorded msg) {
+        recorded += msg.recorded;
+        shed += msg.shed;
+        if (--slicesLeft > 0) {
+            return this;
+        }
+
+        return ack();
+    }
+
+    private Behavior<Command> onBatchTimeout() {
+        getContext().getLog().atWarn()
+                .setMessage("Batch slices not recorded in time, rejecting them")
+                .addKeyValue("requestId", requestId)
+                .addKeyValue("slices", slicesLeft)
+                .log();
+
+        return ack();
+    }
+
+    // NOTE(mmm): Whatever wasn't recorded, shed or not, counts as rejected.
+    private Behavior<Command> ack() {
+        replyTo.tell(new DeviceManager.TemperaturesRecorded(
+                requestId, recorded, rejected + samples - recorded, shed > 0));
+
+        return Behaviors.stopped();
+    }
+}
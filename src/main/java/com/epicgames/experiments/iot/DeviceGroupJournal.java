@@ -0,0 +1,291 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.persistence.typed.PersistenceId;
+import org.apache.pekko.persistence.typed.RecoveryCompleted;
+import org.apache.pekko.persistence.typed.SnapshotAdapter;
+import org.apache.pekko.persistence.typed.javadsl.CommandHandler;
+import org.apache.pekko.persistence.typed.javadsl.EventHandler;
+import org.apache.pekko.persistence.typed.javadsl.EventSourcedBehavior;
+import org.apache.pekko.persistence.typed.javadsl.RetentionCriteria;
+import org.apache.pekko.persistence.typed.javadsl.SignalHandler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// NOTE(mmm): Durable copy of a DeviceGroup: which devices are registered,
+//  and the latest reading of each. The group collects its changes in a
+//  Pending batch and hands it over every {persistInterval}, so the journal
+//  gets a few events per interval rather than one per reading. A snapshot
+//  is taken every {snapshotEvery} batches, so recovery replays at most that
+//  many events on top of it. Once recovered, the journal sends the group
+//  everything it knows in a single JournalRecovered message.
+class DeviceGroupJournal extends EventSourcedBehavior<DeviceGroupJournal.Command, DeviceGroupJournal.Event, DeviceGroupJournal.State> {
+    public interface Command {
+    }
+
+    record Persist(
+            List<Event> events
+    ) implements Command {
+    }
+
+    // NOTE(mmm): Stops the journal once everything sent before it is
+    //  written; commands wait while a Persist is in flight.
+    enum Stop implements Command {
+        INSTANCE;
+    }
+
+    public interface Event extends IotMessage {
+    }
+
+    record DevicesRegistered(
+            String[] deviceIds
+    ) implements Event {
+    }
+
+    record DevicesRemoved(
+            String[] deviceIds
+    ) implements Event {
+    }
+
+    record ReadingsRecorded(
+            String[] deviceIds,
+            long[] timestamps,
+            double[] values
+    ) implements Event {
+    }
+
+    // NOTE(mmm): What snapshots are stored as, and what the group recovers
+    //  from. A timestamp of DeviceTable.NO_READING means no reading.
+    record Snapshot(
+            String[] deviceIds,
+            long[] timestamps,
+            double[] values
+    ) implements IotMessage {
+    }
+
+    public static Behavior<Command> create(String groupId, int snapshotEvery, ActorRef<DeviceGroup.Command> group) {
+        return new DeviceGroupJournal(groupId, snapshotEvery, group);
+    }
+
+    private final int snapshotEvery;
+    private final ActorRef<DeviceGroup.Command> group;
+
+    private DeviceGroupJournal(String groupId, int snapshotEvery, ActorRef<DeviceGroup.Command> group) {
+        super(PersistenceId.of("DeviceGroup", groupId));
+        this.snapshotEvery = snapshotEvery;
+        this.group = group;
+    }
+
+    @Override
+    public State emptyState() {
+        return new State();
+    }
+
+    @Override
+    public CommandHandler<Command, Event, State> commandHandler() {
+        return newCommandHandlerBuilder()
+                .forAnyState()
+                .onCommand(Persist.class, msg -> Effect().persist(msg.events))
+                .onCommand(Stop.class, msg -> Effect().stop())
+                .build();
+    }
+
+    @Override
+    public EventHandler<State, Event> eventHandler() {
+        return newEventHandlerBuilder()
+                .forAnyState()
+                .onEvent(DevicesRegistered.class, State::register)
+                .onEvent(DevicesRemoved.class, State::remove)
+                .onEvent(ReadingsRecorded.class, State::record)
+                .build();
+    }
+
+    @Override
+    public SignalHandler<State> signalHandler() {
+        return newSignalHandlerBuilder()
+                .onSignal(RecoveryCompleted.instance(), state -> group.tell(new DeviceGroup.JournalRecovered(state.snapshot())))
+                .build();
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        return RetentionCriteria.snapshotEvery(snapshotEvery, 2);
+    }
+
+    // NOTE(mmm): The state is mutable, so it is copied into a Snapshot on
+    //  the actor's thread before the snapshot store serializes it.
+    @Override
+    public SnapshotAdapter<State> snapshotAdapter() {
+        return new SnapshotAdapter<>() {
+            @Override
+            public Object toJournal(State state) {
+                return state.snapshot();
+            }
+
+            @Override
+            public State fromJournal(Object from) {
+                return new State((Snapshot) from);
+            }
+        };
+    }
+
+    // NOTE(mmm): Rows are never removed from a DeviceTable, so removed
+    //  devices are only marked as such, and the table is rebuilt without
+    //  them once they make up more than half of it.
+    static final class State {
+        private DeviceTable table;
+        private final BitSet removed = new BitSet();
+        private int removedCount;
+
+        private State() {
+            this.table = new DeviceTable(1024);
+        }
+
+        private State(Snapshot snapshot) {
+            load(snapshot);
+        }
+
+        private void load(Snapshot snapshot) {
+            table = new DeviceTable(snapshot.deviceIds.length);
+            for (int i = 0; i < snapshot.deviceIds.length; i++) {
+                var slot = table.add(snapshot.deviceIds[i]);
+                table.put(slot, snapshot.timestamps[i], snapshot.values[i]);
+            }
+        }
+
+        private State register(DevicesRegistered event) {
+            for (var deviceId : event.deviceIds) {
+                var slot = table.add(deviceId);
+                table.clear(slot);
+                if (removed.get(slot)) {
+                    removed.clear(slot);
+                    removedCount--;
+                }
+            }
+            return this;
+        }
+
+        private State remove(DevicesRemoved event) {
+            for (var deviceId : event.deviceIds) {
+                var slot = table.slotOf(deviceId);
+                if (slot >= 0 && !removed.get(slot)) {
+                    removed.set(slot);
+                    removedCount++;
+                }
+            }
+
+            if (removedCount > table.size() / 2) {
+                var live = snapshot();
+                removed.clear();
+                removedCount = 0;
+                load(live);
+            }
+            return this;
+        }
+
+        private State record(ReadingsRecorded event) {
+            for (int i = 0; i < event.deviceIds.length; i++) {
+                var slot = table.slotOf(event.deviceIds[i]);
+                if (slot >= 0 && !removed.get(slot)) {
+                    table.put(slot, event.timestamps[i], event.values[i]);
+                }
+            }
+            return this;
+        }
+
+        private Snapshot snapshot() {
+            var size = table.size() - removedCount;
+            var deviceIds = new String[size];
+            var timestamps = new long[size];
+            var values = new double[size];
+            var i = 0;
+            for (int slot = 0; slot < table.size(); slot++) {
+                if (removed.get(slot)) {
+                    continue;
+                }
+                deviceIds[i] = table.deviceId(slot);
+                timestamps[i] = table.timestamp(slot);
+                values[i] = table.value(slot);
+                i++;
+            }
+            return new Snapshot(deviceIds, timestamps, values);
+        }
+    }
+
+    // NOTE(mmm): Changes a group has made since its last Persist. Only the
+    //  latest reading of every device is kept, and a device that is removed
+    //  and tracked again within one batch is only written as registered,
+    //  which drops its old reading. Readings go in the columns of a
+    //  DeviceTable, which keeps its rows from one batch to the next, so
+    //  recording one allocates nothing.
+    static final class Pending {
+        private final Set<String> registered = new LinkedHashSet<>();
+        private final Set<String> removed = new LinkedHashSet<>();
+        private final DeviceTable readings = new DeviceTable(1024);
+        private int readingCount;
+
+        void register(String deviceId) {
+            removed.remove(deviceId);
+            registered.add(deviceId);
+        }
+
+        void remove(String deviceId) {
+            registered.remove(deviceId);
+            var slot = readings.slotOf(deviceId);
+            if (slot >= 0 && readings.hasReading(slot)) {
+                readings.clear(slot);
+                readingCount--;
+            }
+            removed.add(deviceId);
+        }
+
+        void record(String deviceId, long timestamp, double value) {
+            var slot = readings.add(deviceId);
+            if (!readings.hasReading(slot)) {
+                readingCount++;
+            }
+            readings.put(slot, timestamp, value);
+        }
+
+        int size() {
+            return registered.size() + removed.size() + readingCount;
+        }
+
+        Persist drain() {
+            var events = new ArrayList<Event>(3);
+            if (!removed.isEmpty()) {
+                events.add(new DevicesRemoved(removed.toArray(String[]::new)));
+            }
+            if (!registered.isEmpty()) {
+                events.add(new DevicesRegistered(registered.toArray(String[]::new)));
+            }
+            if (readingCount > 0) {
+                var deviceIds = new String[readingCount];
+                var timestamps = new long[readingCount];
+                var values = new double[readingCount];
+                var i = 0;
+                for (int slot = 0; slot < readings.size(); slot++) {
+                    if (readings.hasReading(slot)) {
+                        deviceIds[i] = readings.deviceId(slot);
+                        timestamps[i] = readings.timestamp(slot);
+                        values[i] = readings.value(slot);
+                        readings.clear(slot);
+                        i++;
+                    }
+                }
+                events.add(new ReadingsRecorded(deviceIds, timestamps, values));
+            }
+
+            registered.clear();
+            removed.clear();
+            readingCount = 0;
+
+            return new Persist(events);
+        }
+    }
+}
@@ -11,13 +11,8 @@ public class DeviceGroupQuery extends AbstractBehavior<DeviceGroupQuery.Command>
     public interface Command {
     }
 
-    record ReplyTemperature(
-            Device.Temperature response
-    ) implements Command {
-    }
-
     record DeviceTerminated(
-            String deviceId
+            int device
     ) implements Command {
     }
 
@@ -25,94 +20,312 @@ public class DeviceGroupQuery extends AbstractBehavior<DeviceGroupQuery.Command>
         INSTANCE;
     }
 
+    // NOTE(mmm): The devices a query asks, as parallel arrays. Inside the
+    //  query, device i is deviceIds[i], and only replies and the public
+    //  messages go back to strings. The query sends device i a
+    //  ReadTemperature with the query's requestId and index i, which its
+    //  reply (a Device.Temperature, straight to the query) echoes, so a
+    //  reply finds its device without looking its id up.
+    record Devices(
+            String[] deviceIds,
+            ActorRef<Device.Command>[] deviceActors
+    ) {
+        static Devices of(Map<String, ActorRef<Device.Command>> deviceActorById) {
+            var devices = allocate(deviceActorById.size());
+            var i = 0;
+            for (var entry : deviceActorById.entrySet()) {
+                devices.deviceIds[i] = entry.getKey();
+                devices.deviceActors[i] = entry.getValue();
+                i++;
+            }
+            return devices;
+        }
+
+        @SuppressWarnings("unchecked")
+        static Devices allocate(int size) {
+            return new Devices(new String[size], (ActorRef<Device.Command>[]) new ActorRef<?>[size]);
+        }
+
+        int size() {
+            return deviceIds.length;
+        }
+
+        Devices slice(int from, int to) {
+            return new Devices(Arrays.copyOfRange(deviceIds, from, to), Arrays.copyOfRange(deviceActors, from, to));
+        }
+    }
+
     public static Behavior<Command> create(
             long requestId,
             Map<String, ActorRef<Device.Command>> deviceActorById,
             ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
             Duration timeout
+    ) {
+        return createQuorum(requestId, Devices.of(deviceActorById), Integer.MAX_VALUE, replyTo, timeout, null, null);
+    }
+
+    // NOTE(mmm): Replies as soon as {quorum} devices are accounted for, with
+    //  only those devices in the reply.
+    public static Behavior<Command> createQuorum(
+            long requestId,
+            Map<String, ActorRef<Device.Command>> deviceActorById,
+            int quorum,
+            ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
+            Duration timeout
+    ) {
+        return createQuorum(requestId, Devices.of(deviceActorById), quorum, replyTo, timeout, null, null);
+    }
+
+    // NOTE(mmm): If {latencyReportTo} is set, the query records how long each
+    //  device took to answer and sends the histogram there when it's done. If
+    //  {metrics} is set, the query's own duration goes there.
+    static Behavior<Command> createQuorum(
+            long requestId,
+            Devices devices,
+            int quorum,
+            ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
+            Duration timeout,
+            ActorRef<DeviceGroup.Command> latencyReportTo,
+            IotMetrics.Group metrics
+    ) {
+        return Behaviors.setup(context ->
+                Behaviors.withTimers(timers ->
+                        new DeviceGroupQuery(
+                                context, timers, requestId, devices, replyTo, quorum, null, 0, timeout,
+                                latencyReportTo, metrics)));
+    }
+
+    // NOTE(mmm): Sends a chunk every {chunkSize} devices instead of a single
+    //  reply at the end, so slow devices don't hold back the fast ones. The
+    //  chunk that accounts for the last device is flagged as such.
+    public static Behavior<Command> createStreaming(
+            long requestId,
+            Map<String, ActorRef<Device.Command>> deviceActorById,
+            int chunkSize,
+            ActorRef<DeviceManager.ReplyTemperaturesChunk> replyTo,
+            Duration timeout
+    ) {
+        return createStreaming(requestId, Devices.of(deviceActorById), chunkSize, replyTo, timeout, null, null);
+    }
+
+    static Behavior<Command> createStreaming(
+            long requestId,
+            Devices devices,
+            int chunkSize,
+            ActorRef<DeviceManager.ReplyTemperaturesChunk> replyTo,
+            Duration timeout,
+            ActorRef<DeviceGroup.Command> latencyReportTo,
+            IotMetrics.Group metrics
     ) {
         return Behaviors.setup(context ->
                 Behaviors.withTimers(timers ->
-                        new DeviceGroupQuery(context, timers, requestId, deviceActorById, replyTo, timeout)));
+                        new DeviceGroupQuery(
+                                context, timers, requestId, devices, null, 0, replyTo, chunkSize, timeout,
+                                latencyReportTo, metrics)));
     }
 
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
-                .onMessage(ReplyTemperature.class, this::onRespondTemperature)
+                .onMessage(Device.Temperature.class, this::onRespondTemperature)
                 .onMessage(DeviceTerminated.class, this::onDeviceTerminated)
                 .onMessage(CollectionTimeout.class, this::onCollectionTimeout)
                 .build();
     }
 
     private final long requestId;
-    private final Map<String, DeviceManager.TemperatureReading> repliesSoFar = new HashMap<>();
-    private final Set<String> stillWaiting;
+    private final String[] deviceIds;
     private final ActorRef<DeviceManager.ReplyAllTemperatures> replyTo;
+    private final int quorum;
+    private final ActorRef<DeviceManager.ReplyTemperaturesChunk> chunkReplyTo;
+    private final int chunkSize;
+    private final ActorRef<DeviceGroup.Command> latencyReportTo;
+    private final LatencyHistogram latencies;
+    private final IotMetrics.Group metrics;
+    private final long startNanos = System.nanoTime();
+    private final long timeoutNanos;
+    private boolean timedOut;
+
+    // NOTE(mmm): By device, in the columns of TemperatureColumns; a status is
+    //  PENDING while its device hasn't been accounted for.
+    private static final byte PENDING = -1;
+    private final double[] values;
+    private final byte[] statuses;
+    private int stillWaiting;
+
+    // NOTE(mmm): Only used when streaming: the devices collected since the
+    //  last chunk.
+    private final int[] unsent;
+    private int unsentCount;
 
     private DeviceGroupQuery(
             ActorContext<Command> context,
             TimerScheduler<Command> timers,
             long requestId,
-            Map<String, ActorRef<Device.Command>> deviceActorById,
+            Devices devices,
             ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
-            Duration timeout
+            int quorum,
+            ActorRef<DeviceManager.ReplyTemperaturesChunk> chunkReplyTo,
+            int chunkSize,
+            Duration timeout,
+            ActorRef<DeviceGroup.Command> latencyReportTo,
+            IotMetrics.Group metrics
     ) {
         super(context);
 
         this.requestId = requestId;
-        this.stillWaiting = new HashSet<>(deviceActorById.keySet());
+        this.deviceIds = devices.deviceIds();
+        this.values = new double[deviceIds.length];
+        this.statuses = new byte[deviceIds.length];
+        Arrays.fill(statuses, PENDING);
+        this.stillWaiting = deviceIds.length;
         this.replyTo = replyTo;
+        this.quorum = quorum;
+        this.chunkReplyTo = chunkReplyTo;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.unsent = chunkReplyTo != null ? new int[deviceIds.length] : null;
+        this.latencyReportTo = latencyReportTo;
+        this.latencies = latencyReportTo != null ? new LatencyHistogram() : null;
+        this.metrics = metrics;
+        this.timeoutNanos = timeout.toNanos();
 
         timers.startSingleTimer(CollectionTimeout.INSTANCE, timeout);
 
-        var msg = new Device.ReadTemperature(requestId, context.messageAdapter(
-                Device.Temperature.class, ReplyTemperature::new));
-        for (var entry : deviceActorById.entrySet()) {
-            var deviceId = entry.getKey();
-            var deviceActor = entry.getValue();
-            context.watchWith(deviceActor, new DeviceTerminated(deviceId));
-            deviceActor.tell(msg);
+        ActorRef<Device.Temperature> replyTo = context.getSelf().narrow();
+        var deviceActors = devices.deviceActors();
+        for (int device = 0; device < deviceActors.length; device++) {
+            context.watchWith(deviceActors[device], new DeviceTerminated(device));
+            deviceActors[device].tell(new Device.ReadTemperature(requestId, replyTo, device));
         }
     }
 
-    private Behavior<Command> onRespondTemperature(ReplyTemperature msg) {
-        DeviceManager.TemperatureReading reading = DeviceManager.TemperatureNotAvailable.INSTANCE;
-        OptionalDouble value = msg.response.value();
-        if (value.isPresent()) {
-            reading = new DeviceManager.Temperature(value.getAsDouble());
+    private Behavior<Command> onRespondTemperature(Device.Temperature msg) {
+        if (latencies != null) {
+            latencies.record(System.nanoTime() - startNanos);
         }
 
-        var deviceId = msg.response.deviceId();
-        repliesSoFar.put(deviceId, reading);
-        stillWaiting.remove(deviceId);
+        // NOTE(mmm): The id check turns away a reply that isn't for this
+        //  query's ReadTemperature, which would name some other device.
+        var device = msg.index();
+        if (device >= 0 && device < statuses.length && statuses[device] == PENDING
+                && deviceIds[device].equals(msg.deviceId())) {
+            OptionalDouble value = msg.value();
+            if (value.isPresent()) {
+                collect(device, TemperatureColumns.TEMPERATURE, value.getAsDouble());
+            } else {
+                collect(device, TemperatureColumns.TEMPERATURE_NOT_AVAILABLE, Double.NaN);
+            }
+            sendFullChunk();
+        }
 
         return respondWhenAllCollected();
     }
 
     private Behavior<Command> onDeviceTerminated(DeviceTerminated msg) {
-        if (stillWaiting.remove(msg.deviceId)) {
-            repliesSoFar.put(msg.deviceId, DeviceManager.DeviceNotAvailable.INSTANCE);
+        if (statuses[msg.device] == PENDING) {
+            collect(msg.device, TemperatureColumns.DEVICE_NOT_AVAILABLE, Double.NaN);
+            sendFullChunk();
         }
 
         return respondWhenAllCollected();
     }
 
     private Behavior<Command> onCollectionTimeout(CollectionTimeout msg) {
-        for (var deviceId : stillWaiting) {
-            repliesSoFar.put(deviceId, DeviceManager.DeviceTimedOut.INSTANCE);
+        // NOTE(mmm): A device that didn't answer in time took at least the
+        //  timeout, so it goes in the latencies at twice that. Leaving it out
+        //  would let the percentile shrink to the devices that did answer, and
+        //  the slow ones would then never make it; this way the timeout grows
+        //  back until it covers them (up to the group's queryTimeout).
+        this.timedOut = stillWaiting > 0;
+        for (int device = 0; device < statuses.length && stillWaiting > 0; device++) {
+            if (statuses[device] == PENDING) {
+                if (latencies != null) {
+                    latencies.record(2 * timeoutNanos);
+                }
+                collect(device, TemperatureColumns.DEVICE_TIMED_OUT, Double.NaN);
+            }
         }
-        stillWaiting.clear();
 
         return respondWhenAllCollected();
     }
 
+    private void collect(int device, byte status, double value) {
+        statuses[device] = status;
+        values[device] = value;
+        stillWaiting--;
+        if (unsent != null) {
+            unsent[unsentCount++] = device;
+        }
+    }
+
+    private void sendFullChunk() {
+        if (chunkReplyTo != null && unsentCount >= chunkSize && stillWaiting > 0) {
+            chunkReplyTo.tell(new DeviceManager.ReplyTemperaturesChunk(requestId, unsentTemperatures(), false));
+            unsentCount = 0;
+        }
+    }
+
     private Behavior<Command> respondWhenAllCollected() {
-        if (!stillWaiting.isEmpty()) {
+        if (chunkReplyTo != null) {
+            if (stillWaiting > 0) {
+                return this;
+            }
+
+            chunkReplyTo.tell(new DeviceManager.ReplyTemperaturesChunk(requestId, unsentTemperatures(), true));
+            return stop();
+        }
+
+        if (stillWaiting > 0 && statuses.length - stillWaiting < quorum) {
             return this;
         }
 
-        replyTo.tell(new DeviceManager.ReplyAllTemperatures(requestId, repliesSoFar));
+        replyTo.tell(new DeviceManager.ReplyAllTemperatures(requestId, collectedTemperatures()));
+        return stop();
+    }
+
+    // NOTE(mmm): Once every device is accounted for, the columns go out as
+    //  they are: the query stops right after, so nothing writes them again.
+    private TemperatureColumns collectedTemperatures() {
+        if (stillWaiting == 0) {
+            return new TemperatureColumns(deviceIds, values, statuses);
+        }
+
+        var collected = statuses.length - stillWaiting;
+        var ids = new String[collected];
+        var collectedValues = new double[collected];
+        var collectedStatuses = new byte[collected];
+        var i = 0;
+        for (int device = 0; device < statuses.length; device++) {
+            if (statuses[device] != PENDING) {
+                ids[i] = deviceIds[device];
+                collectedValues[i] = values[device];
+                collectedStatuses[i] = statuses[device];
+                i++;
+            }
+        }
+        return new TemperatureColumns(ids, collectedValues, collectedStatuses);
+    }
+
+    private TemperatureColumns unsentTemperatures() {
+        var ids = new String[unsentCount];
+        var unsentValues = new double[unsentCount];
+        var unsentStatuses = new byte[unsentCount];
+        for (int i = 0; i < unsentCount; i++) {
+            ids[i] = deviceIds[unsent[i]];
+            unsentValues[i] = values[unsent[i]];
+            unsentStatuses[i] = statuses[unsent[i]];
+        }
+        return new TemperatureColumns(ids, unsentValues, unsentStatuses);
+    }
+
+    private Behavior<Command> stop() {
+        if (latencyReportTo != null) {
+            latencyReportTo.tell(new DeviceGroup.QueryLatencies(latencies));
+        }
+        if (metrics != null) {
+            metrics.queryCompleted(System.nanoTime() - startNanos, timedOut);
+        }
+
         return Behaviors.stopped();
     }
 }
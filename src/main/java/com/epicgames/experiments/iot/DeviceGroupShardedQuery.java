@@ -0,0 +1,171 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.DispatcherSelector;
+import org.apache.pekko.actor.typed.javadsl.*;
+
+import java.time.Duration;
+import java.util.*;
+
+// NOTE(mmm): Same protocol as DeviceGroupQuery, for very large groups. The
+//  devices are split into shards of {shardSize}, each shard is collected by
+//  its own DeviceGroupQuery (so the fan-out runs on as many actors, and
+//  threads, as there are shards), and this actor only copies their columns
+//  into its own. Shards ask their devices under this query's requestId.
+public class DeviceGroupShardedQuery extends AbstractBehavior<DeviceGroupShardedQuery.Command> {
+    public interface Command {
+    }
+
+    record ShardReply(
+            DeviceManager.ReplyAllTemperatures reply
+    ) implements Command {
+    }
+
+    enum CollectionTimeout implements Command {
+        INSTANCE;
+    }
+
+    // NOTE(mmm): Shards reply on their own timeout. This is how much longer
+    //  the root waits for a shard before giving up on it.
+    private static final Duration SHARD_GRACE = Duration.ofSeconds(1);
+
+    public static Behavior<Command> create(
+            long requestId,
+            Map<String, ActorRef<Device.Command>> deviceActorById,
+            int shardSize,
+            ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
+            Duration timeout
+    ) {
+        return create(
+                requestId, DeviceGroupQuery.Devices.of(deviceActorById), shardSize, replyTo, timeout, null, null);
+    }
+
+    static Behavior<Command> create(
+            long requestId,
+            DeviceGroupQuery.Devices devices,
+            int shardSize,
+            ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
+            Duration timeout,
+            ActorRef<DeviceGroup.Command> latencyReportTo,
+            IotMetrics.Group metrics
+    ) {
+        return Behaviors.setup(context ->
+                Behaviors.withTimers(timers ->
+                        new DeviceGroupShardedQuery(
+                                context, timers, requestId, devices, shardSize, replyTo, timeout,
+                                latencyReportTo, metrics)));
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(ShardReply.class, this::onShardReply)
+                .onMessage(CollectionTimeout.class, this::onCollectionTimeout)
+                .build();
+    }
+
+    private final long requestId;
+    private final String[] deviceIds;
+    private final double[] values;
+    private final byte[] statuses;
+    private int collected;
+    // NOTE(mmm): By the first device of the shard. A shard answers for all
+    //  of its devices, in the order it got them, so the first device of its
+    //  reply names the shard.
+    private final Map<String, String[]> stillWaiting = new HashMap<>();
+    private final ActorRef<DeviceManager.ReplyAllTemperatures> replyTo;
+    private final IotMetrics.Group metrics;
+    private final long startNanos = System.nanoTime();
+    private boolean timedOut;
+
+    private DeviceGroupShardedQuery(
+            ActorContext<Command> context,
+            TimerScheduler<Command> timers,
+            long requestId,
+            DeviceGroupQuery.Devices devices,
+            int shardSize,
+            ActorRef<DeviceManager.ReplyAllTemperatures> replyTo,
+            Duration timeout,
+            ActorRef<DeviceGroup.Command> latencyReportTo,
+            IotMetrics.Group metrics
+    ) {
+        super(context);
+
+        this.requestId = requestId;
+        this.deviceIds = new String[devices.size()];
+        this.values = new double[devices.size()];
+        this.statuses = new byte[devices.size()];
+        this.replyTo = replyTo;
+        this.metrics = metrics;
+
+        timers.startSingleTimer(CollectionTimeout.INSTANCE, timeout.plus(SHARD_GRACE));
+
+        var shardReplyTo = context.messageAdapter(DeviceManager.ReplyAllTemperatures.class, ShardReply::new);
+        for (int from = 0; from < devices.size(); from += shardSize) {
+            spawnShard(
+                    devices.slice(from, Math.min(from + shardSize, devices.size())),
+                    shardReplyTo, timeout, latencyReportTo);
+        }
+    }
+
+    private void spawnShard(
+            DeviceGroupQuery.Devices shard,
+            ActorRef<DeviceManager.ReplyAllTemperatures> shardReplyTo,
+            Duration timeout,
+            ActorRef<DeviceGroup.Command> latencyReportTo
+    ) {
+        stillWaiting.put(shard.deviceIds()[0], shard.deviceIds());
+        getContext().spawnAnonymous(
+                DeviceGroupQuery.createQuorum(
+                        requestId, shard, Integer.MAX_VALUE, shardReplyTo, timeout, latencyReportTo, null),
+                DispatcherSelector.sameAsParent());
+    }
+
+    private Behavior<Command> onShardReply(ShardReply msg) {
+        var columns = msg.reply.columns();
+        if (columns.size() > 0 && stillWaiting.remove(columns.deviceId(0)) != null) {
+            for (int i = 0; i < columns.size(); i++) {
+                deviceIds[collected] = columns.deviceId(i);
+                values[collected] = columns.value(i);
+                statuses[collected] = columns.status(i);
+                collected++;
+            }
+            if (metrics != null && !timedOut) {
+                timedOut = columns.count(TemperatureColumns.DEVICE_TIMED_OUT) > 0;
+            }
+        }
+
+        return respondWhenAllCollected();
+    }
+
+    private Behavior<Command> onCollectionTimeout(CollectionTimeout msg) {
+        timedOut |= !stillWaiting.isEmpty();
+        for (var shardDeviceIds : stillWaiting.values()) {
+            for (var deviceId : shardDeviceIds) {
+                deviceIds[collected] = deviceId;
+                values[collected] = Double.NaN;
+                statuses[collected] = TemperatureColumns.DEVICE_TIMED_OUT;
+                collected++;
+            }
+        }
+        stillWaiting.clear();
+
+        return respondWhenAllCollected();
+    }
+
+    private Behavior<Command> respondWhenAllCollected() {
+        if (!stillWaiting.isEmpty()) {
+            return this;
+        }
+
+        // NOTE(mmm): Every shard answers for all of its devices, so the
+        //  columns are full by now.
+        replyTo.tell(new DeviceManager.ReplyAllTemperatures(
+                requestId, new TemperatureColumns(deviceIds, values, statuses)));
+        if (metrics != null) {
+            metrics.queryCompleted(System.nanoTime() - startNanos, timedOut);
+        }
+        return Behaviors.stopped();
+    }
+}
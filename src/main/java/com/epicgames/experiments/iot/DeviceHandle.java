@@ -0,0 +1,41 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.javadsl.AbstractBehavior;
+import org.apache.pekko.actor.typed.javadsl.ActorContext;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.apache.pekko.actor.typed.javadsl.Receive;
+
+// NOTE(mmm): Stand-in for a Device when its group keeps readings off-heap,
+//  or passivates idle devices. It holds no state of its own: it tags every
+//  command with the device's slot and hands it to the group, which answers
+//  on the device's behalf or passes it on to the device.
+class DeviceHandle extends AbstractBehavior<Device.Command> {
+    public static Behavior<Device.Command> create(ActorRef<DeviceGroup.Command> group, int slot) {
+        return Behaviors.setup(context -> new DeviceHandle(context, group, slot));
+    }
+
+    @Override
+    public Receive<Device.Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(Device.Passivate.class, msg -> Behaviors.stopped())
+                .onMessage(Device.Command.class, this::onCommand)
+                .build();
+    }
+
+    private final ActorRef<DeviceGroup.Command> group;
+    private final int slot;
+
+    private DeviceHandle(ActorContext<Device.Command> context, ActorRef<DeviceGroup.Command> group, int slot) {
+        super(context);
+        this.group = group;
+        this.slot = slot;
+    }
+
+    private Behavior<Device.Command> onCommand(Device.Command msg) {
+        group.tell(new DeviceGroup.SlotCommand(slot, msg));
+
+        return this;
+    }
+}
@@ -8,12 +8,19 @@ import org.apache.pekko.actor.typed.javadsl.ActorContext;
 import org.apache.pekko.actor.typed.javadsl.Behaviors;
 import org.apache.pekko.actor.typed.javadsl.Receive;
 
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
 
 public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
-    public interface Command {
+    public interface Command extends IotMessage {
+    }
+
+    // NOTE(mmm): Commands that are about a single group, and can therefore
+    //  be routed by their groupId (see ShardedDeviceManager and
+    //  ClusterDeviceManager). The DeviceGroup handles them as they are.
+    public interface GroupCommand extends Command, DeviceGroup.Command {
+        String groupId();
     }
 
     public record RequestTrackDevice(
@@ -21,42 +28,146 @@ public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
             String groupId,
             String deviceId,
             ActorRef<DeviceRegistered> replyTo
-    ) implements DeviceManager.Command, DeviceGroup.Command {
+    ) implements DeviceManager.GroupCommand {
     }
 
     public record DeviceRegistered(
             long requestId,
             ActorRef<Device.Command> device
-    ) {
+    ) implements IotMessage {
     }
 
     public record RequestAllDevices(
             long requestId,
             String groupId,
             ActorRef<ReplyAllDevices> replyTo
-    ) implements DeviceManager.Command, DeviceGroup.Command {
+    ) implements DeviceManager.GroupCommand {
     }
 
     public record ReplyAllDevices(
             long requestId,
             Set<String> deviceIds
-    ) {
+    ) implements IotMessage {
     }
 
+    // NOTE(mmm): {timeout} bounds how long the group waits for its devices.
+    //  If null, the group picks one (see DeviceGroup.Settings).
     public record RequestAllTemperatures(
             long requestId,
             String groupId,
-            ActorRef<ReplyAllTemperatures> replyTo
-    ) implements DeviceManager.Command, DeviceGroup.Command {
+            ActorRef<ReplyAllTemperatures> replyTo,
+            Duration timeout
+    ) implements DeviceManager.GroupCommand {
+        public RequestAllTemperatures(long requestId, String groupId, ActorRef<ReplyAllTemperatures> replyTo) {
+            this(requestId, groupId, replyTo, null);
+        }
     }
 
     public record ReplyAllTemperatures(
             long requestId,
             Map<String, TemperatureReading> temperatures
-    ) {
+    ) implements IotMessage {
+        // NOTE(mmm): Free when the group built the reply, which it does unless
+        //  it came through a serializer that doesn't know TemperatureColumns.
+        public TemperatureColumns columns() {
+            return TemperatureColumns.of(temperatures);
+        }
+    }
+
+    // NOTE(mmm): Replies as soon as {quorum} devices are accounted for. The
+    //  reply only contains those devices.
+    public record RequestQuorumTemperatures(
+            long requestId,
+            String groupId,
+            int quorum,
+            ActorRef<ReplyAllTemperatures> replyTo,
+            Duration timeout
+    ) implements DeviceManager.GroupCommand {
+        public RequestQuorumTemperatures(
+                long requestId,
+                String groupId,
+                int quorum,
+                ActorRef<ReplyAllTemperatures> replyTo
+        ) {
+            this(requestId, groupId, quorum, replyTo, null);
+        }
+    }
+
+    // NOTE(mmm): Streams the group's temperatures back in chunks of up to
+    //  {chunkSize} devices, as the devices answer. The final chunk has
+    //  {last} set.
+    public record RequestTemperatureStream(
+            long requestId,
+            String groupId,
+            int chunkSize,
+            ActorRef<ReplyTemperaturesChunk> replyTo,
+            Duration timeout
+    ) implements DeviceManager.GroupCommand {
+        public RequestTemperatureStream(
+                long requestId,
+                String groupId,
+                int chunkSize,
+                ActorRef<ReplyTemperaturesChunk> replyTo
+        ) {
+            this(requestId, groupId, chunkSize, replyTo, null);
+        }
+    }
+
+    public record ReplyTemperaturesChunk(
+            long requestId,
+            Map<String, TemperatureReading> temperatures,
+            boolean last
+    ) implements IotMessage {
+        public TemperatureColumns columns() {
+            return TemperatureColumns.of(temperatures);
+        }
+    }
+
+    // NOTE(mmm): Samples are stored column-wise: sample {i} is the tuple
+    //  (deviceIds[i], values[i], timestamps[i]). Timestamps are epoch millis.
+    //  {replay} marks samples replayed from a ReadingSegmentLog, which the
+    //  group doesn't append to its log again.
+    public record RecordTemperatures(
+            long requestId,
+            String groupId,
+            String[] deviceIds,
+            double[] values,
+            long[] timestamps,
+            ActorRef<TemperaturesRecorded> replyTo,
+            boolean replay
+    ) implements DeviceManager.GroupCommand {
+        public RecordTemperatures {
+            if (deviceIds.length != values.length || deviceIds.length != timestamps.length) {
+                throw new IllegalArgumentException("deviceIds, values and timestamps must have the same length");
+            }
+        }
+
+        public RecordTemperatures(
+                long requestId,
+                String groupId,
+                String[] deviceIds,
+                double[] values,
+                long[] timestamps,
+                ActorRef<TemperaturesRecorded> replyTo
+        ) {
+            this(requestId, groupId, deviceIds, values, timestamps, replyTo, false);
+        }
+    }
+
+    // NOTE(mmm): {busy} marks a batch that was shed, whole or in part, by a
+    //  SheddingMailbox; the shed samples count as rejected.
+    public record TemperaturesRecorded(
+            long requestId,
+            int recorded,
+            int rejected,
+            boolean busy
+    ) implements IotMessage {
+        public TemperaturesRecorded(long requestId, int recorded, int rejected) {
+            this(requestId, recorded, rejected, false);
+        }
     }
 
-    public interface TemperatureReading {
+    public interface TemperatureReading extends IotMessage {
     }
 
     public record Temperature(
@@ -77,12 +188,16 @@ public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
     }
 
     private record DeviceGroupTerminated(
-            String groupId
+            int group
     ) implements DeviceManager.Command {
     }
 
     public static Behavior<Command> create() {
-        return Behaviors.setup(DeviceManager::new);
+        return create(DeviceGroup.Settings.DEFAULT);
+    }
+
+    public static Behavior<Command> create(DeviceGroup.Settings groupSettings) {
+        return Behaviors.setup(context -> new DeviceManager(context, groupSettings));
     }
 
     @Override
@@ -91,26 +206,40 @@ public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
                 .onMessage(RequestTrackDevice.class, this::onTrackDevice)
                 .onMessage(RequestAllDevices.class, this::onAllDevices)
                 .onMessage(RequestAllTemperatures.class, this::onAllTemperatures)
+                .onMessage(RequestQuorumTemperatures.class, this::onQuorumTemperatures)
+                .onMessage(RequestTemperatureStream.class, this::onTemperatureStream)
+                .onMessage(RecordTemperatures.class, this::onRecordTemperatures)
                 .onMessage(DeviceGroupTerminated.class, this::onTerminated)
                 .onSignal(PostStop.class, signal -> onPostStop())
                 .build();
     }
 
-    private final Map<String, ActorRef<DeviceGroup.Command>> groupActorById = new HashMap<>();
+    private final DeviceGroup.Settings groupSettings;
+    private final IdRegistry groupIds = new IdRegistry(16);
+    private final IntObjectMap<ActorRef<DeviceGroup.Command>> groupActorById = new IntObjectMap<>(16);
 
-    private DeviceManager(ActorContext<Command> context) {
+    private DeviceManager(ActorContext<Command> context, DeviceGroup.Settings groupSettings) {
         super(context);
+        this.groupSettings = groupSettings;
 
         context.getLog().info("Device manager started");
     }
 
     private Behavior<Command> onTrackDevice(RequestTrackDevice msg) {
-        groupActorById.computeIfAbsent(msg.groupId, this::createGroup).tell(msg);
+        var group = groupIds.intern(msg.groupId);
+        var groupActor = groupActorById.get(group);
+        if (groupActor == null) {
+            groupActor = createGroup(msg.groupId);
+            getContext().watchWith(groupActor, new DeviceGroupTerminated(group));
+            groupActorById.put(group, groupActor);
+        }
+        groupActor.tell(msg);
         return this;
     }
 
     private ActorRef<DeviceGroup.Command> createGroup(String groupId) {
-        var groupActor = getContext().spawn(DeviceGroup.create(groupId), "group-" + groupId);
+        var groupActor = getContext().spawn(
+                DeviceGroup.create(groupId, groupSettings), "group-" + groupId, groupSettings.groupProps(groupId));
 
         getContext().getLog().atInfo()
                 .addKeyValue("group", groupId)
@@ -120,7 +249,7 @@ public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
     }
 
     private Behavior<Command> onAllDevices(RequestAllDevices msg) {
-        var groupActor = groupActorById.get(msg.groupId);
+        var groupActor = groupActorById.get(groupIds.handleOf(msg.groupId));
         if (groupActor != null) {
             groupActor.tell(msg);
         } else {
@@ -131,7 +260,18 @@ public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
     }
 
     private Behavior<Command> onAllTemperatures(RequestAllTemperatures msg) {
-        var groupActor = groupActorById.get(msg.groupId);
+        var groupActor = groupActorById.get(groupIds.handleOf(msg.groupId));
+        if (groupActor != null) {
+            groupActor.tell(msg);
+        } else {
+            msg.replyTo.tell(new ReplyAllTemperatures(msg.requestId, Map.of()));
+        }
+
+        return this;
+    }
+
+    private Behavior<Command> onQuorumTemperatures(RequestQuorumTemperatures msg) {
+        var groupActor = groupActorById.get(groupIds.handleOf(msg.groupId));
         if (groupActor != null) {
             groupActor.tell(msg);
         } else {
@@ -141,11 +281,34 @@ public class DeviceManager extends AbstractBehavior<DeviceManager.Command> {
         return this;
     }
 
+    private Behavior<Command> onTemperatureStream(RequestTemperatureStream msg) {
+        var groupActor = groupActorById.get(groupIds.handleOf(msg.groupId));
+        if (groupActor != null) {
+            groupActor.tell(msg);
+        } else {
+            msg.replyTo.tell(new ReplyTemperaturesChunk(msg.requestId, Map.of(), true));
+        }
+
+        return this;
+    }
+
+    private Behavior<Command> onRecordTemperatures(RecordTemperatures msg) {
+        var groupActor = groupActorById.get(groupIds.handleOf(msg.groupId));
+        if (groupActor != null) {
+            groupActor.tell(msg);
+        } else {
+            msg.replyTo.tell(new TemperaturesRecorded(msg.requestId, 0, msg.deviceIds.length));
+        }
+
+        return this;
+    }
+
     private Behavior<Command> onTerminated(DeviceGroupTerminated msg) {
-        if (groupActorById.keySet().remove(msg.groupId)) {
+        if (groupActorById.remove(msg.group) != null) {
             getContext().getLog().atInfo()
-                    .addKeyValue("group", msg.groupId)
+                    .addKeyValue("group", groupIds.id(msg.group))
                     .log("Device group actor has been terminated");
+            groupIds.release(msg.group);
         }
 
         return this;
@@ -0,0 +1,71 @@
+package com.epicgames.experiments.iot;
+
+import java.util.Arrays;
+
+// NOTE(mmm): Devices of a group as plain table rows rather than actors.
+//  Every device gets a dense slot, its handle in an IdRegistry; its latest
+//  reading is stored in parallel primitive columns. A lookup is an int[]
+//  probe plus one String.equals. Rows are never removed.
+final class DeviceTable {
+    static final long NO_READING = Long.MIN_VALUE;
+
+    private final IdRegistry deviceIds;
+    private double[] values;
+    private long[] timestamps;
+
+    DeviceTable(int initialCapacity) {
+        this.deviceIds = new IdRegistry(initialCapacity);
+        this.values = new double[initialCapacity];
+        this.timestamps = new long[initialCapacity];
+    }
+
+    int size() {
+        return deviceIds.size();
+    }
+
+    int slotOf(String deviceId) {
+        return deviceIds.handleOf(deviceId);
+    }
+
+    int add(String deviceId) {
+        var existing = deviceIds.handleOf(deviceId);
+        if (existing != IdRegistry.NO_HANDLE) {
+            return existing;
+        }
+
+        var slot = deviceIds.intern(deviceId);
+        if (slot >= values.length) {
+            var capacity = Math.max(slot + 1, values.length * 2);
+            values = Arrays.copyOf(values, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        timestamps[slot] = NO_READING;
+
+        return slot;
+    }
+
+    String deviceId(int slot) {
+        return deviceIds.id(slot);
+    }
+
+    void clear(int slot) {
+        timestamps[slot] = NO_READING;
+    }
+
+    void put(int slot, long timestamp, double value) {
+        values[slot] = value;
+        timestamps[slot] = timestamp;
+    }
+
+    boolean hasReading(int slot) {
+        return timestamps[slot] != NO_READING;
+    }
+
+    long timestamp(int slot) {
+        return timestamps[slot];
+    }
+
+    double value(int slot) {
+        return values[slot];
+    }
+}
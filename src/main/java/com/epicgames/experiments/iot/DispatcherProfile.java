@@ -0,0 +1,78 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.Config;
+import lombok.With;
+import org.apache.pekko.actor.typed.DispatcherSelector;
+import org.apache.pekko.actor.typed.Props;
+
+import java.util.Set;
+
+// NOTE(mmm): Which dispatcher each tier of the hierarchy runs on: the
+//  DeviceManager, the DeviceGroups, the Device actors (or DeviceHandles),
+//  and the DeviceGroupQuery family. Every field is a dispatcher config path;
+//  null keeps the default dispatcher. Groups in {hotGroups} run on
+//  {hotGroup} instead of {group}. Only a local DeviceManager looks at
+//  {hotGroups}; sharded groups all get the same props. {blockingIo} is where
+//  the file I/O of the segment log runs (see IotSupervisor); null keeps
+//  Pekko's default blocking dispatcher.
+//
+//  dispatchers.conf defines the dispatchers and a few named profiles under
+//  iot.dispatcher-profiles, which fromConfig() reads.
+@With
+public record DispatcherProfile(
+        String manager,
+        String group,
+        String hotGroup,
+        Set<String> hotGroups,
+        String device,
+        String query,
+        String blockingIo
+) {
+    public static final DispatcherProfile DEFAULT =
+            new DispatcherProfile(null, null, null, Set.of(), null, null, null);
+
+    public static DispatcherProfile fromConfig(Config config, String name) {
+        var profile = config.getConfig("iot.dispatcher-profiles." + name);
+        return new DispatcherProfile(
+                pathOrNull(profile, "manager"),
+                pathOrNull(profile, "group"),
+                pathOrNull(profile, "hot-group"),
+                profile.hasPath("hot-groups") ? Set.copyOf(profile.getStringList("hot-groups")) : Set.of(),
+                pathOrNull(profile, "device"),
+                pathOrNull(profile, "query"),
+                pathOrNull(profile, "blocking-io"));
+    }
+
+    Props managerProps() {
+        return managerProps(Props.empty());
+    }
+
+    Props managerProps(Props props) {
+        return withDispatcher(props, manager);
+    }
+
+    Props groupProps(Props props, String groupId) {
+        var hot = hotGroup != null && groupId != null && hotGroups.contains(groupId);
+        return withDispatcher(props, hot ? hotGroup : group);
+    }
+
+    Props deviceProps(Props props) {
+        return withDispatcher(props, device);
+    }
+
+    Props queryProps(Props props) {
+        return withDispatcher(props, query);
+    }
+
+    DispatcherSelector blockingIoSelector() {
+        return blockingIo != null ? DispatcherSelector.fromConfig(blockingIo) : DispatcherSelector.blocking();
+    }
+
+    private static Props withDispatcher(Props props, String path) {
+        return path != null ? props.withDispatcherFromConfig(path) : props;
+    }
+
+    private static String pathOrNull(Config config, String key) {
+        return config.hasPath(key) ? config.getString(key) : null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.epicgames.experiments.iot;
+
+import java.util.Arrays;
+
+// NOTE(mmm): Interns the string ids an actor sees into dense int handles,
+//  0, 1, 2... in the order they were first seen, so the actor can key its
+//  own maps and messages by handle and only deal with strings at its public
+//  boundary. Indexed by a SlotIndex. An id that goes away for good can be
+//  released; its handle is then handed out again to the next new id, so the
+//  registry grows with the number of ids in use rather than every id it has
+//  ever seen. Whoever releases a handle must not use it again. Not
+//  thread-safe, it belongs to one actor.
+final class IdRegistry {
+    static final int NO_HANDLE = SlotIndex.EMPTY;
+
+    private final SlotIndex slots;
+    private String[] ids;
+
+    IdRegistry(int initialCapacity) {
+        this.slots = new SlotIndex(initialCapacity);
+        this.ids = new String[slots.capacity()];
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    // NOTE(mmm): NO_HANDLE if the id was never interned, or was released.
+    int handleOf(String id) {
+        return find(id, SlotIndex.mix(id.hashCode()));
+    }
+
+    int intern(String id) {
+        var hash = SlotIndex.mix(id.hashCode());
+        var existing = find(id, hash);
+        if (existing != NO_HANDLE) {
+            return existing;
+        }
+
+        var handle = slots.add(hash);
+        if (handle >= ids.length) {
+            ids = Arrays.copyOf(ids, slots.capacity());
+        }
+        ids[handle] = id;
+
+        return handle;
+    }
+
+    void release(int handle) {
+        slots.release(handle);
+        ids[handle] = null;
+    }
+
+    // NOTE(mmm): Null if the handle was released and not handed out again.
+    String id(int handle) {
+        return ids[handle];
+    }
+
+    private int find(String id, int hash) {
+        for (int i = slots.first(hash); ; i = slots.next(i)) {
+            var handle = slots.slotAt(i);
+            if (handle == NO_HANDLE) {
+                return NO_HANDLE;
+            }
+            if (slots.hash(handle) == hash && ids[handle].equals(id)) {
+                return handle;
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.epicgames.experiments.iot;
+
+import lombok.With;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pekko.NotUsed;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.javadsl.AskPattern;
+import org.apache.pekko.stream.Materializer;
+import org.apache.pekko.stream.javadsl.Flow;
+import org.apache.pekko.stream.javadsl.Framing;
+import org.apache.pekko.stream.javadsl.Sink;
+import org.apache.pekko.stream.javadsl.Tcp;
+import org.apache.pekko.util.ByteIterator;
+import org.apache.pekko.util.ByteString;
+import org.apache.pekko.util.ByteStringBuilder;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NOTE(mmm): TCP front door for devices. Clients send frames, each a 4-byte
+//  big-endian length followed by one of:
+//
+//      byte 1 (track)   | groupId | deviceId
+//      byte 2 (reading) | groupId | deviceId | long timestamp | double value
+//
+//  Strings are a 2-byte length and UTF-8, numbers are big-endian. Every
+//  connection gathers frames for up to {maxBatchDelay}, or {maxBatchSize}
+//  frames, and sends the DeviceManager one RecordTemperatures per group.
+//  Tracks are sent as they are. Readings that came after a track are never
+//  sent before it.
+//
+//  At most {parallelism} requests per connection wait for their reply at a
+//  time. When the groups fall behind, the replies slow down, the connection
+//  stops reading, and TCP pushes back on the client. Every request gets an
+//  ack frame (int accepted | int rejected) once its reply is in. A malformed
+//  frame, or a reply that takes longer than {askTimeout}, closes the
+//  connection.
+@Slf4j
+public final class IngestGateway {
+    static final byte TRACK = 1;
+    static final byte READING = 2;
+    static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+
+    @With
+    public record Settings(
+            String host,
+            int port,
+            int maxBatchSize,
+            Duration maxBatchDelay,
+            int parallelism,
+            Duration askTimeout
+    ) {
+        public static final Settings DEFAULT = new Settings(
+                "127.0.0.1",
+                7878,
+                1000,
+                Duration.ofMillis(5),
+                8,
+                Duration.ofSeconds(5));
+    }
+
+    record Ack(
+            int accepted,
+            int rejected
+    ) {
+    }
+
+    private record Frame(
+            byte type,
+            String groupId,
+            String deviceId,
+            long timestamp,
+            double value
+    ) {
+    }
+
+    private interface Request {
+    }
+
+    private record Track(
+            String groupId,
+            String deviceId
+    ) implements Request {
+    }
+
+    private record Readings(
+            String groupId,
+            String[] deviceIds,
+            double[] values,
+            long[] timestamps
+    ) implements Request {
+    }
+
+    // NOTE(mmm): Completes once the gateway is listening. Connections are
+    //  served until the actor system terminates.
+    public static CompletionStage<Tcp.ServerBinding> bind(
+            ActorSystem<?> system,
+            ActorRef<DeviceManager.Command> manager,
+            Settings settings
+    ) {
+        var gateway = new IngestGateway(system, manager, settings);
+        return Tcp.get(system).bind(settings.host, settings.port)
+                .to(Sink.foreach(connection -> connection.handleWith(gateway.connectionFlow(), gateway.materializer)))
+                .run(gateway.materializer)
+                .whenComplete((binding, failure) -> {
+                    if (failure != null) {
+                        log.atError()
+                                .setMessage("Ingest gateway failed to bind")
+                                .addKeyValue("host", settings.host)
+                                .addKeyValue("port", settings.port)
+                                .setCause(failure)
+                                .log();
+                    } else {
+                        log.atInfo()
+                                .setMessage("Ingest gateway started")
+                                .addKeyValue("address", binding.localAddress())
+                                .log();
+                    }
+                });
+    }
+
+    private final ActorSystem<?> system;
+    private final ActorRef<DeviceManager.Command> manager;
+    private final Settings settings;
+    private final Materializer materializer;
+    private final AtomicLong requestIds = new AtomicLong();
+
+    private IngestGateway(ActorSystem<?> system, ActorRef<DeviceManager.Command> manager, Settings settings) {
+        this.system = system;
+        this.manager = manager;
+        this.settings = settings;
+        this.materializer = Materializer.matFromSystem(system);
+    }
+
+    private Flow<ByteString, ByteString, NotUsed> connectionFlow() {
+        return Flow.of(ByteString.class)
+                .via(Framing.simpleFramingProtocolDecoder(MAX_FRAME_BYTES))
+                .map(IngestGateway::decodeFrame)
+                .groupedWithin(settings.maxBatchSize, settings.maxBatchDelay)
+                .mapConcat(IngestGateway::toRequests)
+                .mapAsync(settings.parallelism, this::send)
+                .map(IngestGateway::encodeAck)
+                .via(Framing.simpleFramingProtocolEncoder(MAX_FRAME_BYTES));
+    }
+
+    private static List<Request> toRequests(List<Frame> frames) {
+        var requests = new ArrayList<Request>();
+        var batchByGroup = new LinkedHashMap<String, ReadingBatch>();
+        for (var frame : frames) {
+            if (frame.type == TRACK) {
+                var batch = batchByGroup.remove(frame.groupId);
+                if (batch != null) {
+                    requests.add(batch.toReadings(frame.groupId));
+                }
+                requests.add(new Track(frame.groupId, frame.deviceId));
+            } else {
+                batchByGroup.computeIfAbsent(frame.groupId, groupId -> new ReadingBatch())
+                        .add(frame.deviceId, frame.timestamp, frame.value);
+            }
+        }
+        for (var entry : batchByGroup.entrySet()) {
+            requests.add(entry.getValue().toReadings(entry.getKey()));
+        }
+        return requests;
+    }
+
+    private CompletionStage<Ack> send(Request request) {
+        var requestId = requestIds.incrementAndGet();
+        return switch (request) {
+            case Track track -> AskPattern.<DeviceManager.Command, DeviceManager.DeviceRegistered>ask(
+                            manager,
+                            replyTo -> new DeviceManager.RequestTrackDevice(
+                                    requestId, track.groupId, track.deviceId, replyTo),
+                            settings.askTimeout,
+                            system.scheduler())
+                    .thenApply(reply -> new Ack(1, 0));
+            case Readings readings -> AskPattern.<DeviceManager.Command, DeviceManager.TemperaturesRecorded>ask(
+                            manager,
+                            replyTo -> new DeviceManager.RecordTemperatures(
+                                    requestId, readings.groupId, readings.deviceIds, readings.values, readings.timestamps,
+                                    replyTo),
+                            settings.askTimeout,
+                            system.scheduler())
+                    .thenApply(reply -> new Ack(reply.recorded(), reply.rejected()));
+            default -> throw new IllegalStateException("Unknown request " + request);
+        };
+    }
+
+    private static Frame decodeFrame(ByteString bytes) {
+        var it = bytes.iterator();
+        var type = it.getByte();
+        var groupId = readString(it);
+        var deviceId = readString(it);
+        return switch (type) {
+            case TRACK -> new Frame(type, groupId, deviceId, 0, 0);
+            case READING -> new Frame(type, groupId, deviceId, it.getLong(ORDER), it.getDouble(ORDER));
+            default -> throw new IllegalArgumentException("Unknown frame type " + type);
+        };
+    }
+
+    private static String readString(ByteIterator it) {
+        var length = Short.toUnsignedInt(it.getShort(ORDER));
+        return new String(it.getBytes(length), StandardCharsets.UTF_8);
+    }
+
+    // NOTE(mmm): The frame encoders leave out the length prefix; run their
+    //  output through Framing.simpleFramingProtocolEncoder.
+    static ByteString encodeTrack(String groupId, String deviceId) {
+        var builder = ByteString.createBuilder();
+        builder.putByte(TRACK);
+        putString(builder, groupId);
+        putString(builder, deviceId);
+        return builder.result();
+    }
+
+    static ByteString encodeReading(String groupId, String deviceId, long timestamp, double value) {
+        var builder = ByteString.createBuilder();
+        builder.putByte(READING);
+        putString(builder, groupId);
+        putString(builder, deviceId);
+        builder.putLong(timestamp, ORDER);
+        builder.putDouble(value, ORDER);
+        return builder.result();
+    }
+
+    private static void putString(ByteStringBuilder builder, String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for a frame: " + bytes.length + " bytes");
+        }
+        builder.putShort(bytes.length, ORDER);
+        builder.putBytes(bytes);
+    }
+
+    static ByteString encodeAck(Ack ack) {
+        return ByteString.createBuilder()
+                .putInt(ack.accepted, ORDER)
+                .putInt(ack.rejected, ORDER)
+                .result();
+    }
+
+    static Ack decodeAck(ByteString bytes) {
+        var it = bytes.iterator();
+        return new Ack(it.getInt(ORDER), it.getInt(ORDER));
+    }
+
+    private static final class ReadingBatch {
+        private String[] deviceIds = new String[16];
+        private double[] values = new double[16];
+        private long[] timestamps = new long[16];
+        private int size;
+
+        private void add(String deviceId, long timestamp, double value) {
+            if (size == deviceIds.length) {
+                deviceIds = Arrays.copyOf(deviceIds, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            deviceIds[size] = deviceId;
+            values[size] = value;
+            timestamps[size] = timestamp;
+            size++;
+        }
+
+        private Readings toReadings(String groupId) {
+            return new Readings(
+                    groupId,
+                    Arrays.copyOf(deviceIds, size),
+                    Arrays.copyOf(values, size),
+                    Arrays.copyOf(timestamps, size));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.epicgames.experiments.iot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pekko.actor.typed.ActorSystem;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
+import org.apache.pekko.stream.javadsl.Framing;
+import org.apache.pekko.stream.javadsl.Sink;
+import org.apache.pekko.stream.javadsl.Source;
+import org.apache.pekko.stream.javadsl.Tcp;
+import org.apache.pekko.util.ByteString;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.LongStream;
+
+// NOTE(mmm): Drives an IngestGateway over a single connection, for end to
+//  end runs on one machine. Tracks {devicesPerGroup} devices in each of
+//  {groups} groups, then sends {readings} readings round-robin over them as
+//  fast as the gateway takes them. Frames are coalesced into writes of up to
+//  WRITE_BATCH_BYTES while the connection pushes back. Completes once every
+//  frame has been acked.
+//
+//  Run it on its own against a gateway started with `IotMain --gateway`:
+//
+//      IngestLoadGenerator <host> <port> <groups> <devicesPerGroup> <readings>
+@Slf4j
+public final class IngestLoadGenerator {
+    private static final long WRITE_BATCH_BYTES = 64 * 1024;
+
+    public record Result(
+            long accepted,
+            long rejected
+    ) {
+    }
+
+    private IngestLoadGenerator() {
+    }
+
+    public static CompletionStage<Result> run(
+            ActorSystem<?> system,
+            InetSocketAddress address,
+            int groups,
+            int devicesPerGroup,
+            long readings
+    ) {
+        var devices = groups * devicesPerGroup;
+        var tracks = Source.range(0, devices - 1)
+                .map(i -> IngestGateway.encodeTrack(groupId(i % groups), deviceId(i / groups)));
+        var samples = Source.fromIterator(() -> LongStream.range(0, readings).iterator())
+                .map(i -> IngestGateway.encodeReading(
+                        groupId((int) (i % groups)),
+                        deviceId((int) (i / groups % devicesPerGroup)),
+                        System.currentTimeMillis(),
+                        i % 400 / 10.0));
+        var frames = devices + readings;
+
+        // NOTE(mmm): The connection stays open until the last ack is in; the
+        //  gateway drops whatever is still in flight when the client closes.
+        return tracks.concat(samples)
+                .concat(Source.<ByteString>maybe())
+                .via(Framing.simpleFramingProtocolEncoder(IngestGateway.MAX_FRAME_BYTES))
+                .batchWeighted(WRITE_BATCH_BYTES, bytes -> (long) bytes.size(), bytes -> bytes, ByteString::concat)
+                .via(Tcp.get(system).outgoingConnection(address.getHostString(), address.getPort()))
+                .via(Framing.simpleFramingProtocolDecoder(IngestGateway.MAX_FRAME_BYTES))
+                .map(IngestGateway::decodeAck)
+                .scan(new Result(0, 0), (result, ack) ->
+                        new Result(result.accepted + ack.accepted(), result.rejected + ack.rejected()))
+                .takeWhile(result -> result.accepted + result.rejected < frames, true)
+                .runWith(Sink.last(), system);
+    }
+
+    public static String groupId(int group) {
+        return "group-" + group;
+    }
+
+    public static String deviceId(int device) {
+        return "device-" + device;
+    }
+
+    public static void main(String[] args) {
+        var address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        var groups = Integer.parseInt(args[2]);
+        var devicesPerGroup = Integer.parseInt(args[3]);
+        var readings = Long.parseLong(args[4]);
+
+        var system = ActorSystem.create(Behaviors.empty(), "ingest-load-generator");
+        var start = System.nanoTime();
+        run(system, address, groups, devicesPerGroup, readings)
+                .whenComplete((result, failure) -> {
+                    if (failure != null) {
+                        log.atError()
+                                .setMessage("Load run failed")
+                                .setCause(failure)
+                                .log();
+                    } else {
+                        var seconds = (System.nanoTime() - start) / 1e9;
+                        log.atInfo()
+                                .setMessage("Load run finished")
+                                .addKeyValue("accepted", result.accepted)
+                                .addKeyValue("rejected", result.rejected)
+                                .addKeyValue("seconds", seconds)
+                                .addKeyValue("framesPerSecond", (long) ((groups * devicesPerGroup + readings) / seconds))
+                                .log();
+                    }
+                    system.terminate();
+                });
+    }
+}
@@ -0,0 +1,108 @@
+package com.epicgames.experiments.iot;
+
+import java.util.Arrays;
+
+// NOTE(mmm): Map from non-negative int keys (IdRegistry handles) to non-null
+//  values, without boxing the keys or allocating an entry per mapping.
+//  Indexed by a SlotIndex, with the keys and values in columns by slot.
+//
+//  Walk it by slot: for every slot below slotCount(), valueAt() is null if
+//  the slot is empty, else keyAt() is its key. The order is arbitrary.
+final class IntObjectMap<V> {
+    private static final int EMPTY = SlotIndex.EMPTY;
+
+    private final SlotIndex slots;
+    private int[] keys;
+    private Object[] values;
+
+    IntObjectMap(int initialCapacity) {
+        this.slots = new SlotIndex(initialCapacity);
+        this.keys = new int[slots.capacity()];
+        this.values = new Object[slots.capacity()];
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    boolean isEmpty() {
+        return slots.size() == 0;
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        var slot = slotOf(key);
+        return slot != EMPTY ? (V) values[slot] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (key < 0 || value == null) {
+            throw new IllegalArgumentException("keys must not be negative, values must not be null");
+        }
+
+        var slot = slotOf(key);
+        if (slot != EMPTY) {
+            var previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        slot = slots.add(SlotIndex.mix(key));
+        if (slot >= keys.length) {
+            keys = Arrays.copyOf(keys, slots.capacity());
+            values = Arrays.copyOf(values, slots.capacity());
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        var slot = slotOf(key);
+        if (slot == EMPTY) {
+            return null;
+        }
+
+        var removed = (V) values[slot];
+        slots.release(slot);
+        values[slot] = null;
+        return removed;
+    }
+
+    void clear() {
+        slots.clear();
+        Arrays.fill(values, null);
+    }
+
+    int slotCount() {
+        return keys.length;
+    }
+
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private int slotOf(int key) {
+        if (key < 0) {
+            return EMPTY;
+        }
+
+        for (int i = slots.first(SlotIndex.mix(key)); ; i = slots.next(i)) {
+            var slot = slots.slotAt(i);
+            if (slot == EMPTY || keys[slot] == key) {
+                return slot;
+            }
+        }
+    }
+}
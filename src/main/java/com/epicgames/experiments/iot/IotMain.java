@@ -1,9 +1,17 @@
 package com.epicgames.experiments.iot;
 
+import com.typesafe.config.ConfigFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pekko.actor.typed.ActorSystem;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+
 @Slf4j
 public class IotMain {
     static {
@@ -13,7 +21,109 @@ public class IotMain {
         LoggerFactory.getLogger("");
     }
 
-    public static void main(String[] args) {
-        ActorSystem.create(IotSupervisor.create(), "iot-system");
+    // NOTE(mmm): Every option can be combined with the others, except that
+    //  `--tracing` replaces the mailboxes of `--shedding`.
+    //
+    //  - `--cluster` shards the device groups over a cluster (see
+    //    cluster.conf).
+    //  - `--persistent` keeps the device groups on disk (see
+    //    persistence.conf).
+    //  - `--reading-log` appends every reading to a ReadingSegmentLog in
+    //    data/readings and replays it on startup.
+    //  - `--gateway` accepts readings over TCP (see IngestGateway) on
+    //    IOT_GATEWAY_PORT, 7878 by default.
+    //  - `--shedding` gives groups and devices bounded mailboxes (see
+    //    mailboxes.conf).
+    //  - `--dispatchers` runs each tier on its own dispatcher, with the
+    //    profile named by IOT_DISPATCHER_PROFILE, tiered by default (see
+    //    dispatchers.conf), and the comma-separated groups in IOT_HOT_GROUPS
+    //    on the profile's hot-group dispatcher.
+    //  - `--metrics` serves IotMetrics to Prometheus on IOT_METRICS_PORT,
+    //    9464 by default (see MetricsEndpoint).
+    //  - `--tracing` traces a sample of requests through every tier, dumped
+    //    at /traces of the metrics endpoint (see MessageTrace).
+    public static void main(String[] args) throws IOException {
+        var options = Arrays.asList(args);
+        var clustered = options.contains("--cluster");
+        var persistent = options.contains("--persistent");
+        var readingLog = options.contains("--reading-log");
+        var gateway = options.contains("--gateway");
+        var shedding = options.contains("--shedding");
+        var dispatchers = options.contains("--dispatchers");
+        var metrics = options.contains("--metrics");
+        var tracing = options.contains("--tracing");
+
+        var config = ConfigFactory.empty();
+        var groupSettings = DeviceGroup.Settings.DEFAULT;
+        if (clustered) {
+            config = config.withFallback(ConfigFactory.parseResources("cluster.conf"));
+        }
+        if (persistent) {
+            config = config.withFallback(ConfigFactory.parseResources("persistence.conf"));
+            groupSettings = groupSettings.withPersistInterval(Duration.ofSeconds(1));
+        }
+        if (shedding) {
+            config = config.withFallback(ConfigFactory.parseResources("mailboxes.conf"));
+            groupSettings = groupSettings
+                    .withGroupMailbox("iot.mailbox.group")
+                    .withDeviceMailbox("iot.mailbox.device");
+        }
+        if (tracing) {
+            config = config.withFallback(ConfigFactory.parseResources("mailboxes.conf"));
+            groupSettings = groupSettings
+                    .withManagerMailbox("iot.mailbox.traced.manager")
+                    .withGroupMailbox("iot.mailbox.traced.group")
+                    .withDeviceMailbox("iot.mailbox.traced.device")
+                    .withQueryMailbox("iot.mailbox.traced.query");
+        }
+        if (dispatchers) {
+            var dispatchersConfig = ConfigFactory.parseResources("dispatchers.conf").resolve();
+            config = config.withFallback(dispatchersConfig);
+            var profileName = System.getenv("IOT_DISPATCHER_PROFILE");
+            var profile = DispatcherProfile.fromConfig(dispatchersConfig, profileName != null ? profileName : "tiered");
+            var hotGroups = System.getenv("IOT_HOT_GROUPS");
+            if (hotGroups != null) {
+                profile = profile.withHotGroups(Set.of(hotGroups.split(",")));
+            }
+            groupSettings = groupSettings.withDispatchers(profile);
+        }
+        ReadingSegmentLog segmentLog = null;
+        if (readingLog) {
+            // NOTE(mmm): IotSupervisor schedules the commits, on the blocking-io
+            //  dispatcher.
+            segmentLog = ReadingSegmentLog.open(
+                    Path.of("data", "readings"),
+                    ReadingSegmentLog.DEFAULT_SEGMENT_RECORDS,
+                    Duration.ZERO);
+            groupSettings = groupSettings.withSegmentLog(segmentLog);
+        }
+
+        IngestGateway.Settings gatewaySettings = null;
+        if (gateway) {
+            gatewaySettings = IngestGateway.Settings.DEFAULT;
+            var port = System.getenv("IOT_GATEWAY_PORT");
+            if (port != null) {
+                gatewaySettings = gatewaySettings.withPort(Integer.parseInt(port));
+            }
+        }
+
+        var system = ActorSystem.create(
+                IotSupervisor.create(clustered, groupSettings, gatewaySettings),
+                "iot-system",
+                ConfigFactory.load(config));
+        if (segmentLog != null) {
+            system.getWhenTerminated().thenRun(segmentLog::close);
+        }
+        IotMetrics.start();
+        system.getWhenTerminated().thenRun(IotMetrics::stop);
+        if (metrics) {
+            var address = new InetSocketAddress("127.0.0.1", MetricsEndpoint.DEFAULT_PORT);
+            var port = System.getenv("IOT_METRICS_PORT");
+            if (port != null) {
+                address = new InetSocketAddress("127.0.0.1", Integer.parseInt(port));
+            }
+            var endpoint = MetricsEndpoint.start(address);
+            system.getWhenTerminated().thenRun(() -> endpoint.stop(0));
+        }
     }
 }
@@ -0,0 +1,9 @@
+package com.epicgames.experiments.iot;
+
+// NOTE(mmm): Marker for everything that may leave the JVM: messages that
+//  cross a node boundary in cluster mode (commands, and the replies to
+//  them), and what persistent groups write to their journal.
+//  serialization.conf binds it to IotMessageSerializer, which must know
+//  every such type; local-only messages don't need it.
+public interface IotMessage {
+}
@@ -0,0 +1,666 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.ExtendedActorSystem;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorRefResolver;
+import org.apache.pekko.actor.typed.javadsl.Adapter;
+import org.apache.pekko.serialization.SerializerWithStringManifest;
+
+import java.io.NotSerializableException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Set;
+
+// NOTE(mmm): Binary format for every IotMessage (see serialization.conf).
+//  The manifest names the message type, the payload is its components in
+//  declaration order:
+//
+//  - Integers (request ids, counts, sizes) are zigzag varints, so small
+//    values of either sign take a byte or two.
+//  - Doubles are 8 raw little-endian bytes; arrays of them are written back
+//    to back, without per-element framing.
+//  - Timestamp arrays are varint deltas from the previous timestamp, which
+//    for readings taken close together is 1-3 bytes each.
+//  - Strings are a varint length and UTF-8. Lists of ids are front-coded:
+//    each one only carries what differs from the previous one, which is
+//    most of the saving for ids like "sensor-000123".
+//  - Device ids in a RecordTemperatures batch go into a dictionary of the
+//    distinct ids, and every sample is a varint index into it.
+//  - Temperature maps are columnar: the ids, then one status byte per
+//    device, then the values of the devices that have one.
+//  - Actor refs are their ActorRefResolver string.
+//
+//  Private messages (timers and the like) never leave their actor, so they
+//  aren't covered even though they are IotMessages through Command.
+//  Changing the layout of a message breaks journals written with the old
+//  one, so give the new layout a new manifest instead.
+public final class IotMessageSerializer extends SerializerWithStringManifest {
+    private static final int IDENTIFIER = 7_311_001;
+
+    private static final String DEVICE_RECORD_TEMPERATURE = "DRT";
+    private static final String DEVICE_RECORD_TEMPERATURE_NO_REPLY = "DRN";
+    private static final String DEVICE_RECORD_TEMPERATURE_CUMULATIVE_ACK = "DRC";
+    private static final String DEVICE_TEMPERATURE_RECORDED = "DTR";
+    private static final String DEVICE_RECORD_TEMPERATURES = "DRB";
+    private static final String DEVICE_READ_TEMPERATURE = "DRD";
+    private static final String DEVICE_TEMPERATURE = "DT";
+    private static final String DEVICE_READ_TEMPERATURE_STATS = "DRS";
+    private static final String DEVICE_TEMPERATURE_STATS = "DTS";
+    private static final String DEVICE_PASSIVATE = "DP";
+    private static final String MANAGER_TRACK_DEVICE = "MTD";
+    private static final String MANAGER_DEVICE_REGISTERED = "MDR";
+    private static final String MANAGER_ALL_DEVICES = "MAD";
+    private static final String MANAGER_REPLY_ALL_DEVICES = "MRD";
+    private static final String MANAGER_ALL_TEMPERATURES = "MAT";
+    private static final String MANAGER_REPLY_ALL_TEMPERATURES = "MRT";
+    private static final String MANAGER_QUORUM_TEMPERATURES = "MQT";
+    private static final String MANAGER_TEMPERATURE_STREAM = "MTS";
+    private static final String MANAGER_TEMPERATURES_CHUNK = "MTC";
+    private static final String MANAGER_RECORD_TEMPERATURES = "MRB";
+    private static final String MANAGER_TEMPERATURES_RECORDED = "MTR";
+    private static final String MANAGER_TEMPERATURE = "MT";
+    private static final String MANAGER_TEMPERATURE_NOT_AVAILABLE = "MTN";
+    private static final String MANAGER_DEVICE_NOT_AVAILABLE = "MDN";
+    private static final String MANAGER_DEVICE_TIMED_OUT = "MDT";
+    private static final String JOURNAL_DEVICES_REGISTERED = "JDR";
+    private static final String JOURNAL_DEVICES_REMOVED = "JDD";
+    private static final String JOURNAL_READINGS_RECORDED = "JRR";
+    private static final String JOURNAL_SNAPSHOT = "JS";
+
+    private final ActorRefResolver refResolver;
+
+    public IotMessageSerializer(ExtendedActorSystem system) {
+        this.refResolver = ActorRefResolver.get(Adapter.toTyped(system));
+    }
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        return switch (o) {
+            case Device.RecordTemperature msg -> DEVICE_RECORD_TEMPERATURE;
+            case Device.RecordTemperatureNoReply msg -> DEVICE_RECORD_TEMPERATURE_NO_REPLY;
+            case Device.RecordTemperatureCumulativeAck msg -> DEVICE_RECORD_TEMPERATURE_CUMULATIVE_ACK;
+            case Device.TemperatureRecorded msg -> DEVICE_TEMPERATURE_RECORDED;
+            case Device.RecordTemperatures msg -> DEVICE_RECORD_TEMPERATURES;
+            case Device.ReadTemperature msg -> DEVICE_READ_TEMPERATURE;
+            case Device.Temperature msg -> DEVICE_TEMPERATURE;
+            case Device.ReadTemperatureStats msg -> DEVICE_READ_TEMPERATURE_STATS;
+            case Device.TemperatureStats msg -> DEVICE_TEMPERATURE_STATS;
+            case Device.Passivate msg -> DEVICE_PASSIVATE;
+            case DeviceManager.RequestTrackDevice msg -> MANAGER_TRACK_DEVICE;
+            case DeviceManager.DeviceRegistered msg -> MANAGER_DEVICE_REGISTERED;
+            case DeviceManager.RequestAllDevices msg -> MANAGER_ALL_DEVICES;
+            case DeviceManager.ReplyAllDevices msg -> MANAGER_REPLY_ALL_DEVICES;
+            case DeviceManager.RequestAllTemperatures msg -> MANAGER_ALL_TEMPERATURES;
+            case DeviceManager.ReplyAllTemperatures msg -> MANAGER_REPLY_ALL_TEMPERATURES;
+            case DeviceManager.RequestQuorumTemperatures msg -> MANAGER_QUORUM_TEMPERATURES;
+            case DeviceManager.RequestTemperatureStream msg -> MANAGER_TEMPERATURE_STREAM;
+            case DeviceManager.ReplyTemperaturesChunk msg -> MANAGER_TEMPERATURES_CHUNK;
+            case DeviceManager.RecordTemperatures msg -> MANAGER_RECORD_TEMPERATURES;
+            case DeviceManager.TemperaturesRecorded msg -> MANAGER_TEMPERATURES_RECORDED;
+            case DeviceManager.Temperature msg -> MANAGER_TEMPERATURE;
+            case DeviceManager.TemperatureNotAvailable msg -> MANAGER_TEMPERATURE_NOT_AVAILABLE;
+            case DeviceManager.DeviceNotAvailable msg -> MANAGER_DEVICE_NOT_AVAILABLE;
+            case DeviceManager.DeviceTimedOut msg -> MANAGER_DEVICE_TIMED_OUT;
+            case DeviceGroupJournal.DevicesRegistered msg -> JOURNAL_DEVICES_REGISTERED;
+            case DeviceGroupJournal.DevicesRemoved msg -> JOURNAL_DEVICES_REMOVED;
+            case DeviceGroupJournal.ReadingsRecorded msg -> JOURNAL_READINGS_RECORDED;
+            case DeviceGroupJournal.Snapshot msg -> JOURNAL_SNAPSHOT;
+            default -> throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+        };
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        var out = new Writer(64);
+        switch (o) {
+            case Device.RecordTemperature msg -> {
+                out.writeLong(msg.requestId());
+                out.writeDouble(msg.value());
+                writeRef(out, msg.replyTo());
+            }
+            case Device.RecordTemperatureNoReply msg -> {
+                out.writeLong(msg.requestId());
+                out.writeDouble(msg.value());
+            }
+            case Device.RecordTemperatureCumulativeAck msg -> {
+                out.writeLong(msg.requestId());
+                out.writeDouble(msg.value());
+                writeRef(out, msg.replyTo());
+            }
+            case Device.TemperatureRecorded msg -> {
+                out.writeLong(msg.requestId());
+                out.writeBoolean(msg.busy());
+            }
+            case Device.RecordTemperatures msg -> {
+                out.writeLong(msg.requestId());
+                out.writeDoubles(msg.values());
+                out.writeTimestamps(msg.timestamps());
+            }
+            case Device.ReadTemperature msg -> {
+                out.writeLong(msg.requestId());
+                writeRef(out, msg.replyTo());
+                out.writeInt(msg.index());
+            }
+            case Device.Temperature msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.deviceId());
+                out.writeBoolean(msg.value().isPresent());
+                if (msg.value().isPresent()) {
+                    out.writeDouble(msg.value().getAsDouble());
+                }
+                out.writeInt(msg.index());
+            }
+            case Device.ReadTemperatureStats msg -> {
+                out.writeLong(msg.requestId());
+                out.writeDuration(msg.window());
+                out.writeDoubles(msg.percentiles());
+                writeRef(out, msg.replyTo());
+            }
+            case Device.TemperatureStats msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.deviceId());
+                out.writeInt(msg.count());
+                out.writeDouble(msg.min());
+                out.writeDouble(msg.max());
+                out.writeDouble(msg.mean());
+                out.writeDoubles(msg.percentiles());
+            }
+            case DeviceManager.RequestTrackDevice msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.groupId());
+                out.writeString(msg.deviceId());
+                writeRef(out, msg.replyTo());
+            }
+            case DeviceManager.DeviceRegistered msg -> {
+                out.writeLong(msg.requestId());
+                writeRef(out, msg.device());
+            }
+            case DeviceManager.RequestAllDevices msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.groupId());
+                writeRef(out, msg.replyTo());
+            }
+            case DeviceManager.ReplyAllDevices msg -> {
+                out.writeLong(msg.requestId());
+                out.writeIds(msg.deviceIds().toArray(String[]::new));
+            }
+            case DeviceManager.RequestAllTemperatures msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.groupId());
+                writeRef(out, msg.replyTo());
+                out.writeNullableDuration(msg.timeout());
+            }
+            case DeviceManager.ReplyAllTemperatures msg -> {
+                out.writeLong(msg.requestId());
+                writeReadings(out, msg.temperatures());
+            }
+            case DeviceManager.RequestQuorumTemperatures msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.groupId());
+                out.writeInt(msg.quorum());
+                writeRef(out, msg.replyTo());
+                out.writeNullableDuration(msg.timeout());
+            }
+            case DeviceManager.RequestTemperatureStream msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.groupId());
+                out.writeInt(msg.chunkSize());
+                writeRef(out, msg.replyTo());
+                out.writeNullableDuration(msg.timeout());
+            }
+            case DeviceManager.ReplyTemperaturesChunk msg -> {
+                out.writeLong(msg.requestId());
+                writeReadings(out, msg.temperatures());
+                out.writeBoolean(msg.last());
+            }
+            case DeviceManager.RecordTemperatures msg -> {
+                out.writeLong(msg.requestId());
+                out.writeString(msg.groupId());
+                writeDictionaryIds(out, msg.deviceIds());
+                out.writeDoubles(msg.values());
+                out.writeTimestamps(msg.timestamps());
+                writeRef(out, msg.replyTo());
+                out.writeBoolean(msg.replay());
+            }
+            case DeviceManager.TemperaturesRecorded msg -> {
+                out.writeLong(msg.requestId());
+                out.writeInt(msg.recorded());
+                out.writeInt(msg.rejected());
+                out.writeBoolean(msg.busy());
+            }
+            case DeviceManager.Temperature msg -> out.writeDouble(msg.value());
+            case DeviceGroupJournal.DevicesRegistered msg -> out.writeIds(msg.deviceIds());
+            case DeviceGroupJournal.DevicesRemoved msg -> out.writeIds(msg.deviceIds());
+            case DeviceGroupJournal.ReadingsRecorded msg -> {
+                out.writeIds(msg.deviceIds());
+                out.writeTimestamps(msg.timestamps());
+                out.writeDoubles(msg.values());
+            }
+            case DeviceGroupJournal.Snapshot msg -> {
+                out.writeIds(msg.deviceIds());
+                out.writeTimestamps(msg.timestamps());
+                out.writeDoubles(msg.values());
+            }
+            case Device.Passivate msg -> {
+            }
+            case DeviceManager.TemperatureNotAvailable msg -> {
+            }
+            case DeviceManager.DeviceNotAvailable msg -> {
+            }
+            case DeviceManager.DeviceTimedOut msg -> {
+            }
+            default -> throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        try {
+            return read(new Reader(bytes), manifest);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            var malformed = new NotSerializableException("Malformed " + manifest + ": " + e.getMessage());
+            malformed.initCause(e);
+            throw malformed;
+        }
+    }
+
+    private Object read(Reader in, String manifest) throws NotSerializableException {
+        return switch (manifest) {
+            case DEVICE_RECORD_TEMPERATURE ->
+                    new Device.RecordTemperature(in.readLong(), in.readDouble(), readRef(in));
+            case DEVICE_RECORD_TEMPERATURE_NO_REPLY ->
+                    new Device.RecordTemperatureNoReply(in.readLong(), in.readDouble());
+            case DEVICE_RECORD_TEMPERATURE_CUMULATIVE_ACK ->
+                    new Device.RecordTemperatureCumulativeAck(in.readLong(), in.readDouble(), readRef(in));
+            case DEVICE_TEMPERATURE_RECORDED -> new Device.TemperatureRecorded(in.readLong(), in.readBoolean());
+            case DEVICE_RECORD_TEMPERATURES ->
+                    new Device.RecordTemperatures(in.readLong(), in.readDoubles(), in.readTimestamps());
+            case DEVICE_READ_TEMPERATURE -> new Device.ReadTemperature(in.readLong(), readRef(in), in.readInt());
+            case DEVICE_TEMPERATURE -> new Device.Temperature(
+                    in.readLong(),
+                    in.readString(),
+                    in.readBoolean() ? OptionalDouble.of(in.readDouble()) : OptionalDouble.empty(),
+                    in.readInt());
+            case DEVICE_READ_TEMPERATURE_STATS -> new Device.ReadTemperatureStats(
+                    in.readLong(), in.readDuration(), in.readDoubles(), readRef(in));
+            case DEVICE_TEMPERATURE_STATS -> new Device.TemperatureStats(
+                    in.readLong(),
+                    in.readString(),
+                    in.readInt(),
+                    in.readDouble(),
+                    in.readDouble(),
+                    in.readDouble(),
+                    in.readDoubles());
+            case DEVICE_PASSIVATE -> Device.Passivate.INSTANCE;
+            case MANAGER_TRACK_DEVICE -> new DeviceManager.RequestTrackDevice(
+                    in.readLong(), in.readString(), in.readString(), readRef(in));
+            case MANAGER_DEVICE_REGISTERED -> new DeviceManager.DeviceRegistered(in.readLong(), readRef(in));
+            case MANAGER_ALL_DEVICES ->
+                    new DeviceManager.RequestAllDevices(in.readLong(), in.readString(), readRef(in));
+            case MANAGER_REPLY_ALL_DEVICES -> new DeviceManager.ReplyAllDevices(in.readLong(), readIdSet(in));
+            case MANAGER_ALL_TEMPERATURES -> new DeviceManager.RequestAllTemperatures(
+                    in.readLong(), in.readString(), readRef(in), in.readNullableDuration());
+            case MANAGER_REPLY_ALL_TEMPERATURES ->
+                    new DeviceManager.ReplyAllTemperatures(in.readLong(), readReadings(in));
+            case MANAGER_QUORUM_TEMPERATURES -> new DeviceManager.RequestQuorumTemperatures(
+                    in.readLong(), in.readString(), in.readInt(), readRef(in), in.readNullableDuration());
+            case MANAGER_TEMPERATURE_STREAM -> new DeviceManager.RequestTemperatureStream(
+                    in.readLong(), in.readString(), in.readInt(), readRef(in), in.readNullableDuration());
+            case MANAGER_TEMPERATURES_CHUNK ->
+                    new DeviceManager.ReplyTemperaturesChunk(in.readLong(), readReadings(in), in.readBoolean());
+            case MANAGER_RECORD_TEMPERATURES -> new DeviceManager.RecordTemperatures(
+                    in.readLong(),
+                    in.readString(),
+                    readDictionaryIds(in),
+                    in.readDoubles(),
+                    in.readTimestamps(),
+                    readRef(in),
+                    in.readBoolean());
+            case MANAGER_TEMPERATURES_RECORDED ->
+                    new DeviceManager.TemperaturesRecorded(
+                            in.readLong(), in.readInt(), in.readInt(), in.readBoolean());
+            case MANAGER_TEMPERATURE -> new DeviceManager.Temperature(in.readDouble());
+            case MANAGER_TEMPERATURE_NOT_AVAILABLE -> DeviceManager.TemperatureNotAvailable.INSTANCE;
+            case MANAGER_DEVICE_NOT_AVAILABLE -> DeviceManager.DeviceNotAvailable.INSTANCE;
+            case MANAGER_DEVICE_TIMED_OUT -> DeviceManager.DeviceTimedOut.INSTANCE;
+            case JOURNAL_DEVICES_REGISTERED -> new DeviceGroupJournal.DevicesRegistered(in.readIds());
+            case JOURNAL_DEVICES_REMOVED -> new DeviceGroupJournal.DevicesRemoved(in.readIds());
+            case JOURNAL_READINGS_RECORDED ->
+                    new DeviceGroupJournal.ReadingsRecorded(in.readIds(), in.readTimestamps(), in.readDoubles());
+            case JOURNAL_SNAPSHOT ->
+                    new DeviceGroupJournal.Snapshot(in.readIds(), in.readTimestamps(), in.readDoubles());
+            default -> throw new NotSerializableException("Unknown manifest " + manifest);
+        };
+    }
+
+    private void writeRef(Writer out, ActorRef<?> ref) {
+        out.writeString(refResolver.toSerializationFormat(ref));
+    }
+
+    private <T> ActorRef<T> readRef(Reader in) {
+        return refResolver.resolveActorRef(in.readString());
+    }
+
+    // NOTE(mmm): A temperature map goes out as its TemperatureColumns, with
+    //  only the values of the TEMPERATURE rows, and comes back as one.
+    private static void writeReadings(Writer out, Map<String, DeviceManager.TemperatureReading> readings) {
+        var columns = TemperatureColumns.of(readings);
+        var values = new double[columns.count(TemperatureColumns.TEMPERATURE)];
+        var valueCount = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.status(i) == TemperatureColumns.TEMPERATURE) {
+                values[valueCount++] = columns.value(i);
+            }
+        }
+
+        out.writeIds(columns.deviceIds());
+        out.writeBytes(columns.statuses());
+        out.writeDoubles(values);
+    }
+
+    private static TemperatureColumns readReadings(Reader in) {
+        var deviceIds = in.readIds();
+        var statuses = in.readBytes(deviceIds.length);
+        var values = in.readDoubles();
+        var expanded = new double[deviceIds.length];
+        var valueCount = 0;
+        for (int i = 0; i < deviceIds.length; i++) {
+            expanded[i] = switch (statuses[i]) {
+                case TemperatureColumns.TEMPERATURE -> values[valueCount++];
+                case TemperatureColumns.TEMPERATURE_NOT_AVAILABLE,
+                     TemperatureColumns.DEVICE_NOT_AVAILABLE,
+                     TemperatureColumns.DEVICE_TIMED_OUT -> Double.NaN;
+                default -> throw new IllegalArgumentException("Unknown reading status " + statuses[i]);
+            };
+        }
+        return new TemperatureColumns(deviceIds, expanded, statuses);
+    }
+
+    private static Set<String> readIdSet(Reader in) {
+        var deviceIds = in.readIds();
+        var set = new HashSet<String>(deviceIds.length * 2);
+        set.addAll(Arrays.asList(deviceIds));
+        return set;
+    }
+
+    private static void writeDictionaryIds(Writer out, String[] deviceIds) {
+        var indexById = new HashMap<String, Integer>();
+        var dictionary = new ArrayList<String>();
+        var indices = new int[deviceIds.length];
+        for (int i = 0; i < deviceIds.length; i++) {
+            var index = indexById.putIfAbsent(deviceIds[i], dictionary.size());
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.add(deviceIds[i]);
+            }
+            indices[i] = index;
+        }
+
+        out.writeIds(dictionary.toArray(String[]::new));
+        out.writeInt(indices.length);
+        for (var index : indices) {
+            out.writeVarLong(index);
+        }
+    }
+
+    private static String[] readDictionaryIds(Reader in) {
+        var dictionary = in.readIds();
+        var deviceIds = new String[in.readCount()];
+        for (int i = 0; i < deviceIds.length; i++) {
+            var index = in.readVarLong();
+            if (index < 0 || index >= dictionary.length) {
+                throw new IllegalArgumentException("Malformed dictionary index " + index);
+            }
+            deviceIds[i] = dictionary[(int) index];
+        }
+        return deviceIds;
+    }
+
+    private static final VarHandle DOUBLE =
+            MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        private Writer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (position + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+            }
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        // NOTE(mmm): Same encoding as writeLong; the reader's readInt checks
+        //  that the value fits.
+        private void writeInt(int value) {
+            writeLong(value);
+        }
+
+        private void writeBoolean(boolean value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) (value ? 1 : 0);
+        }
+
+        private void writeDouble(double value) {
+            ensureCapacity(8);
+            DOUBLE.set(buffer, position, value);
+            position += 8;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void writeDoubles(double[] values) {
+            writeInt(values.length);
+            ensureCapacity(values.length * 8);
+            for (var value : values) {
+                DOUBLE.set(buffer, position, value);
+                position += 8;
+            }
+        }
+
+        private void writeTimestamps(long[] timestamps) {
+            writeInt(timestamps.length);
+            var previous = 0L;
+            for (var timestamp : timestamps) {
+                writeLong(timestamp - previous);
+                previous = timestamp;
+            }
+        }
+
+        private void writeString(String value) {
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            writeBytes(bytes);
+        }
+
+        // NOTE(mmm): Front coding: the length of the prefix shared with the
+        //  previous id, then the rest. A shared prefix never ends halfway
+        //  through a surrogate pair, so the rest is valid UTF-16 on its own.
+        private void writeIds(String[] ids) {
+            writeInt(ids.length);
+            var previous = "";
+            for (var id : ids) {
+                var prefix = 0;
+                var max = Math.min(previous.length(), id.length());
+                while (prefix < max && previous.charAt(prefix) == id.charAt(prefix)) {
+                    prefix++;
+                }
+                if (prefix > 0 && Character.isHighSurrogate(id.charAt(prefix - 1))) {
+                    prefix--;
+                }
+                writeInt(prefix);
+                writeString(id.substring(prefix));
+                previous = id;
+            }
+        }
+
+        private void writeDuration(Duration duration) {
+            writeLong(duration.getSeconds());
+            writeLong(duration.getNano());
+        }
+
+        private void writeNullableDuration(Duration duration) {
+            writeBoolean(duration != null);
+            if (duration != null) {
+                writeDuration(duration);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        private Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        // NOTE(mmm): Every read checks that its bytes are there, so a
+        //  truncated payload fails like any other malformed one.
+        private void require(int bytes) {
+            if (bytes > buffer.length - position) {
+                throw new IllegalArgumentException("Truncated at " + position + " of " + buffer.length + " bytes");
+            }
+        }
+
+        private long readVarLong() {
+            var value = 0L;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                var b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private long readLong() {
+            var value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readInt() {
+            return Math.toIntExact(readLong());
+        }
+
+        // NOTE(mmm): Every element takes at least a byte, so a count larger
+        //  than what is left is corrupt, and allocating for it would only
+        //  waste memory.
+        private int readCount() {
+            var count = readInt();
+            if (count < 0 || count > buffer.length - position) {
+                throw new IllegalArgumentException("Malformed count " + count);
+            }
+            return count;
+        }
+
+        private boolean readBoolean() {
+            require(1);
+            return buffer[position++] != 0;
+        }
+
+        private double readDouble() {
+            require(8);
+            var value = (double) DOUBLE.get(buffer, position);
+            position += 8;
+            return value;
+        }
+
+        private byte[] readBytes(int length) {
+            require(length);
+            var bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        private double[] readDoubles() {
+            var values = new double[readCount()];
+            require(Math.multiplyExact(values.length, 8));
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readDouble();
+            }
+            return values;
+        }
+
+        private long[] readTimestamps() {
+            var timestamps = new long[readCount()];
+            var previous = 0L;
+            for (int i = 0; i < timestamps.length; i++) {
+                previous += readLong();
+                timestamps[i] = previous;
+            }
+            return timestamps;
+        }
+
+        private String readString() {
+            var length = readCount();
+            var value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private String[] readIds() {
+            var ids = new String[readCount()];
+            var previous = "";
+            for (int i = 0; i < ids.length; i++) {
+                var prefix = readInt();
+                if (prefix < 0 || prefix > previous.length()) {
+                    throw new IllegalArgumentException("Malformed prefix " + prefix);
+                }
+                var rest = readString();
+                previous = prefix == 0 ? rest : previous.substring(0, prefix) + rest;
+                ids[i] = previous;
+            }
+            return ids;
+        }
+
+        private Duration readDuration() {
+            return Duration.ofSeconds(readLong(), readLong());
+        }
+
+        private Duration readNullableDuration() {
+            return readBoolean() ? readDuration() : null;
+        }
+    }
+}
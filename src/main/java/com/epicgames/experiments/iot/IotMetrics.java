@@ -0,0 +1,407 @@
+package com.epicgames.experiments.iot;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// NOTE(mmm): Process-wide metrics of the IoT actors, shared by every actor
+//  system in the JVM. Recording a reading, a spawn or a stop costs one
+//  LongAdder increment; query durations go into a LatencyHistogram per
+//  group, once per query. Everything else is worked out when the metrics
+//  are read, over JMX (the IotMetrics and DeviceGroup beans under
+//  com.epicgames.experiments.iot) or as Prometheus text (see
+//  prometheusText() and MetricsEndpoint).
+//
+//  Nothing runs and nothing is registered with JMX until start(). From
+//  then until the matching stop(), the beans are registered, and a daemon
+//  thread works out the reading rates every TICK and halves the query
+//  durations every DECAY_TICKS ticks, so their percentiles follow the last
+//  few minutes; neither depends on how often the metrics are read. IotMain
+//  starts them along with the actor system and stops them when it
+//  terminates. Starts nest, so systems that share the JVM (as in tests)
+//  can each start and stop them.
+//
+//  Readings are counted where they are recorded: by Device actors, or by
+//  the group with Storage.OFF_HEAP and Storage.VIRTUAL. Only
+//  DeviceGroupQuery and DeviceGroupShardedQuery count as queries; answers
+//  from a table or the query cache don't. Mailbox depths come from
+//  SheddingMailbox, the default mailbox can't be looked into.
+@Slf4j
+public final class IotMetrics {
+    private static final String DOMAIN = "com.epicgames.experiments.iot";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final Duration TICK = Duration.ofSeconds(10);
+    private static final int DECAY_TICKS = 6;
+
+    private static final LongAdder DEVICES_SPAWNED = new LongAdder();
+    private static final LongAdder DEVICES_STOPPED = new LongAdder();
+    private static final LongAdder GROUPS_STARTED = new LongAdder();
+    private static final LongAdder GROUPS_STOPPED = new LongAdder();
+    private static final Map<String, Group> GROUPS = new ConcurrentHashMap<>();
+
+    private static final ObjectName TOTALS_NAME = objectName("type=IotMetrics");
+
+    // NOTE(mmm): Guarded by the IotMetrics class, like group() and
+    //  Group.release(), so a group's bean is registered exactly while both
+    //  the group and the reporting are around.
+    private static int starts;
+    private static ScheduledExecutorService ticker;
+    private static long ticks;
+
+    private IotMetrics() {
+    }
+
+    public interface TotalsMXBean {
+        long getDevicesSpawned();
+
+        long getDevicesStopped();
+
+        long getGroupsStarted();
+
+        long getGroupsStopped();
+
+        Map<String, Long> getMailboxDepths();
+
+        Map<String, Long> getMailboxShedCounts();
+    }
+
+    public interface GroupMXBean {
+        long getReadings();
+
+        double getReadingsPerSecond();
+
+        long getDevices();
+
+        long getQueries();
+
+        long getQueryTimeouts();
+
+        double getQueryTimeoutRatio();
+
+        double getQueryP50Millis();
+
+        double getQueryP99Millis();
+    }
+
+    // NOTE(mmm): The metrics of one group. The group actor gets it from
+    //  group() and hands it back with release(); it goes away with the last
+    //  holder. Groups with the same id in the same JVM share it. The group
+    //  hands it to the devices and queries it spawns, which don't hold it
+    //  themselves.
+    public static final class Group implements GroupMXBean {
+        private final String groupId;
+        private final ObjectName objectName;
+        private int holders;
+
+        private final LongAdder readings = new LongAdder();
+        private final LongAdder devices = new LongAdder();
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder queryTimeouts = new LongAdder();
+        private final LatencyHistogram queryNanos = new LatencyHistogram();
+        private long queryNanosSum;
+        private long queryNanosCount;
+
+        // NOTE(mmm): Written only by the ticker.
+        private long lastReadings;
+        private long lastTickNanos = System.nanoTime();
+        private volatile double readingsPerSecond;
+
+        private Group(String groupId) {
+            this.groupId = groupId;
+            this.objectName = objectName("type=DeviceGroup,name=" + ObjectName.quote(groupId));
+        }
+
+        void recordReadings(int count) {
+            readings.add(count);
+        }
+
+        void devicesAdded(int count) {
+            devices.add(count);
+        }
+
+        void queryCompleted(long durationNanos, boolean timedOut) {
+            queries.increment();
+            if (timedOut) {
+                queryTimeouts.increment();
+            }
+            synchronized (queryNanos) {
+                queryNanos.record(durationNanos);
+                queryNanosSum += durationNanos;
+                queryNanosCount++;
+            }
+        }
+
+        private void tick(boolean decay) {
+            var now = System.nanoTime();
+            var count = readings.sum();
+            readingsPerSecond = (count - lastReadings) * 1e9 / Math.max(1, now - lastTickNanos);
+            lastReadings = count;
+            lastTickNanos = now;
+            if (decay) {
+                synchronized (queryNanos) {
+                    queryNanos.decay();
+                }
+            }
+        }
+
+        void release() {
+            synchronized (IotMetrics.class) {
+                GROUPS.computeIfPresent(groupId, (id, group) -> {
+                    if (--group.holders > 0) {
+                        return group;
+                    }
+                    if (starts > 0) {
+                        unregister(group.objectName);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        @Override
+        public long getReadings() {
+            return readings.sum();
+        }
+
+        // NOTE(mmm): Over the last complete TICK, or 0 before the first one.
+        @Override
+        public double getReadingsPerSecond() {
+            return readingsPerSecond;
+        }
+
+        @Override
+        public long getDevices() {
+            return devices.sum();
+        }
+
+        @Override
+        public long getQueries() {
+            return queries.sum();
+        }
+
+        @Override
+        public long getQueryTimeouts() {
+            return queryTimeouts.sum();
+        }
+
+        @Override
+        public double getQueryTimeoutRatio() {
+            var count = queries.sum();
+            return count > 0 ? (double) queryTimeouts.sum() / count : 0;
+        }
+
+        @Override
+        public double getQueryP50Millis() {
+            return queryPercentileNanos(50) / 1e6;
+        }
+
+        @Override
+        public double getQueryP99Millis() {
+            return queryPercentileNanos(99) / 1e6;
+        }
+
+        private long queryPercentileNanos(double percentile) {
+            synchronized (queryNanos) {
+                return queryNanos.valueAtPercentile(percentile);
+            }
+        }
+    }
+
+    private static final class Totals implements TotalsMXBean {
+        @Override
+        public long getDevicesSpawned() {
+            return DEVICES_SPAWNED.sum();
+        }
+
+        @Override
+        public long getDevicesStopped() {
+            return DEVICES_STOPPED.sum();
+        }
+
+        @Override
+        public long getGroupsStarted() {
+            return GROUPS_STARTED.sum();
+        }
+
+        @Override
+        public long getGroupsStopped() {
+            return GROUPS_STOPPED.sum();
+        }
+
+        @Override
+        public Map<String, Long> getMailboxDepths() {
+            return SheddingMailbox.depths();
+        }
+
+        @Override
+        public Map<String, Long> getMailboxShedCounts() {
+            return SheddingMailbox.shedCounts();
+        }
+    }
+
+    private static void tick() {
+        var decay = ++ticks % DECAY_TICKS == 0;
+        GROUPS.values().forEach(group -> group.tick(decay));
+    }
+
+    // NOTE(mmm): Registers the beans and starts the ticker, unless an
+    //  earlier start() that wasn't stopped yet already did.
+    public static synchronized void start() {
+        if (starts++ > 0) {
+            return;
+        }
+
+        register(TOTALS_NAME, new Totals());
+        GROUPS.values().forEach(group -> register(group.objectName, group));
+        ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("iot-metrics").daemon().factory());
+        ticker.scheduleAtFixedRate(IotMetrics::tick, TICK.toNanos(), TICK.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // NOTE(mmm): Undoes the matching start(); the last one unregisters the
+    //  beans and stops the ticker. The counts themselves are kept.
+    public static synchronized void stop() {
+        if (starts == 0 || --starts > 0) {
+            return;
+        }
+
+        ticker.shutdownNow();
+        ticker = null;
+        GROUPS.values().forEach(group -> unregister(group.objectName));
+        unregister(TOTALS_NAME);
+    }
+
+    static synchronized Group group(String groupId) {
+        return GROUPS.compute(groupId, (id, group) -> {
+            if (group == null) {
+                group = new Group(id);
+                if (starts > 0) {
+                    register(group.objectName, group);
+                }
+            }
+            group.holders++;
+            return group;
+        });
+    }
+
+    // NOTE(mmm): Metrics for a device spawned on its own rather than by a
+    //  group. They aren't listed anywhere, so nothing reads them.
+    static Group unlisted(String groupId) {
+        return new Group(groupId);
+    }
+
+    static void groupStarted() {
+        GROUPS_STARTED.increment();
+    }
+
+    static void groupStopped() {
+        GROUPS_STOPPED.increment();
+    }
+
+    static void deviceSpawned() {
+        DEVICES_SPAWNED.increment();
+    }
+
+    static void deviceStopped() {
+        DEVICES_STOPPED.increment();
+    }
+
+    // NOTE(mmm): Every metric in the Prometheus text format, version 0.0.4.
+    public static String prometheusText() {
+        var out = new StringBuilder(4096);
+        counter(out, "iot_devices_spawned_total", "Device actors spawned.", DEVICES_SPAWNED.sum());
+        counter(out, "iot_devices_stopped_total", "Device actors stopped.", DEVICES_STOPPED.sum());
+        counter(out, "iot_groups_started_total", "Device groups started.", GROUPS_STARTED.sum());
+        counter(out, "iot_groups_stopped_total", "Device groups stopped.", GROUPS_STOPPED.sum());
+
+        var groups = new TreeMap<>(GROUPS);
+        header(out, "iot_group_readings_total", "counter", "Readings recorded in the group.");
+        groups.forEach((id, group) -> sample(out, "iot_group_readings_total", "group", id, group.readings.sum()));
+        header(out, "iot_group_devices", "gauge", "Devices tracked by the group.");
+        groups.forEach((id, group) -> sample(out, "iot_group_devices", "group", id, group.devices.sum()));
+        header(out, "iot_group_query_timeouts_total", "counter", "Group queries that timed out on some devices.");
+        groups.forEach((id, group) ->
+                sample(out, "iot_group_query_timeouts_total", "group", id, group.queryTimeouts.sum()));
+
+        header(out, "iot_group_query_duration_seconds", "summary", "Time from starting a group query to its reply.");
+        groups.forEach((id, group) -> {
+            synchronized (group.queryNanos) {
+                for (var quantile : QUANTILES) {
+                    out.append("iot_group_query_duration_seconds{group=\"").append(escape(id))
+                            .append("\",quantile=\"").append(quantile).append("\"} ")
+                            .append(group.queryNanos.valueAtPercentile(quantile * 100) / 1e9).append('\n');
+                }
+                sample(out, "iot_group_query_duration_seconds_sum", "group", id, group.queryNanosSum / 1e9);
+                sample(out, "iot_group_query_duration_seconds_count", "group", id, group.queryNanosCount);
+            }
+        });
+
+        header(out, "iot_mailbox_depth", "gauge", "Messages waiting in the shedding mailboxes.");
+        SheddingMailbox.depths().forEach((name, depth) -> sample(out, "iot_mailbox_depth", "mailbox", name, depth));
+        header(out, "iot_mailbox_shed_total", "counter", "Readings shed by the shedding mailboxes.");
+        SheddingMailbox.shedCounts().forEach((name, shed) ->
+                sample(out, "iot_mailbox_shed_total", "mailbox", name, shed));
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, Number sample) {
+        out.append(name).append('{').append(label).append("=\"").append(escape(value)).append("\"} ")
+                .append(sample).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static void register(ObjectName name, Object bean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+        } catch (JMException e) {
+            log.atWarn()
+                    .setMessage("Metrics bean not registered")
+                    .addKeyValue("name", name)
+                    .setCause(e)
+                    .log();
+        }
+    }
+
+    private static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            log.atWarn()
+                    .setMessage("Metrics bean not unregistered")
+                    .addKeyValue("name", name)
+                    .setCause(e)
+                    .log();
+        }
+    }
+}
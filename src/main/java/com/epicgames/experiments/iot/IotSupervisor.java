@@ -1,30 +1,149 @@
 package com.epicgames.experiments.iot;
 
+import org.apache.pekko.actor.Cancellable;
+import org.apache.pekko.actor.typed.ActorRef;
 import org.apache.pekko.actor.typed.Behavior;
 import org.apache.pekko.actor.typed.PostStop;
 import org.apache.pekko.actor.typed.javadsl.AbstractBehavior;
 import org.apache.pekko.actor.typed.javadsl.ActorContext;
 import org.apache.pekko.actor.typed.javadsl.Behaviors;
 import org.apache.pekko.actor.typed.javadsl.Receive;
+import scala.concurrent.ExecutionContextExecutor;
 
-public class IotSupervisor extends AbstractBehavior<Void> {
-    public static Behavior<Void> create() {
-        return Behaviors.setup(IotSupervisor::new);
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+public class IotSupervisor extends AbstractBehavior<IotSupervisor.Command> {
+    public interface Command {
+    }
+
+    private record ReplayCompleted(
+            long readings,
+            Throwable failure
+    ) implements Command {
+    }
+
+    public static Behavior<Command> create() {
+        return create(false, DeviceGroup.Settings.DEFAULT);
+    }
+
+    // NOTE(mmm): With {clustered}, device groups are sharded over the
+    //  cluster the system belongs to (see ClusterDeviceManager). If the
+    //  groups have a segment log, whatever earlier runs wrote to it is
+    //  replayed into the device manager before anything else reaches it.
+    //  The replay reads files, so it runs on the blocking-io dispatcher of
+    //  the group's DispatcherProfile, and the gateway is only bound once
+    //  it's done. So do the commits of a log that doesn't commit on its own.
+    public static Behavior<Command> create(boolean clustered, DeviceGroup.Settings groupSettings) {
+        return create(clustered, groupSettings, null);
+    }
+
+    // NOTE(mmm): If {gatewaySettings} isn't null, an IngestGateway feeds the
+    //  device manager.
+    public static Behavior<Command> create(
+            boolean clustered,
+            DeviceGroup.Settings groupSettings,
+            IngestGateway.Settings gatewaySettings
+    ) {
+        return Behaviors.setup(context -> new IotSupervisor(context, clustered, groupSettings, gatewaySettings));
     }
 
     @Override
-    public Receive<Void> createReceive() {
+    public Receive<Command> createReceive() {
         return newReceiveBuilder()
+                .onMessage(ReplayCompleted.class, this::onReplayCompleted)
                 .onSignal(PostStop.class, signal -> onPostStop())
                 .build();
     }
 
-    private IotSupervisor(ActorContext<Void> context) {
+    private static final int REPLAY_BATCH_SIZE = 1024;
+
+    private final ActorRef<DeviceManager.Command> deviceManager;
+    private final ReadingSegmentLog segmentLog;
+    private final IngestGateway.Settings gatewaySettings;
+    private final ExecutionContextExecutor blockingIo;
+    private Cancellable commits;
+
+    private IotSupervisor(
+            ActorContext<Command> context,
+            boolean clustered,
+            DeviceGroup.Settings groupSettings,
+            IngestGateway.Settings gatewaySettings
+    ) {
         super(context);
+        this.deviceManager = context.spawn(
+                clustered ? ClusterDeviceManager.create(groupSettings) : DeviceManager.create(groupSettings),
+                "device-manager",
+                groupSettings.managerProps());
+        this.segmentLog = groupSettings.segmentLog();
+        this.gatewaySettings = gatewaySettings;
+        this.blockingIo = context.getSystem().dispatchers().lookup(groupSettings.dispatchers().blockingIoSelector());
+        if (segmentLog != null) {
+            scheduleCommits();
+            replay();
+        } else {
+            bindGateway();
+        }
         context.getLog().info("IoT application started");
     }
 
-    private Behavior<Void> onPostStop() {
+    private void replay() {
+        var system = getContext().getSystem();
+        var replay = CompletableFuture.supplyAsync(() -> {
+            try {
+                return segmentLog.replay(system, deviceManager, REPLAY_BATCH_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, blockingIo);
+
+        getContext().pipeToSelf(replay, (readings, failure) ->
+                new ReplayCompleted(failure == null ? readings : 0, failure));
+    }
+
+    // NOTE(mmm): The scheduler only runs the next commit once the last one
+    //  is done, so commits never overlap.
+    private void scheduleCommits() {
+        if (segmentLog.commitsOnItsOwn()) {
+            return;
+        }
+
+        var interval = ReadingSegmentLog.DEFAULT_COMMIT_INTERVAL;
+        commits = getContext().getSystem().scheduler()
+                .scheduleWithFixedDelay(interval, interval, segmentLog::commitQuietly, blockingIo);
+    }
+
+    private Behavior<Command> onReplayCompleted(ReplayCompleted msg) {
+        if (msg.failure == null) {
+            getContext().getLog().atInfo()
+                    .setMessage("Reading log replayed")
+                    .addKeyValue("directory", segmentLog.directory())
+                    .addKeyValue("readings", msg.readings)
+                    .log();
+        } else {
+            getContext().getLog().atError()
+                    .setMessage("Reading log replay failed")
+                    .addKeyValue("directory", segmentLog.directory())
+                    .setCause(msg.failure)
+                    .log();
+        }
+        bindGateway();
+
+        return this;
+    }
+
+    private void bindGateway() {
+        if (gatewaySettings != null) {
+            IngestGateway.bind(getContext().getSystem(), deviceManager, gatewaySettings);
+        }
+    }
+
+    // NOTE(mmm): Whatever the last commit missed, close() commits.
+    private Behavior<Command> onPostStop() {
+        if (commits != null) {
+            commits.cancel();
+        }
         getContext().getLog().info("IoT application stopped");
         return this;
     }
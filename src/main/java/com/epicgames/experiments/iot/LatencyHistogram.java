@@ -0,0 +1,77 @@
+package com.epicgames.experiments.iot;
+
+// NOTE(mmm): Log-linear histogram in the spirit of HdrHistogram: every power
+//  of two is split into 8 linear sub-buckets, so any recorded value is
+//  reported within 12.5% of its true value. Fixed size, no allocation on
+//  record. Not thread-safe; it belongs to a single actor.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long total;
+
+    void record(long value) {
+        counts[bucketOf(Math.max(0, value))]++;
+        total++;
+    }
+
+    void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    // NOTE(mmm): Halves every count, so older samples weigh less than new ones.
+    void decay() {
+        total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] >>= 1;
+            total += counts[i];
+        }
+    }
+
+    long count() {
+        return total;
+    }
+
+    // NOTE(mmm): {percentile} is in [0, 100]. Returns the upper bound of the
+    //  bucket the percentile falls in, or 0 if nothing was recorded.
+    long valueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        var target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        var seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+
+        var exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        var subBucket = bucket % SUB_BUCKETS;
+        var width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + subBucket * width + width - 1;
+    }
+}
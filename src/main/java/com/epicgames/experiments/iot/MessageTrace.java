@@ -0,0 +1,149 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.cluster.sharding.typed.ShardingEnvelope;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// NOTE(mmm): The last CAPACITY spans written by every TracingMailbox in the
+//  JVM. A span is one message going through one mailbox: when it was
+//  enqueued, and when the actor took it out. Spans of the same request share
+//  its requestId, so dump() lines up the manager, the group, the devices and
+//  the query a request went through. A long wait in the manager's span is
+//  queueing; replies that reach the query long after it started are fan-out.
+//
+//  Only messages that carry a requestId are traced, and only for the
+//  requests sampled(): whether a request is sampled depends on its requestId
+//  alone, which every message of the request carries, so every mailbox
+//  with the same {sample-every} traces the same requests without telling
+//  each other. A query asks its devices under the requestId it was started
+//  with, so the device tier has a span per device, and the query one per
+//  reply. Groups run their cached fan-out queries under a requestId of
+//  their own, which doesn't match the caller's.
+//
+//  Replies that go through a message adapter reach the mailbox wrapped in
+//  one of Pekko's internal messages, whose requestId isn't looked for, so
+//  they aren't traced. Device replies reach DeviceGroupQuery without one.
+public final class MessageTrace {
+    static final int CAPACITY = 1 << 16;
+
+    // NOTE(mmm): Messages without a requestId. Long.MIN_VALUE is a valid
+    //  requestId too, it just never gets traced.
+    static final long NO_REQUEST_ID = Long.MIN_VALUE;
+
+    private static final AtomicReferenceArray<Span> SPANS = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    private MessageTrace() {
+    }
+
+    public record Span(
+            long requestId,
+            String tier,
+            String actor,
+            String message,
+            long enqueuedNanos,
+            long dequeuedNanos
+    ) {
+        public long queuedNanos() {
+            return dequeuedNanos - enqueuedNanos;
+        }
+    }
+
+    static boolean sampled(long requestId, int sampleEvery) {
+        return requestId != NO_REQUEST_ID && Long.remainderUnsigned(mix(requestId), sampleEvery) == 0;
+    }
+
+    static void record(long requestId, String tier, String actor, Object message, long enqueuedNanos) {
+        var unwrapped = unwrap(message);
+        var name = unwrapped != null ? unwrapped.getClass().getSimpleName() : "null";
+        var span = new Span(requestId, tier, actor, name, enqueuedNanos, System.nanoTime());
+        SPANS.set((int) (NEXT.getAndIncrement() & (CAPACITY - 1)), span);
+    }
+
+    // NOTE(mmm): Spans still in the buffer, oldest first.
+    public static List<Span> dump() {
+        var next = NEXT.get();
+        var spans = new ArrayList<Span>(CAPACITY);
+        for (var i = Math.max(0, next - CAPACITY); i < next; i++) {
+            var span = SPANS.get((int) (i & (CAPACITY - 1)));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        spans.sort(Comparator.comparingLong(Span::enqueuedNanos));
+        return spans;
+    }
+
+    public static List<Span> dump(long requestId) {
+        return dump().stream().filter(span -> span.requestId == requestId).toList();
+    }
+
+    // NOTE(mmm): dump() as text, a block per request. Each line is a span:
+    //  when its message was enqueued, counted from the first span of the
+    //  request, and how long it waited in the mailbox, both in microseconds.
+    public static String dumpText() {
+        var byRequest = new LinkedHashMap<Long, List<Span>>();
+        for (var span : dump()) {
+            byRequest.computeIfAbsent(span.requestId, id -> new ArrayList<>()).add(span);
+        }
+
+        var out = new StringBuilder(4096);
+        byRequest.forEach((requestId, spans) -> {
+            var start = spans.get(0).enqueuedNanos;
+            out.append("request ").append(requestId).append('\n');
+            for (var span : spans) {
+                out.append(String.format("  +%10.1f us  queued %10.1f us  %-8s %s %s%n",
+                        (span.enqueuedNanos - start) / 1e3, span.queuedNanos() / 1e3,
+                        span.tier, span.actor, span.message));
+            }
+        });
+        return out.toString();
+    }
+
+    public static void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            SPANS.set(i, null);
+        }
+    }
+
+    static long requestIdOf(Object message) {
+        return switch (unwrap(message)) {
+            case null -> NO_REQUEST_ID;
+            case DeviceManager.RequestTrackDevice msg -> msg.requestId();
+            case DeviceManager.RequestAllDevices msg -> msg.requestId();
+            case DeviceManager.RequestAllTemperatures msg -> msg.requestId();
+            case DeviceManager.RequestQuorumTemperatures msg -> msg.requestId();
+            case DeviceManager.RequestTemperatureStream msg -> msg.requestId();
+            case DeviceManager.RecordTemperatures msg -> msg.requestId();
+            case Device.RecordTemperature msg -> msg.requestId();
+            case Device.RecordTemperatureNoReply msg -> msg.requestId();
+            case Device.RecordTemperatureCumulativeAck msg -> msg.requestId();
+            case Device.RecordTemperatures msg -> msg.requestId();
+            case Device.RecordTemperatureSlice msg -> msg.requestId();
+            case Device.ReadTemperature msg -> msg.requestId();
+            case Device.Temperature msg -> msg.requestId();
+            case Device.ReadTemperatureStats msg -> msg.requestId();
+            case DeviceGroup.SlotCommand msg -> requestIdOf(msg.command());
+            default -> NO_REQUEST_ID;
+        };
+    }
+
+    // NOTE(mmm): Groups get their messages in a ShardingEnvelope when they
+    //  are sharded.
+    private static Object unwrap(Object message) {
+        return message instanceof ShardingEnvelope<?> envelope ? envelope.message() : message;
+    }
+
+    // NOTE(mmm): Stafford's mix13, so consecutive requestIds don't all land on
+    //  the same side of the sample.
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
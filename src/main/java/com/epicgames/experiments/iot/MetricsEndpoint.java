@@ -0,0 +1,54 @@
+package com.epicgames.experiments.iot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// NOTE(mmm): Serves IotMetrics.prometheusText() at /metrics, for a local
+//  Prometheus to scrape, and MessageTrace.dumpText() at /traces. Every
+//  request runs on a virtual thread of its own, away from the actors'
+//  dispatchers. Stop it with HttpServer.stop().
+@Slf4j
+public final class MetricsEndpoint {
+    public static final int DEFAULT_PORT = 9464;
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String TRACES_CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    private MetricsEndpoint() {
+    }
+
+    public static HttpServer start(InetSocketAddress address) throws IOException {
+        var server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> serve(exchange, CONTENT_TYPE, IotMetrics::prometheusText));
+        server.createContext("/traces", exchange -> serve(exchange, TRACES_CONTENT_TYPE, MessageTrace::dumpText));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+
+        log.atInfo()
+                .setMessage("Metrics endpoint started")
+                .addKeyValue("address", server.getAddress())
+                .log();
+        return server;
+    }
+
+    private static void serve(HttpExchange exchange, String contentType, Supplier<String> text) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            var body = text.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.epicgames.experiments.iot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// NOTE(mmm): Latest reading of every device in a group, stored column-wise
+//  in direct (off-heap) buffers and indexed by a dense device slot. A slot
+//  whose timestamp is NO_READING has no temperature yet. Only the owning
+//  DeviceGroup actor touches it, so there is no synchronization.
+final class OffHeapReadings {
+    static final long NO_READING = Long.MIN_VALUE;
+
+    private ByteBuffer values;
+    private ByteBuffer timestamps;
+    private int capacity;
+
+    OffHeapReadings(int initialCapacity) {
+        this.capacity = Math.max(1, initialCapacity);
+        this.values = allocate(capacity);
+        this.timestamps = allocate(capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    void ensureCapacity(int slots) {
+        if (slots <= capacity) {
+            return;
+        }
+
+        var newCapacity = Math.max(slots, capacity * 2);
+        values = grow(values, newCapacity);
+        timestamps = grow(timestamps, newCapacity);
+        capacity = newCapacity;
+    }
+
+    void clear(int slot) {
+        timestamps.putLong(slot * Long.BYTES, NO_READING);
+    }
+
+    void put(int slot, long timestamp, double value) {
+        values.putDouble(slot * Double.BYTES, value);
+        timestamps.putLong(slot * Long.BYTES, timestamp);
+    }
+
+    boolean hasReading(int slot) {
+        return timestamp(slot) != NO_READING;
+    }
+
+    long timestamp(int slot) {
+        return timestamps.getLong(slot * Long.BYTES);
+    }
+
+    double value(int slot) {
+        return values.getDouble(slot * Double.BYTES);
+    }
+
+    private static ByteBuffer allocate(int slots) {
+        return ByteBuffer.allocateDirect(slots * Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int slots) {
+        var grown = allocate(slots);
+        grown.put(0, buffer, 0, buffer.capacity());
+        return grown;
+    }
+}
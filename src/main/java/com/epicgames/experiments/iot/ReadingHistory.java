@@ -0,0 +1,89 @@
+package com.epicgames.experiments.iot;
+
+import java.util.Arrays;
+
+// NOTE(mmm): Fixed-size ring buffer of (timestamp, value) pairs. Once full,
+//  the oldest reading is overwritten. Aggregates are computed straight off
+//  the primitive arrays; percentiles sort a copy of the window in a scratch
+//  array that is allocated once, on the first percentile query.
+final class ReadingHistory {
+    private final long[] timestamps;
+    private final double[] values;
+    private double[] scratch;
+    private int head;
+    private int size;
+
+    ReadingHistory(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long timestamp, double value) {
+        if (values.length == 0) {
+            return;
+        }
+
+        timestamps[head] = timestamp;
+        values[head] = value;
+        head = (head + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    Device.TemperatureStats stats(long requestId, String deviceId, long since, double[] percentiles) {
+        var count = 0;
+        var min = Double.POSITIVE_INFINITY;
+        var max = Double.NEGATIVE_INFINITY;
+        var sum = 0.0;
+
+        var needsScratch = percentiles.length > 0;
+        if (needsScratch && scratch == null) {
+            scratch = new double[values.length];
+        }
+
+        var start = head - size;
+        if (start < 0) {
+            start += values.length;
+        }
+        for (int n = 0, i = start; n < size; n++, i = (i + 1) % values.length) {
+            if (timestamps[i] < since) {
+                continue;
+            }
+
+            var value = values[i];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            if (needsScratch) {
+                scratch[count] = value;
+            }
+            count++;
+        }
+
+        var results = new double[percentiles.length];
+        if (count == 0) {
+            Arrays.fill(results, Double.NaN);
+            return new Device.TemperatureStats(requestId, deviceId, 0, Double.NaN, Double.NaN, Double.NaN, results);
+        }
+
+        if (needsScratch) {
+            Arrays.sort(scratch, 0, count);
+            for (int i = 0; i < percentiles.length; i++) {
+                // NOTE(mmm): Nearest-rank percentile, {percentiles} are in [0, 100].
+                var rank = (int) Math.ceil(percentiles[i] / 100.0 * count);
+                results[i] = scratch[Math.min(Math.max(rank - 1, 0), count - 1)];
+            }
+        }
+
+        return new Device.TemperatureStats(requestId, deviceId, count, min, max, sum / count, results);
+    }
+}
@@ -0,0 +1,93 @@
+package com.epicgames.experiments.iot;
+
+import org.slf4j.Logger;
+
+// NOTE(mmm): Logging for the Device hot path. Every method bails out before
+//  touching the logging API if INFO is off, so nothing is boxed and no event
+//  builder is created. The logger is captured once because the actor
+//  context's getLog() updates the MDC every time it is called.
+final class ReadingLog {
+    private final Logger log;
+    private final Device.ReadingLogMode mode;
+    private final int sampleEvery;
+    private final long intervalNanos;
+
+    private long count;
+    private long windowStartNanos = System.nanoTime();
+    private double lastValue;
+
+    ReadingLog(Logger log, Device.Settings settings) {
+        this.log = log;
+        this.mode = settings.readingLogMode();
+        this.sampleEvery = Math.max(1, settings.readingLogSampleEvery());
+        this.intervalNanos = settings.readingLogInterval().toNanos();
+    }
+
+    void record(long requestId, double value) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+
+        switch (mode) {
+            case EVERY -> logReading(requestId, value);
+            case SAMPLED -> {
+                if (++count >= sampleEvery) {
+                    count = 0;
+                    logReading(requestId, value);
+                }
+            }
+            case AGGREGATED -> aggregate(1, value);
+        }
+    }
+
+    void recordBatch(long requestId, int size, double lastValue) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+
+        switch (mode) {
+            case EVERY, SAMPLED -> log.atInfo()
+                    .setMessage("Temperature readings recorded")
+                    .addKeyValue("requestId", requestId)
+                    .addKeyValue("count", size)
+                    .log();
+            case AGGREGATED -> aggregate(size, lastValue);
+        }
+    }
+
+    void flush() {
+        if (mode == Device.ReadingLogMode.AGGREGATED && count > 0 && log.isInfoEnabled()) {
+            logAggregate(System.nanoTime());
+        }
+    }
+
+    private void logReading(long requestId, double value) {
+        log.atInfo()
+                .setMessage("Temperature reading recorded")
+                .addKeyValue("requestId", requestId)
+                .addKeyValue("value", value)
+                .log();
+    }
+
+    private void aggregate(int size, double value) {
+        count += size;
+        lastValue = value;
+
+        var now = System.nanoTime();
+        if (now - windowStartNanos >= intervalNanos) {
+            logAggregate(now);
+        }
+    }
+
+    private void logAggregate(long now) {
+        log.atInfo()
+                .setMessage("Temperature readings recorded")
+                .addKeyValue("count", count)
+                .addKeyValue("intervalMillis", (now - windowStartNanos) / 1_000_000)
+                .addKeyValue("lastValue", lastValue)
+                .log();
+
+        count = 0;
+        windowStartNanos = now;
+    }
+}
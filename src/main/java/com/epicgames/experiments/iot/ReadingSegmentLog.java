@@ -0,0 +1,523 @@
+package com.epicgames.experiments.iot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.ActorSystem;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NOTE(mmm): Raw, append-only record of the readings that reach device
+//  groups, kept in {directory}. Readings go into fixed-width segment files,
+//  written through a MappedByteBuffer:
+//
+//      int key + 1 | int (unused) | long timestamp | double value
+//
+//  A key stands for a (groupId, deviceId) pair. Keys are numbered in the
+//  order they were first seen and written to a separate keys file. A key of
+//  0 marks a record that was never written, since segments are zero-filled
+//  when they are mapped. A segment holds {segmentRecords} readings; the next
+//  one is started when it is full.
+//
+//  On open, the segments of earlier runs are folded into a single
+//  checkpoint segment that keeps the readings of the last {retention}
+//  (counted back from the newest reading) plus the latest reading of every
+//  key, and the segments it replaces are deleted. replay() only ever reads
+//  that checkpoint, so neither the files nor the replay grow with the
+//  number of runs.
+//
+//  append() only writes to memory. commit() makes everything appended so
+//  far durable (keys first, then the segments), and runs every
+//  {commitInterval}, so many appends share one fsync. A crash loses at most
+//  the last {commitInterval} of readings. The log commits on a background
+//  thread of its own, unless {commitInterval} is zero, in which case
+//  whoever owns it schedules the commits (IotSupervisor runs them on the
+//  blocking-io dispatcher, next to the replay).
+//
+//  Thread-safe: every group of a DeviceManager appends to the same log.
+//  append() takes no lock for a key it has seen before: it reserves its
+//  record with one atomic increment and writes it in place. Only new keys
+//  and starting a segment are serialized.
+@Slf4j
+public final class ReadingSegmentLog implements AutoCloseable {
+    public static final int RECORD_BYTES = 24;
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+    public static final Duration DEFAULT_RETENTION = Duration.ofHours(1);
+    public static final Duration DEFAULT_COMMIT_INTERVAL = Duration.ofMillis(10);
+
+    private static final String KEYS_FILE = "keys.dat";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_SUFFIX = ".tmp";
+
+    // NOTE(mmm): The key of a record, written with release semantics (see
+    //  append()). Big-endian like the rest of the buffer.
+    private static final VarHandle KEY = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final ScheduledExecutorService committer;
+
+    // NOTE(mmm): Written under the keys lock, read without it.
+    private final Map<String, Map<String, Integer>> keyByDeviceByGroup = new ConcurrentHashMap<>();
+    private int keyCount;
+    private final FileChannel keysChannel;
+    private final DataOutputStream keys;
+
+    // NOTE(mmm): Segments before {firstSegment} were written by earlier
+    //  runs (only the checkpoint is left of them), and are the ones replay()
+    //  reads. Record n of this run goes in segment firstSegment + n /
+    //  segmentRecords. Segments that are no longer the current one stay in
+    //  {sealed} until every record in them is written and forced.
+    private final long firstSegment;
+    private final AtomicLong nextRecord = new AtomicLong();
+    private final Object segmentLock = new Object();
+    private volatile Segment segment;
+    private final List<Segment> sealed = new ArrayList<>();
+    private volatile boolean dirty;
+
+    private ReadingSegmentLog(Path directory, int segmentRecords, Duration commitInterval, Duration retention)
+            throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+
+        Files.createDirectories(directory);
+
+        var keysPath = directory.resolve(KEYS_FILE);
+        this.keysChannel = FileChannel.open(
+                keysPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var validLength = readKeys(keysPath, (groupId, deviceId) -> intern(groupId, deviceId));
+        keysChannel.truncate(validLength);
+        keysChannel.position(validLength);
+        this.keys = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(keysChannel)));
+
+        this.firstSegment = checkpoint(retention.toMillis());
+        this.segment = new Segment(firstSegment, mapSegment(firstSegment));
+
+        if (commitInterval.isZero()) {
+            this.committer = null;
+            return;
+        }
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "reading-log-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var intervalNanos = commitInterval.toNanos();
+        committer.scheduleWithFixedDelay(this::commitQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static ReadingSegmentLog open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_RECORDS, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    public static ReadingSegmentLog open(Path directory, int segmentRecords, Duration commitInterval)
+            throws IOException {
+        return open(directory, segmentRecords, commitInterval, DEFAULT_RETENTION);
+    }
+
+    public static ReadingSegmentLog open(
+            Path directory,
+            int segmentRecords,
+            Duration commitInterval,
+            Duration retention
+    ) throws IOException {
+        return new ReadingSegmentLog(directory, segmentRecords, commitInterval, retention);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    // NOTE(mmm): The key goes in last, with a release store, so whoever
+    //  sees it (a force() from the committer, and so the disk after a crash)
+    //  also sees the rest of the record. Plain puts could be reordered past
+    //  it.
+    public void append(String groupId, String deviceId, long timestamp, double value) {
+        try {
+            var key = keyOf(groupId, deviceId);
+            var record = nextRecord.getAndIncrement();
+            var segment = segmentOf(firstSegment + record / segmentRecords);
+            var offset = (int) (record % segmentRecords) * RECORD_BYTES;
+            segment.buffer
+                    .putLong(offset + 8, timestamp)
+                    .putDouble(offset + 16, value);
+            KEY.setRelease(segment.buffer, offset, key + 1);
+            segment.written.incrementAndGet();
+            dirty = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // NOTE(mmm): Makes everything appended so far durable. Unless the log
+    //  was opened without a committer, it runs on its own every
+    //  {commitInterval}, and there is rarely a reason to call it directly.
+    public void commit() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        synchronized (keys) {
+            keys.flush();
+        }
+        keysChannel.force(false);
+
+        List<Segment> toForce;
+        synchronized (segmentLock) {
+            toForce = new ArrayList<>(sealed);
+            toForce.add(segment);
+        }
+        for (var unforced : toForce) {
+            var complete = unforced.written.get() == segmentRecords;
+            unforced.buffer.force();
+            if (complete && unforced != segment) {
+                synchronized (segmentLock) {
+                    sealed.remove(unforced);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (committer != null) {
+            committer.shutdown();
+        }
+        try {
+            commit();
+            synchronized (keys) {
+                keys.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // NOTE(mmm): Sends the readings earlier runs left (what the checkpoint
+    //  kept of them) to {manager}: each device is tracked the first time it
+    //  shows up, and its readings follow in RecordTemperatures of up to
+    //  {batchSize} samples, marked as a replay so that the groups don't
+    //  append them again. Replies are dropped. Returns how many readings
+    //  were sent.
+    public long replay(ActorSystem<?> system, ActorRef<DeviceManager.Command> manager, int batchSize)
+            throws IOException {
+        var keyList = new ArrayList<String[]>();
+        readKeys(directory.resolve(KEYS_FILE), (groupId, deviceId) -> keyList.add(new String[]{groupId, deviceId}));
+
+        var tracked = new boolean[keyList.size()];
+        var batchByGroup = new HashMap<String, ReplayBatch>();
+        var count = 0L;
+        for (var path : listSegments(directory)) {
+            if (segmentIndexOf(path) >= firstSegment) {
+                break;
+            }
+
+            var buffer = readSegment(path);
+            while (buffer.remaining() >= RECORD_BYTES) {
+                var key = buffer.getInt() - 1;
+                buffer.getInt();
+                var timestamp = buffer.getLong();
+                var value = buffer.getDouble();
+                if (key < 0 || key >= keyList.size()) {
+                    // NOTE(mmm): Never written, or its key didn't make it to disk.
+                    continue;
+                }
+
+                var groupId = keyList.get(key)[0];
+                var deviceId = keyList.get(key)[1];
+                if (!tracked[key]) {
+                    tracked[key] = true;
+                    manager.tell(new DeviceManager.RequestTrackDevice(key, groupId, deviceId, system.ignoreRef()));
+                }
+
+                var batch = batchByGroup.computeIfAbsent(groupId, id -> new ReplayBatch(batchSize));
+                batch.add(deviceId, timestamp, value);
+                if (batch.size == batchSize) {
+                    batch.send(count, groupId, system, manager);
+                }
+                count++;
+            }
+        }
+
+        for (var entry : batchByGroup.entrySet()) {
+            if (entry.getValue().size > 0) {
+                entry.getValue().send(count, entry.getKey(), system, manager);
+            }
+        }
+
+        return count;
+    }
+
+    private int keyOf(String groupId, String deviceId) throws IOException {
+        var keyByDevice = keyByDeviceByGroup.get(groupId);
+        var key = keyByDevice != null ? keyByDevice.get(deviceId) : null;
+        if (key != null) {
+            return key;
+        }
+
+        synchronized (keys) {
+            keyByDevice = keyByDeviceByGroup.get(groupId);
+            key = keyByDevice != null ? keyByDevice.get(deviceId) : null;
+            if (key != null) {
+                return key;
+            }
+
+            keys.writeUTF(groupId);
+            keys.writeUTF(deviceId);
+            return intern(groupId, deviceId);
+        }
+    }
+
+    private int intern(String groupId, String deviceId) {
+        var key = keyCount++;
+        keyByDeviceByGroup.computeIfAbsent(groupId, id -> new ConcurrentHashMap<>()).put(deviceId, key);
+        return key;
+    }
+
+    // NOTE(mmm): A writer can reserve a record in the next segment before it
+    //  is mapped, or get to write a record in the previous one after the
+    //  next was mapped; both take the lock, the common case doesn't.
+    private Segment segmentOf(long index) throws IOException {
+        var current = segment;
+        if (current.index == index) {
+            return current;
+        }
+
+        synchronized (segmentLock) {
+            while (segment.index < index) {
+                sealed.add(segment);
+                segment = new Segment(segment.index + 1, mapSegment(segment.index + 1));
+            }
+            if (segment.index == index) {
+                return segment;
+            }
+            for (var older : sealed) {
+                if (older.index == index) {
+                    return older;
+                }
+            }
+        }
+        throw new IllegalStateException("Segment " + index + " was already forced");
+    }
+
+    // NOTE(mmm): Folds the segments of earlier runs into one checkpoint
+    //  segment, and returns the index of the first segment for this run.
+    //  The checkpoint is written under a temporary name and renamed once it
+    //  is durable, so a crash leaves either the old segments or the
+    //  checkpoint (plus old segments that are then folded in again, which
+    //  only repeats readings that are already there).
+    private long checkpoint(long retentionMillis) throws IOException {
+        Files.deleteIfExists(directory.resolve(SEGMENT_PREFIX + CHECKPOINT_SUFFIX));
+        var segments = listSegments(directory);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+
+        var latest = new long[keyCount];
+        Arrays.fill(latest, Long.MIN_VALUE);
+        var newest = Long.MIN_VALUE;
+        for (var path : segments) {
+            var buffer = readSegment(path);
+            while (buffer.remaining() >= RECORD_BYTES) {
+                var key = buffer.getInt() - 1;
+                buffer.getInt();
+                var timestamp = buffer.getLong();
+                buffer.getDouble();
+                if (key >= 0 && key < keyCount) {
+                    latest[key] = Math.max(latest[key], timestamp);
+                    newest = Math.max(newest, timestamp);
+                }
+            }
+        }
+
+        var cutoff = newest - retentionMillis;
+        var kept = new boolean[keyCount];
+        var tmp = directory.resolve(SEGMENT_PREFIX + CHECKPOINT_SUFFIX);
+        var out = ByteBuffer.allocate(RECORD_BYTES * 4096);
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (var path : segments) {
+                var buffer = readSegment(path);
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    var key = buffer.getInt() - 1;
+                    buffer.getInt();
+                    var timestamp = buffer.getLong();
+                    var value = buffer.getDouble();
+                    if (key < 0 || key >= keyCount) {
+                        continue;
+                    }
+                    if (timestamp < cutoff && (timestamp != latest[key] || kept[key])) {
+                        continue;
+                    }
+
+                    kept[key] |= timestamp == latest[key];
+                    if (!out.hasRemaining()) {
+                        out.flip();
+                        channel.write(out);
+                        out.clear();
+                    }
+                    out.putInt(key + 1).putInt(0).putLong(timestamp).putDouble(value);
+                }
+            }
+            out.flip();
+            channel.write(out);
+            channel.force(false);
+        }
+
+        var checkpointIndex = segmentIndexOf(segments.getLast()) + 1;
+        Files.move(tmp, segmentPath(checkpointIndex), StandardCopyOption.ATOMIC_MOVE);
+        for (var path : segments) {
+            Files.delete(path);
+        }
+
+        return checkpointIndex + 1;
+    }
+
+    private static MappedByteBuffer readSegment(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private MappedByteBuffer mapSegment(long index) throws IOException {
+        try (var channel = FileChannel.open(
+                segmentPath(index), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_BYTES);
+        }
+    }
+
+    boolean commitsOnItsOwn() {
+        return committer != null;
+    }
+
+    void commitQuietly() {
+        try {
+            commit();
+        } catch (IOException e) {
+            log.atError()
+                    .setMessage("Reading log commit failed")
+                    .addKeyValue("directory", directory)
+                    .setCause(e)
+                    .log();
+        }
+    }
+
+    private interface KeyConsumer {
+        void accept(String groupId, String deviceId);
+    }
+
+    // NOTE(mmm): Returns the length of the keys that were read in full. A
+    //  crash can leave half a key at the end, which is cut off on open.
+    private static long readKeys(Path keysPath, KeyConsumer consumer) throws IOException {
+        if (!Files.exists(keysPath)) {
+            return 0;
+        }
+
+        var bytes = Files.readAllBytes(keysPath);
+        var in = new DataInputStream(new ByteArrayInputStream(bytes));
+        var validLength = 0L;
+        try {
+            while (true) {
+                var groupId = in.readUTF();
+                var deviceId = in.readUTF();
+                consumer.accept(groupId, deviceId);
+                validLength = bytes.length - in.available();
+            }
+        } catch (EOFException e) {
+            return validLength;
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files
+                    .filter(path -> {
+                        var name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long segmentIndexOf(Path path) {
+        var name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        private final long index;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger written = new AtomicInteger();
+
+        private Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class ReplayBatch {
+        private final String[] deviceIds;
+        private final double[] values;
+        private final long[] timestamps;
+        private int size;
+
+        private ReplayBatch(int capacity) {
+            this.deviceIds = new String[capacity];
+            this.values = new double[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        private void add(String deviceId, long timestamp, double value) {
+            deviceIds[size] = deviceId;
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        private void send(long requestId, String groupId, ActorSystem<?> system, ActorRef<DeviceManager.Command> manager) {
+            manager.tell(new DeviceManager.RecordTemperatures(
+                    requestId,
+                    groupId,
+                    Arrays.copyOf(deviceIds, size),
+                    Arrays.copyOf(values, size),
+                    Arrays.copyOf(timestamps, size),
+                    system.ignoreRef(),
+                    true));
+            size = 0;
+        }
+    }
+}
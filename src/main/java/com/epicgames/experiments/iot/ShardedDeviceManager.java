@@ -0,0 +1,49 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.javadsl.ActorContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// NOTE(mmm): Front-end for several DeviceManager actors, each owning the
+//  groups whose groupId hashes to it. Routing is a pure function of the
+//  groupId over an immutable list of refs, so any thread can call tell()
+//  without going through a shared actor, and a group always lands on the
+//  same manager.
+public final class ShardedDeviceManager {
+    private final List<ActorRef<DeviceManager.Command>> shards;
+
+    public ShardedDeviceManager(List<ActorRef<DeviceManager.Command>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one DeviceManager shard is required");
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    public static ShardedDeviceManager spawn(
+            ActorContext<?> context,
+            int shardCount,
+            DeviceGroup.Settings groupSettings
+    ) {
+        var shards = new ArrayList<ActorRef<DeviceManager.Command>>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(context.spawn(
+                    DeviceManager.create(groupSettings), "device-manager-" + i, groupSettings.managerProps()));
+        }
+        return new ShardedDeviceManager(shards);
+    }
+
+    public void tell(DeviceManager.GroupCommand msg) {
+        shardFor(msg.groupId()).tell(msg);
+    }
+
+    public ActorRef<DeviceManager.Command> shardFor(String groupId) {
+        var h = groupId.hashCode() * 0x9E3779B9;
+        return shards.get(Integer.remainderUnsigned(h ^ (h >>> 16), shards.size()));
+    }
+
+    public List<ActorRef<DeviceManager.Command>> shards() {
+        return shards;
+    }
+}
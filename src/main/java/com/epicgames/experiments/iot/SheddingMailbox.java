@@ -0,0 +1,328 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.Config;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.apache.pekko.actor.DeadLetter;
+import org.apache.pekko.dispatch.Envelope;
+import org.apache.pekko.dispatch.MailboxType;
+import org.apache.pekko.dispatch.MessageQueue;
+import org.apache.pekko.dispatch.ProducesMessageQueue;
+import scala.Option;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// NOTE(mmm): Mailbox for Device and DeviceGroup actors (see mailboxes.conf)
+//  that holds at most {capacity} readings. Readings are the Record*
+//  commands, from clients or through a DeviceHandle. Everything else goes
+//  into a separate control queue that is always drained first, so a query
+//  doesn't wait behind a backlog of readings. Queries can therefore miss
+//  readings that were sent before them. A Passivate that jumps ahead of
+//  readings can lose them to dead letters, which is the price of letting it
+//  through.
+//
+//  Of the control messages, only queries from outside the actor tree
+//  (ReadTemperature, ReadTemperatureStats and the group-wide requests) are
+//  bounded: past {query-capacity} of them, they go to dead letters and count
+//  as shed. Lifecycle and internal messages
+//  (tracking, Passivate, Stop, Terminated notifications, timers, replies
+//  from queries and journals) and readings replayed from a
+//  ReadingSegmentLog are never shed, since dropping them would leave the
+//  actor's state wrong or lose logged readings.
+//
+//  Once the readings queue is full, {policy} decides what gets shed:
+//
+//  - drop-oldest drops the oldest queued reading.
+//  - keep-latest overwrites the newest queued reading of the same device
+//    (the same slot, in a group's mailbox) in place, so the device keeps its
+//    newest value. Batches, and readings whose device has nothing queued,
+//    drop the oldest instead.
+//  - reject turns the new reading away.
+//
+//  A shed reading that asked for an ack gets one marked busy instead, so
+//  the sender can tell it apart from a recorded one and back off. Sheds, and
+//  the messages waiting in all mailboxes of the same {name}, are counted per
+//  {name} (see shedCounts() and depths()).
+public final class SheddingMailbox implements MailboxType, ProducesMessageQueue<SheddingMailbox.SheddingMessageQueue> {
+    public enum Policy {
+        DROP_OLDEST,
+        KEEP_LATEST,
+        REJECT
+    }
+
+    private static final Map<String, Counters> COUNTERS_BY_NAME = new ConcurrentHashMap<>();
+
+    // NOTE(mmm): keep-latest key of the readings in a Device's own mailbox,
+    //  which are all for the same device.
+    private static final Object OWN_DEVICE = new Object();
+
+    private final Policy policy;
+    private final int capacity;
+    private final int queryCapacity;
+    private final Counters counters;
+
+    private record Counters(
+            LongAdder shed,
+            LongAdder depth
+    ) {
+    }
+
+    public SheddingMailbox(ActorSystem.Settings settings, Config config) {
+        this.policy = Policy.valueOf(config.getString("policy").toUpperCase(Locale.ROOT).replace('-', '_'));
+        this.capacity = config.getInt("capacity");
+        this.queryCapacity = config.getInt("query-capacity");
+        this.counters = COUNTERS_BY_NAME.computeIfAbsent(
+                config.getString("name"), name -> new Counters(new LongAdder(), new LongAdder()));
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be above 0");
+        }
+        if (queryCapacity <= 0) {
+            throw new IllegalArgumentException("query-capacity must be above 0");
+        }
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        return new SheddingMessageQueue(
+                policy, capacity, queryCapacity, system.get().deadLetters(), counters.shed, counters.depth);
+    }
+
+    // NOTE(mmm): Readings shed so far by every SheddingMailbox, by name.
+    public static Map<String, Long> shedCounts() {
+        var counts = new TreeMap<String, Long>();
+        COUNTERS_BY_NAME.forEach((name, counters) -> counts.put(name, counters.shed.sum()));
+        return counts;
+    }
+
+    // NOTE(mmm): Messages waiting in every SheddingMailbox right now, by name.
+    public static Map<String, Long> depths() {
+        var depths = new TreeMap<String, Long>();
+        COUNTERS_BY_NAME.forEach((name, counters) -> depths.put(name, counters.depth.sum()));
+        return depths;
+    }
+
+    static final class SheddingMessageQueue implements MessageQueue {
+        private final Policy policy;
+        private final int capacity;
+        private final int queryCapacity;
+        private final ActorRef deadLetters;
+        private final LongAdder shed;
+        private final LongAdder depth;
+
+        // NOTE(mmm): Both queues are polled by producers too (drop-oldest
+        //  makes room from the enqueueing thread), so they have to be safe
+        //  for many consumers, not just the actor's. The sizes are kept apart
+        //  because ConcurrentLinkedQueue.size() walks the whole queue;
+        //  queriesSize counts the queries among the control messages.
+        private final ConcurrentLinkedQueue<Envelope> control = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Reading> readings = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger controlSize = new AtomicInteger();
+        private final AtomicInteger queriesSize = new AtomicInteger();
+        private final AtomicInteger readingsSize = new AtomicInteger();
+        private final Map<Object, Reading> latestByDevice;
+
+        SheddingMessageQueue(
+                Policy policy, int capacity, int queryCapacity, ActorRef deadLetters, LongAdder shed, LongAdder depth) {
+            this.policy = policy;
+            this.capacity = capacity;
+            this.queryCapacity = queryCapacity;
+            this.deadLetters = deadLetters;
+            this.shed = shed;
+            this.depth = depth;
+            this.latestByDevice = policy == Policy.KEEP_LATEST ? new ConcurrentHashMap<>() : null;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            if (!isReading(handle.message())) {
+                if (isQuery(handle.message()) && queriesSize.incrementAndGet() > queryCapacity) {
+                    queriesSize.decrementAndGet();
+                    shed.increment();
+                    deadLetters.tell(new DeadLetter(handle.message(), handle.sender(), receiver), handle.sender());
+                    return;
+                }
+                controlSize.incrementAndGet();
+                control.add(handle);
+                depth.increment();
+                return;
+            }
+            if (readingsSize.incrementAndGet() <= capacity) {
+                add(handle);
+                depth.increment();
+                return;
+            }
+            readingsSize.decrementAndGet();
+
+            var dropped = switch (policy) {
+                case DROP_OLDEST -> dropOldestAndAdd(receiver, handle);
+                case KEEP_LATEST -> {
+                    var device = deviceOf(handle.message());
+                    var queued = device != null ? latestByDevice.get(device) : null;
+                    var previous = queued != null ? queued.replace(handle) : null;
+                    yield previous != null ? previous : dropOldestAndAdd(receiver, handle);
+                }
+                case REJECT -> handle;
+            };
+
+            if (dropped != null) {
+                shed.increment();
+                replyBusy(dropped.message());
+            }
+        }
+
+        @Override
+        public Envelope dequeue() {
+            var envelope = control.poll();
+            if (envelope != null) {
+                controlSize.decrementAndGet();
+                if (isQuery(envelope.message())) {
+                    queriesSize.decrementAndGet();
+                }
+                depth.decrement();
+                return envelope;
+            }
+
+            var reading = readings.poll();
+            if (reading == null) {
+                return null;
+            }
+            readingsSize.decrementAndGet();
+            depth.decrement();
+            forget(reading);
+            return reading.take();
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return controlSize.get() + readingsSize.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !control.isEmpty() || !readings.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            for (var envelope = dequeue(); envelope != null; envelope = dequeue()) {
+                deadLetters.enqueue(owner, envelope);
+            }
+        }
+
+        private void add(Envelope handle) {
+            var reading = new Reading(handle, latestByDevice != null ? deviceOf(handle.message()) : null);
+            readings.add(reading);
+            if (reading.device != null) {
+                latestByDevice.put(reading.device, reading);
+            }
+        }
+
+        // NOTE(mmm): Returns the envelope that was shed to make room, or null
+        //  if the actor drained the queue in the meantime and there was room
+        //  after all.
+        private Envelope dropOldestAndAdd(ActorRef receiver, Envelope handle) {
+            var oldest = readings.poll();
+            if (oldest == null) {
+                enqueue(receiver, handle);
+                return null;
+            }
+            forget(oldest);
+            add(handle);
+            return oldest.take();
+        }
+
+        private void forget(Reading reading) {
+            if (reading.device != null) {
+                latestByDevice.remove(reading.device, reading);
+            }
+        }
+    }
+
+    // NOTE(mmm): A queued reading whose envelope a later reading of the same
+    //  device can overwrite in place, until the actor takes it.
+    private static final class Reading {
+        private final AtomicReference<Envelope> envelope;
+        private final Object device;
+
+        private Reading(Envelope envelope, Object device) {
+            this.envelope = new AtomicReference<>(envelope);
+            this.device = device;
+        }
+
+        // NOTE(mmm): Returns the overwritten envelope, or null if the reading
+        //  was already taken off the queue.
+        private Envelope replace(Envelope handle) {
+            for (var current = envelope.get(); current != null; current = envelope.get()) {
+                if (envelope.compareAndSet(current, handle)) {
+                    return current;
+                }
+            }
+            return null;
+        }
+
+        private Envelope take() {
+            return envelope.getAndSet(null);
+        }
+    }
+
+    private static boolean isReading(Object message) {
+        return switch (message) {
+            case Device.RecordTemperature msg -> true;
+            case Device.RecordTemperatureNoReply msg -> true;
+            case Device.RecordTemperatureCumulativeAck msg -> true;
+            case Device.RecordTemperatures msg -> true;
+            case Device.RecordTemperatureSlice msg -> true;
+            case DeviceManager.RecordTemperatures msg -> !msg.replay();
+            case DeviceGroup.SlotCommand msg -> isReading(msg.command());
+            default -> false;
+        };
+    }
+
+    // NOTE(mmm): Queries from outside the actor tree, the only control
+    //  messages that can be shed.
+    private static boolean isQuery(Object message) {
+        return switch (message) {
+            case Device.ReadTemperature msg -> true;
+            case Device.ReadTemperatureStats msg -> true;
+            case DeviceManager.RequestAllDevices msg -> true;
+            case DeviceManager.RequestAllTemperatures msg -> true;
+            case DeviceManager.RequestQuorumTemperatures msg -> true;
+            case DeviceManager.RequestTemperatureStream msg -> true;
+            case DeviceGroup.SlotCommand msg -> isQuery(msg.command());
+            default -> false;
+        };
+    }
+
+    // NOTE(mmm): Which device a single reading is for, or null for batches.
+    private static Object deviceOf(Object message) {
+        return switch (message) {
+            case Device.RecordTemperature msg -> OWN_DEVICE;
+            case Device.RecordTemperatureNoReply msg -> OWN_DEVICE;
+            case Device.RecordTemperatureCumulativeAck msg -> OWN_DEVICE;
+            case DeviceGroup.SlotCommand msg -> deviceOf(msg.command()) != null ? msg.slot() : null;
+            default -> null;
+        };
+    }
+
+    private static void replyBusy(Object message) {
+        switch (message) {
+            case Device.RecordTemperature msg -> msg.replyTo().tell(new Device.TemperatureRecorded(msg.requestId(), true));
+            case Device.RecordTemperatureCumulativeAck msg ->
+                    msg.replyTo().tell(new Device.TemperatureRecorded(msg.requestId(), true));
+            case Device.RecordTemperatureSlice msg ->
+                    msg.replyTo().tell(new DeviceGroupBatch.SliceRecorded(0, msg.values().length));
+            case DeviceManager.RecordTemperatures msg -> msg.replyTo().tell(
+                    new DeviceManager.TemperaturesRecorded(msg.requestId(), 0, msg.deviceIds().length, true));
+            case DeviceGroup.SlotCommand msg -> replyBusy(msg.command());
+            default -> {
+            }
+        }
+    }
+}
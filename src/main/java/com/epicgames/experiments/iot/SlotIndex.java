@@ -0,0 +1,135 @@
+package com.epicgames.experiments.iot;
+
+import java.util.Arrays;
+
+// NOTE(mmm): The open-addressing index under IdRegistry (and so DeviceTable)
+//  and IntObjectMap. It hands out dense int slots, 0, 1, 2..., and finds
+//  them again by hash: linear probing over an int[] of slots, load factor
+//  <= 0.5, and removal by shifting the rest of the probe run back, so there
+//  are no tombstones. Released slots go on a free list and are handed out
+//  again before new ones.
+//
+//  What a slot holds, and when two entries are equal, is up to the owner:
+//  it keeps its own columns, indexed by slot, and walks a probe run with
+//  first(), next() and slotAt() until it finds its entry or EMPTY. Not
+//  thread-safe, it belongs to one actor.
+final class SlotIndex {
+    static final int EMPTY = -1;
+
+    private int[] index;
+    private int[] hashes;
+    private int[] free = new int[0];
+    private int freeCount;
+    private int used;
+
+    SlotIndex(int initialCapacity) {
+        var capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        this.index = newIndex(capacity * 2);
+        this.hashes = new int[capacity];
+    }
+
+    int size() {
+        return used - freeCount;
+    }
+
+    // NOTE(mmm): Every slot handed out so far is below this; owners size
+    //  their columns to it.
+    int capacity() {
+        return hashes.length;
+    }
+
+    int first(int hash) {
+        return hash & (index.length - 1);
+    }
+
+    int next(int i) {
+        return (i + 1) & (index.length - 1);
+    }
+
+    int slotAt(int i) {
+        return index[i];
+    }
+
+    int hash(int slot) {
+        return hashes[slot];
+    }
+
+    int add(int hash) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == hashes.length) {
+                grow();
+            }
+            slot = used++;
+        }
+
+        hashes[slot] = hash;
+        insert(slot);
+        return slot;
+    }
+
+    void release(int slot) {
+        var mask = index.length - 1;
+        var i = hashes[slot] & mask;
+        for (; index[i] != slot; i = (i + 1) & mask) {
+            if (index[i] == EMPTY) {
+                throw new IllegalArgumentException("slot " + slot + " is not in use");
+            }
+        }
+
+        // NOTE(mmm): Move back every later slot of the run that may sit in the
+        //  hole, i.e. whose home isn't cyclically in (hole, j].
+        var hole = i;
+        for (int j = (hole + 1) & mask; index[j] != EMPTY; j = (j + 1) & mask) {
+            var home = hashes[index[j]] & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                index[hole] = index[j];
+                hole = j;
+            }
+        }
+        index[hole] = EMPTY;
+
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, Math.max(4, free.length * 2));
+        }
+        free[freeCount++] = slot;
+    }
+
+    void clear() {
+        Arrays.fill(index, EMPTY);
+        freeCount = 0;
+        used = 0;
+    }
+
+    // NOTE(mmm): Only called with no free slots, so every slot below {used}
+    //  is in the index.
+    private void grow() {
+        hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        index = newIndex(hashes.length * 2);
+        for (int slot = 0; slot < used; slot++) {
+            insert(slot);
+        }
+    }
+
+    private void insert(int slot) {
+        var mask = index.length - 1;
+        var i = hashes[slot] & mask;
+        while (index[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot;
+    }
+
+    private static int[] newIndex(int length) {
+        var index = new int[length];
+        Arrays.fill(index, EMPTY);
+        return index;
+    }
+
+    static int mix(int hash) {
+        var h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,186 @@
+package com.epicgames.experiments.iot;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// NOTE(mmm): The readings of a group reply in columns: device {i} is
+//  deviceIds[i], with status statuses[i] and, if that is TEMPERATURE, value
+//  values[i] (NaN otherwise). Groups and their queries build their replies
+//  this way, so a reply costs three arrays instead of a HashMap node and a
+//  Temperature per device. Callers that read the columns (see
+//  ReplyAllTemperatures.columns()) never allocate anything per device.
+//
+//  It is also a read-only Map, for callers that want the old shape: entries
+//  and Temperatures are made as they are asked for, and the id index behind
+//  get() is built on the first lookup. Every reply of a joined or cached
+//  query shares the same instance, so that index is published safely.
+public final class TemperatureColumns extends AbstractMap<String, DeviceManager.TemperatureReading> {
+    public static final byte TEMPERATURE = 0;
+    public static final byte TEMPERATURE_NOT_AVAILABLE = 1;
+    public static final byte DEVICE_NOT_AVAILABLE = 2;
+    public static final byte DEVICE_TIMED_OUT = 3;
+
+    public static final TemperatureColumns EMPTY = new TemperatureColumns(new String[0], new double[0], new byte[0]);
+
+    private final String[] deviceIds;
+    private final double[] values;
+    private final byte[] statuses;
+
+    private volatile IdRegistry index;
+    private Set<Entry<String, DeviceManager.TemperatureReading>> entrySet;
+
+    // NOTE(mmm): Takes the arrays over, they must not change afterwards.
+    //  Device ids must be unique.
+    public TemperatureColumns(String[] deviceIds, double[] values, byte[] statuses) {
+        if (values.length != deviceIds.length || statuses.length != deviceIds.length) {
+            throw new IllegalArgumentException("columns must have the same length");
+        }
+        this.deviceIds = deviceIds;
+        this.values = values;
+        this.statuses = statuses;
+    }
+
+    public static TemperatureColumns of(Map<String, DeviceManager.TemperatureReading> temperatures) {
+        if (temperatures instanceof TemperatureColumns columns) {
+            return columns;
+        }
+
+        var deviceIds = new String[temperatures.size()];
+        var values = new double[deviceIds.length];
+        var statuses = new byte[deviceIds.length];
+        var i = 0;
+        for (var entry : temperatures.entrySet()) {
+            deviceIds[i] = entry.getKey();
+            statuses[i] = statusOf(entry.getValue());
+            values[i] = entry.getValue() instanceof DeviceManager.Temperature temperature
+                    ? temperature.value()
+                    : Double.NaN;
+            i++;
+        }
+        return new TemperatureColumns(deviceIds, values, statuses);
+    }
+
+    public static byte statusOf(DeviceManager.TemperatureReading reading) {
+        return switch (reading) {
+            case DeviceManager.Temperature temperature -> TEMPERATURE;
+            case DeviceManager.TemperatureNotAvailable notAvailable -> TEMPERATURE_NOT_AVAILABLE;
+            case DeviceManager.DeviceNotAvailable notAvailable -> DEVICE_NOT_AVAILABLE;
+            case DeviceManager.DeviceTimedOut timedOut -> DEVICE_TIMED_OUT;
+            default -> throw new IllegalArgumentException("Unknown reading of type " + reading.getClass());
+        };
+    }
+
+    @Override
+    public int size() {
+        return deviceIds.length;
+    }
+
+    public String deviceId(int i) {
+        return deviceIds[i];
+    }
+
+    public byte status(int i) {
+        return statuses[i];
+    }
+
+    public double value(int i) {
+        return values[i];
+    }
+
+    public DeviceManager.TemperatureReading reading(int i) {
+        return switch (statuses[i]) {
+            case TEMPERATURE -> new DeviceManager.Temperature(values[i]);
+            case TEMPERATURE_NOT_AVAILABLE -> DeviceManager.TemperatureNotAvailable.INSTANCE;
+            case DEVICE_NOT_AVAILABLE -> DeviceManager.DeviceNotAvailable.INSTANCE;
+            case DEVICE_TIMED_OUT -> DeviceManager.DeviceTimedOut.INSTANCE;
+            default -> throw new IllegalStateException("Unknown reading status " + statuses[i]);
+        };
+    }
+
+    // NOTE(mmm): The columns themselves, for the serializer. Read-only.
+    String[] deviceIds() {
+        return deviceIds;
+    }
+
+    byte[] statuses() {
+        return statuses;
+    }
+
+    public int count(byte status) {
+        var count = 0;
+        for (var s : statuses) {
+            if (s == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public DeviceManager.TemperatureReading get(Object key) {
+        var i = indexOf(key);
+        return i >= 0 ? reading(i) : null;
+    }
+
+    @Override
+    public Set<Entry<String, DeviceManager.TemperatureReading>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String deviceId)) {
+            return -1;
+        }
+
+        var index = this.index;
+        if (index == null) {
+            // NOTE(mmm): Racing readers may each build one, they're all equal.
+            index = new IdRegistry(deviceIds.length);
+            for (var id : deviceIds) {
+                index.intern(id);
+            }
+            this.index = index;
+        }
+        return index.handleOf(deviceId);
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, DeviceManager.TemperatureReading>> {
+        @Override
+        public int size() {
+            return deviceIds.length;
+        }
+
+        @Override
+        public Iterator<Entry<String, DeviceManager.TemperatureReading>> iterator() {
+            return new Iterator<>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < deviceIds.length;
+                }
+
+                @Override
+                public Entry<String, DeviceManager.TemperatureReading> next() {
+                    if (next >= deviceIds.length) {
+                        throw new NoSuchElementException();
+                    }
+                    var i = next++;
+                    return new SimpleImmutableEntry<>(deviceIds[i], reading(i));
+                }
+            };
+        }
+    }
+}
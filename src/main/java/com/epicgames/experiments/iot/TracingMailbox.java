@@ -0,0 +1,98 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.Config;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorSystem;
+import org.apache.pekko.dispatch.Envelope;
+import org.apache.pekko.dispatch.MailboxType;
+import org.apache.pekko.dispatch.MessageQueue;
+import org.apache.pekko.dispatch.ProducesMessageQueue;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// NOTE(mmm): Unbounded FIFO mailbox (see mailboxes.conf) that writes a
+//  MessageTrace span for every sampled message that goes through it. {tier}
+//  names the kind of actor in the spans, and one in {sample-every} requests
+//  is traced. Messages that aren't traced cost a requestId lookup and
+//  nothing else.
+//
+//  It replaces the actor's mailbox rather than wrapping it, so an actor
+//  either sheds (SheddingMailbox) or is traced, not both.
+public final class TracingMailbox implements MailboxType, ProducesMessageQueue<TracingMailbox.TracingMessageQueue> {
+    private final String tier;
+    private final int sampleEvery;
+
+    public TracingMailbox(ActorSystem.Settings settings, Config config) {
+        this.tier = config.getString("tier");
+        this.sampleEvery = config.getInt("sample-every");
+        if (sampleEvery <= 0) {
+            throw new IllegalArgumentException("sample-every must be above 0");
+        }
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        var actor = owner.isDefined() ? owner.get().path().toStringWithoutAddress() : "";
+        return new TracingMessageQueue(tier, actor, sampleEvery);
+    }
+
+    static final class TracingMessageQueue implements MessageQueue {
+        private final String tier;
+        private final String actor;
+        private final int sampleEvery;
+
+        // NOTE(mmm): Envelopes, or Traced for the sampled ones.
+        private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+
+        private record Traced(
+                Envelope envelope,
+                long requestId,
+                long enqueuedNanos
+        ) {
+        }
+
+        TracingMessageQueue(String tier, String actor, int sampleEvery) {
+            this.tier = tier;
+            this.actor = actor;
+            this.sampleEvery = sampleEvery;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            var requestId = MessageTrace.requestIdOf(handle.message());
+            if (MessageTrace.sampled(requestId, sampleEvery)) {
+                queue.add(new Traced(handle, requestId, System.nanoTime()));
+            } else {
+                queue.add(handle);
+            }
+        }
+
+        @Override
+        public Envelope dequeue() {
+            var entry = queue.poll();
+            if (entry instanceof Traced traced) {
+                MessageTrace.record(traced.requestId, tier, actor, traced.envelope.message(), traced.enqueuedNanos);
+                return traced.envelope;
+            }
+            return (Envelope) entry;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return queue.size();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            for (var entry = queue.poll(); entry != null; entry = queue.poll()) {
+                deadLetters.enqueue(owner, entry instanceof Traced traced ? traced.envelope : (Envelope) entry);
+            }
+        }
+    }
+}
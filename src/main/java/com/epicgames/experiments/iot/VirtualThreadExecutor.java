@@ -0,0 +1,25 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.Config;
+import org.apache.pekko.dispatch.DispatcherPrerequisites;
+import org.apache.pekko.dispatch.ExecutorServiceConfigurator;
+import org.apache.pekko.dispatch.ExecutorServiceFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// NOTE(mmm): Dispatcher executor that runs every task on a new virtual
+//  thread, for actors that block on I/O (see iot.dispatchers.blocking-io in
+//  dispatchers.conf). A blocked actor then parks its virtual thread instead
+//  of holding a pool thread. Pekko 1.0 has no virtual-thread executor of its
+//  own; use it with `executor = "com.epicgames.experiments.iot.VirtualThreadExecutor"`.
+public final class VirtualThreadExecutor extends ExecutorServiceConfigurator {
+    public VirtualThreadExecutor(Config config, DispatcherPrerequisites prerequisites) {
+        super(config, prerequisites);
+    }
+
+    @Override
+    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory threadFactory) {
+        return () -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(id + "-", 0).factory());
+    }
+}
@@ -0,0 +1,197 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.testkit.typed.javadsl.ActorTestKit;
+import org.apache.pekko.cluster.MemberStatus;
+import org.apache.pekko.cluster.sharding.ShardRegion;
+import org.apache.pekko.cluster.sharding.typed.GetShardRegionState;
+import org.apache.pekko.cluster.sharding.typed.javadsl.ClusterSharding;
+import org.apache.pekko.cluster.typed.Cluster;
+import org.apache.pekko.cluster.typed.Join;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// NOTE(mmm): Two cluster nodes in one JVM, on random localhost ports.
+public class ClusterDeviceManagerTest {
+    private static final Config CONFIG = ConfigFactory.parseString("""
+                    pekko.remote.artery.canonical.port = 0
+                    pekko.cluster.seed-nodes = []
+                    pekko.cluster.jmx.multi-mbeans-in-same-jvm = on
+                    """)
+            .withFallback(ConfigFactory.load("cluster"));
+
+    private static ActorTestKit node1;
+    private static ActorTestKit node2;
+
+    @BeforeClass
+    public static void startCluster() {
+        node1 = ActorTestKit.create("ClusterDeviceManagerTest", CONFIG);
+        node2 = ActorTestKit.create("ClusterDeviceManagerTest", CONFIG);
+
+        var seed = Cluster.get(node1.system()).selfMember().address();
+        Cluster.get(node1.system()).manager().tell(Join.create(seed));
+        Cluster.get(node2.system()).manager().tell(Join.create(seed));
+
+        var probe = node1.createTestProbe();
+        probe.awaitAssert(Duration.ofSeconds(10), () -> {
+            for (var node : List.of(node1, node2)) {
+                var members = StreamSupport.stream(
+                                Cluster.get(node.system()).state().getMembers().spliterator(), false)
+                        .filter(member -> member.status() == MemberStatus.up())
+                        .count();
+                assertEquals(2, members);
+            }
+            return null;
+        });
+
+        // NOTE(mmm): Both nodes host groups, not only the one asking.
+        ClusterDeviceManager.initSharding(node1.system(), DeviceGroup.Settings.DEFAULT);
+        ClusterDeviceManager.initSharding(node2.system(), DeviceGroup.Settings.DEFAULT);
+    }
+
+    @AfterClass
+    public static void stopCluster() {
+        node2.shutdownTestKit();
+        node1.shutdownTestKit();
+    }
+
+    @Test
+    public void testListActiveDevicesAcrossNodes() {
+        var manager = node2.spawn(ClusterDeviceManager.create());
+        var registeredProbe = node2.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var deviceListProbe = node2.createTestProbe(DeviceManager.ReplyAllDevices.class);
+
+        var groupIds = Stream.generate(TestRandom::uuid)
+                .limit(8)
+                .toList();
+        for (var groupId : groupIds) {
+            var deviceIds = Stream.generate(TestRandom::uuid)
+                    .limit(3)
+                    .collect(toSet());
+            for (var deviceId : deviceIds) {
+                manager.tell(new DeviceManager.RequestTrackDevice(
+                        TestRandom.int64(), groupId, deviceId, registeredProbe.getRef()));
+                registeredProbe.receiveMessage(Duration.ofSeconds(10));
+            }
+
+            var requestId = TestRandom.int64();
+            manager.tell(new DeviceManager.RequestAllDevices(requestId, groupId, deviceListProbe.getRef()));
+            var reply = deviceListProbe.receiveMessage();
+            assertEquals(requestId, reply.requestId());
+            assertEquals(deviceIds, reply.deviceIds());
+        }
+    }
+
+    @Test
+    public void testRecordAndReadTemperaturesAcrossNodes() {
+        var manager = node2.spawn(ClusterDeviceManager.create());
+        var registeredProbe = node2.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordedProbe = node2.createTestProbe(Device.TemperatureRecorded.class);
+        var temperaturesProbe = node2.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        var groupId = TestRandom.uuid();
+        manager.tell(new DeviceManager.RequestTrackDevice(
+                TestRandom.int64(), groupId, "device1", registeredProbe.getRef()));
+        var device1 = registeredProbe.receiveMessage(Duration.ofSeconds(10)).device();
+        manager.tell(new DeviceManager.RequestTrackDevice(
+                TestRandom.int64(), groupId, "device2", registeredProbe.getRef()));
+        registeredProbe.receiveMessage(Duration.ofSeconds(10));
+
+        device1.tell(new Device.RecordTemperature(1, 21.5, recordedProbe.getRef()));
+        recordedProbe.receiveMessage();
+
+        var requestId = TestRandom.int64();
+        manager.tell(new DeviceManager.RequestAllTemperatures(requestId, groupId, temperaturesProbe.getRef()));
+        var reply = temperaturesProbe.receiveMessage();
+        assertEquals(requestId, reply.requestId());
+        assertEquals(
+                Map.of(
+                        "device1", new DeviceManager.Temperature(21.5),
+                        "device2", DeviceManager.TemperatureNotAvailable.INSTANCE),
+                reply.temperatures());
+    }
+
+    @Test
+    public void testReplyEmptyForUnknownGroup() {
+        var manager = node1.spawn(ClusterDeviceManager.create());
+        var deviceListProbe = node1.createTestProbe(DeviceManager.ReplyAllDevices.class);
+        var temperaturesProbe = node1.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        var groupId = TestRandom.uuid();
+        manager.tell(new DeviceManager.RequestAllDevices(1, groupId, deviceListProbe.getRef()));
+        assertEquals(Set.of(), deviceListProbe.receiveMessage(Duration.ofSeconds(10)).deviceIds());
+
+        manager.tell(new DeviceManager.RequestAllTemperatures(2, groupId, temperaturesProbe.getRef()));
+        assertTrue(temperaturesProbe.receiveMessage(Duration.ofSeconds(1)).temperatures().isEmpty());
+    }
+
+    @Test
+    public void testKeepDeviceTrackedWhileGroupPassivates() {
+        var manager = node1.spawn(ClusterDeviceManager.create());
+        var registeredProbe = node1.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var deviceListProbe = node1.createTestProbe(DeviceManager.ReplyAllDevices.class);
+
+        // NOTE(mmm): The query makes the group passivate, and the track
+        //  request is likely to reach it before the shard's Stop does.
+        var groupId = TestRandom.uuid();
+        manager.tell(new DeviceManager.RequestAllDevices(1, groupId, deviceListProbe.getRef()));
+        manager.tell(new DeviceManager.RequestTrackDevice(2, groupId, "device", registeredProbe.getRef()));
+        assertEquals(Set.of(), deviceListProbe.receiveMessage(Duration.ofSeconds(10)).deviceIds());
+        assertEquals(2, registeredProbe.receiveMessage(Duration.ofSeconds(10)).requestId());
+
+        deviceListProbe.awaitAssert(Duration.ofSeconds(10), () -> {
+            manager.tell(new DeviceManager.RequestAllDevices(3, groupId, deviceListProbe.getRef()));
+            assertEquals(Set.of("device"), deviceListProbe.receiveMessage().deviceIds());
+            return null;
+        });
+    }
+
+    @Test
+    public void testDontKeepGroupsThatWereOnlyQueried() {
+        var manager = node1.spawn(ClusterDeviceManager.create());
+        var deviceListProbe = node1.createTestProbe(DeviceManager.ReplyAllDevices.class);
+        var temperaturesProbe = node1.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        var chunkProbe = node1.createTestProbe(DeviceManager.ReplyTemperaturesChunk.class);
+
+        var groupIds = Stream.generate(TestRandom::uuid)
+                .limit(8)
+                .collect(toSet());
+        for (var groupId : groupIds) {
+            manager.tell(new DeviceManager.RequestAllDevices(1, groupId, deviceListProbe.getRef()));
+            assertEquals(Set.of(), deviceListProbe.receiveMessage(Duration.ofSeconds(10)).deviceIds());
+            manager.tell(new DeviceManager.RequestAllTemperatures(2, groupId, temperaturesProbe.getRef()));
+            assertTrue(temperaturesProbe.receiveMessage(Duration.ofSeconds(10)).temperatures().isEmpty());
+            manager.tell(new DeviceManager.RequestQuorumTemperatures(3, groupId, 1, temperaturesProbe.getRef()));
+            assertTrue(temperaturesProbe.receiveMessage(Duration.ofSeconds(10)).temperatures().isEmpty());
+            manager.tell(new DeviceManager.RequestTemperatureStream(4, groupId, 1, chunkProbe.getRef()));
+            assertTrue(chunkProbe.receiveMessage(Duration.ofSeconds(10)).last());
+        }
+
+        for (var node : List.of(node1, node2)) {
+            var stateProbe = node.createTestProbe(ShardRegion.CurrentShardRegionState.class);
+            stateProbe.awaitAssert(Duration.ofSeconds(10), () -> {
+                ClusterSharding.get(node.system()).shardState().tell(
+                        new GetShardRegionState(ClusterDeviceManager.GROUP_TYPE_KEY, stateProbe.getRef()));
+                var entityIds = stateProbe.receiveMessage().getShards().stream()
+                        .flatMap(shard -> shard.getEntityIds().stream())
+                        .collect(toSet());
+                assertTrue(Collections.disjoint(groupIds, entityIds), entityIds::toString);
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeviceGroupBatchTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @Test
+    public void testAckOnceEverySliceIsRecorded() {
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        var requestId = TestRandom.int64();
+        var batch = testKit.spawn(DeviceGroupBatch.create(
+                requestId, recordedProbe.getRef(), 2, 5, 1, Duration.ofSeconds(3)));
+
+        batch.tell(new DeviceGroupBatch.SliceRecorded(3, 0));
+        recordedProbe.expectNoMessage(Duration.ofMillis(100));
+        batch.tell(new DeviceGroupBatch.SliceRecorded(0, 2));
+        assertEquals(new DeviceManager.TemperaturesRecorded(requestId, 3, 3, true), recordedProbe.receiveMessage());
+    }
+
+    @Test
+    public void testRejectSlicesNotRecordedInTime() {
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        var requestId = TestRandom.int64();
+        var batch = testKit.spawn(DeviceGroupBatch.create(
+                requestId, recordedProbe.getRef(), 3, 6, 0, Duration.ofMillis(200)));
+
+        // NOTE(mmm): As if the other two devices stopped with their slices
+        //  still queued.
+        batch.tell(new DeviceGroupBatch.SliceRecorded(2, 0));
+        assertEquals(new DeviceManager.TemperaturesRecorded(requestId, 2, 4), recordedProbe.receiveMessage());
+    }
+}
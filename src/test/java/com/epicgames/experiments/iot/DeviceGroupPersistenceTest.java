@@ -0,0 +1,142 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeviceGroupPersistenceTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(config());
+
+    private static final DeviceGroup.Settings SETTINGS = DeviceGroup.Settings.DEFAULT
+            .withPersistInterval(Duration.ofMillis(50))
+            .withSnapshotEvery(2);
+
+    private static Config config() {
+        try {
+            var dataDir = Files.createTempDirectory("iot-persistence-test");
+            return ConfigFactory.empty()
+                    .withValue("pekko.persistence.journal.leveldb.dir",
+                            ConfigValueFactory.fromAnyRef(dataDir.resolve("journal").toString()))
+                    .withValue("pekko.persistence.snapshot-store.local.dir",
+                            ConfigValueFactory.fromAnyRef(dataDir.resolve("snapshots").toString()))
+                    .withFallback(ConfigFactory.parseResources("persistence.conf"))
+                    .resolve();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void testRecoverDevicesAndReadings() {
+        var groupId = TestRandom.uuid();
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, SETTINGS));
+        var device1 = track(groupActor, groupId, "device1");
+        track(groupActor, groupId, "device2");
+
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        device1.tell(new Device.RecordTemperature(1L, 21.5, recordProbe.getRef()));
+        recordProbe.receiveMessage();
+
+        // NOTE(mmm): Give the group a few persist intervals to write it all.
+        recordProbe.expectNoMessage(Duration.ofMillis(500));
+        testKit.stop(groupActor);
+
+        var recoveredActor = testKit.spawn(DeviceGroup.create(groupId, SETTINGS));
+        var deviceListProbe = testKit.createTestProbe(DeviceManager.ReplyAllDevices.class);
+        recoveredActor.tell(new DeviceManager.RequestAllDevices(2L, groupId, deviceListProbe.getRef()));
+        assertEquals(Set.of("device1", "device2"), deviceListProbe.receiveMessage().deviceIds());
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        recoveredActor.tell(new DeviceManager.RequestAllTemperatures(3L, groupId, allTempProbe.getRef()));
+        assertEquals(
+                Map.of(
+                        "device1", new DeviceManager.Temperature(21.5),
+                        "device2", DeviceManager.TemperatureNotAvailable.INSTANCE),
+                allTempProbe.receiveMessage().temperatures());
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndLaterEvents() {
+        var groupId = TestRandom.uuid();
+        var settings = SETTINGS.withStorage(DeviceGroup.Storage.VIRTUAL);
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        track(groupActor, groupId, "device1");
+        track(groupActor, groupId, "device2");
+
+        // NOTE(mmm): One write per interval; with snapshotEvery = 2, the
+        //  last reading comes after the latest snapshot.
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        for (int i = 1; i <= 5; i++) {
+            groupActor.tell(new DeviceManager.RecordTemperatures(
+                    i, groupId, new String[]{"device" + (i % 2 + 1)}, new double[]{i}, new long[]{i},
+                    recordedProbe.getRef()));
+            recordedProbe.receiveMessage();
+            recordedProbe.expectNoMessage(Duration.ofMillis(100));
+        }
+        testKit.stop(groupActor);
+
+        var recoveredActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        recoveredActor.tell(new DeviceManager.RequestAllTemperatures(6L, groupId, allTempProbe.getRef()));
+        assertEquals(
+                Map.of(
+                        "device1", new DeviceManager.Temperature(4),
+                        "device2", new DeviceManager.Temperature(5)),
+                allTempProbe.receiveMessage().temperatures());
+    }
+
+    @Test
+    public void testWritePendingReadingsOnStop() {
+        var groupId = TestRandom.uuid();
+        // NOTE(mmm): Nothing is written on a timer within the test.
+        var settings = SETTINGS
+                .withStorage(DeviceGroup.Storage.VIRTUAL)
+                .withPersistInterval(Duration.ofMinutes(1));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        track(groupActor, groupId, "device1");
+        track(groupActor, groupId, "device2");
+
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        groupActor.tell(new DeviceManager.RecordTemperatures(
+                1L, groupId, new String[]{"device1", "device2"}, new double[]{21.5, 22.5}, new long[]{1, 2},
+                recordedProbe.getRef()));
+        recordedProbe.receiveMessage();
+
+        groupActor.tell(DeviceGroup.Stop.INSTANCE);
+        testKit.createTestProbe().expectTerminated(groupActor, Duration.ofSeconds(10));
+
+        var recoveredActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        recoveredActor.tell(new DeviceManager.RequestAllTemperatures(2L, groupId, allTempProbe.getRef()));
+        assertEquals(
+                Map.of(
+                        "device1", new DeviceManager.Temperature(21.5),
+                        "device2", new DeviceManager.Temperature(22.5)),
+                allTempProbe.receiveMessage().temperatures());
+    }
+
+    private static ActorRef<Device.Command> track(
+            ActorRef<DeviceGroup.Command> groupActor,
+            String groupId,
+            String deviceId
+    ) {
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        groupActor.tell(new DeviceManager.RequestTrackDevice(
+                TestRandom.int64(), groupId, deviceId, registeredProbe.getRef()));
+        return registeredProbe.receiveMessage().device();
+    }
+}
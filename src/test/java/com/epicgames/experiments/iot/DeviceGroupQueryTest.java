@@ -1,18 +1,25 @@
 package com.epicgames.experiments.iot;
 
 import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.actor.testkit.typed.javadsl.TestProbe;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.apache.pekko.actor.typed.Behavior;
+import org.apache.pekko.actor.typed.javadsl.Behaviors;
 import org.junit.ClassRule;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.OptionalDouble;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DeviceGroupQueryTest {
     @ClassRule
@@ -37,14 +44,14 @@ public class DeviceGroupQueryTest {
                 .collect(toMap(Map.Entry::getKey, e -> e.getValue().getRef()));
 
         var requestId = TestRandom.int64();
-        var queryActor = testKit.spawn(DeviceGroupQuery.create(
+        testKit.spawn(DeviceGroupQuery.create(
                 requestId, deviceActorById, tempsProbe.getRef(), Duration.ofSeconds(3)));
-        deviceProbeById.values().forEach(
-                probe -> probe.expectMessageClass(Device.ReadTemperature.class));
 
-        deviceTemperatures.forEach((id, temp) ->
-                queryActor.tell(new DeviceGroupQuery.ReplyTemperature(
-                        new Device.Temperature(requestId, id, OptionalDouble.of(temp.value())))));
+        deviceTemperatures.forEach((id, temp) -> {
+            var read = deviceProbeById.get(id).expectMessageClass(Device.ReadTemperature.class);
+            read.replyTo().tell(
+                    new Device.Temperature(read.requestId(), id, OptionalDouble.of(temp.value()), read.index()));
+        });
         DeviceManager.ReplyAllTemperatures reply = tempsProbe.receiveMessage();
         assertEquals(requestId, reply.requestId());
         assertEquals(deviceTemperatures, reply.temperatures());
@@ -58,15 +65,17 @@ public class DeviceGroupQueryTest {
         var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
         var deviceActorById = Map.of(deviceId, deviceProbe.getRef());
 
-        var queryActor = testKit.spawn(DeviceGroupQuery.create(
+        testKit.spawn(DeviceGroupQuery.create(
                 requestId, deviceActorById, tempsProbe.getRef(), Duration.ofSeconds(3)));
 
-        assertEquals(requestId, deviceProbe.expectMessageClass(Device.ReadTemperature.class).requestId());
+        // NOTE(mmm): A device is asked under the query's requestId, and its
+        //  index in the query.
+        var read = deviceProbe.expectMessageClass(Device.ReadTemperature.class);
+        assertEquals(requestId, read.requestId());
+        assertEquals(0, read.index());
 
         var deviceTemp = OptionalDouble.empty();
-        queryActor.tell(
-                new DeviceGroupQuery.ReplyTemperature(
-                        new Device.Temperature(requestId, deviceId, deviceTemp)));
+        read.replyTo().tell(new Device.Temperature(read.requestId(), deviceId, deviceTemp, read.index()));
 
         DeviceManager.ReplyAllTemperatures reply = tempsProbe.receiveMessage();
         assertEquals(requestId, reply.requestId());
@@ -105,15 +114,14 @@ public class DeviceGroupQueryTest {
         var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
         var deviceActorById = Map.of(deviceId, deviceProbe.getRef());
 
-        var queryActor = testKit.spawn(DeviceGroupQuery.create(
+        testKit.spawn(DeviceGroupQuery.create(
                 requestId, deviceActorById, tempsProbe.getRef(), Duration.ofSeconds(3)));
 
-        assertEquals(requestId, deviceProbe.expectMessageClass(Device.ReadTemperature.class).requestId());
+        var read = deviceProbe.expectMessageClass(Device.ReadTemperature.class);
+        assertEquals(requestId, read.requestId());
 
         var deviceTemp = OptionalDouble.of(TestRandom.float64());
-        queryActor.tell(
-                new DeviceGroupQuery.ReplyTemperature(
-                        new Device.Temperature(requestId, deviceId, deviceTemp)));
+        read.replyTo().tell(new Device.Temperature(read.requestId(), deviceId, deviceTemp, read.index()));
 
         deviceProbe.stop();
 
@@ -132,7 +140,7 @@ public class DeviceGroupQueryTest {
         var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
         var deviceActorById = Map.of(deviceId, deviceProbe.getRef());
 
-        var queryActor = testKit.spawn(DeviceGroupQuery.create(
+        testKit.spawn(DeviceGroupQuery.create(
                 requestId, deviceActorById, tempsProbe.getRef(), Duration.ofMillis(200)));
 
         assertEquals(requestId, deviceProbe.expectMessageClass(Device.ReadTemperature.class).requestId());
@@ -145,4 +153,159 @@ public class DeviceGroupQueryTest {
         var expectedTemperatures = Map.of(deviceId, DeviceManager.DeviceTimedOut.INSTANCE);
         assertEquals(expectedTemperatures, reply.temperatures());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamTemperaturesInChunks() {
+        var requestId = TestRandom.int64();
+        var deviceProbeById = Stream.of("device1", "device2", "device3")
+                .collect(toMap(identity(), id -> testKit.createTestProbe(Device.Command.class)));
+        var deviceActorById = deviceProbeById.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> e.getValue().getRef()));
+        var chunkProbe = testKit.createTestProbe(DeviceManager.ReplyTemperaturesChunk.class);
+
+        testKit.spawn(DeviceGroupQuery.createStreaming(
+                requestId, deviceActorById, 2, chunkProbe.getRef(), Duration.ofSeconds(3)));
+        var readById = expectReads(deviceProbeById);
+
+        reply(readById, "device1", OptionalDouble.of(1));
+        reply(readById, "device2", OptionalDouble.of(2));
+        var first = chunkProbe.receiveMessage();
+        assertEquals(
+                new DeviceManager.ReplyTemperaturesChunk(requestId, Map.of(
+                        "device1", new DeviceManager.Temperature(1),
+                        "device2", new DeviceManager.Temperature(2)), false),
+                first);
+
+        reply(readById, "device3", OptionalDouble.empty());
+        var last = chunkProbe.receiveMessage();
+        assertEquals(
+                new DeviceManager.ReplyTemperaturesChunk(requestId, Map.of(
+                        "device3", DeviceManager.TemperatureNotAvailable.INSTANCE), true),
+                last);
+    }
+
+    @Test
+    public void testReturnEarlyOnceQuorumIsReached() {
+        var requestId = TestRandom.int64();
+        var deviceProbeById = Stream.of("device1", "device2", "device3")
+                .collect(toMap(identity(), id -> testKit.createTestProbe(Device.Command.class)));
+        var deviceActorById = deviceProbeById.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> e.getValue().getRef()));
+        var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        testKit.spawn(DeviceGroupQuery.createQuorum(
+                requestId, deviceActorById, 2, tempsProbe.getRef(), Duration.ofSeconds(3)));
+        var readById = expectReads(deviceProbeById);
+
+        reply(readById, "device1", OptionalDouble.of(1));
+        tempsProbe.expectNoMessage();
+        reply(readById, "device3", OptionalDouble.of(3));
+
+        DeviceManager.ReplyAllTemperatures reply = tempsProbe.receiveMessage();
+        assertEquals(requestId, reply.requestId());
+        assertEquals(
+                Map.of("device1", new DeviceManager.Temperature(1), "device3", new DeviceManager.Temperature(3)),
+                reply.temperatures());
+    }
+
+    @Test
+    public void testAdaptiveTimeoutCoversSlowDevice() {
+        var slowLatency = Duration.ofMillis(100);
+        var slowDelay = new AtomicReference<>(Duration.ZERO);
+        var deviceActorById = Map.of(
+                "device1", testKit.spawn(answering("device1", new AtomicReference<>(Duration.ZERO))),
+                "device2", testKit.spawn(answering("device2", new AtomicReference<>(Duration.ZERO))),
+                "device3", testKit.spawn(answering("device3", new AtomicReference<>(Duration.ZERO))),
+                "device4", testKit.spawn(answering("device4", new AtomicReference<>(Duration.ZERO))),
+                "slow", testKit.spawn(answering("slow", slowDelay)));
+        var adaptiveTimeout = new AdaptiveTimeout(99, Duration.ofMillis(10), Duration.ofSeconds(5));
+
+        // NOTE(mmm): Every device answers right away until the percentile kicks
+        //  in, so the timeout starts at its minimum.
+        while (adaptiveTimeout.timeout().equals(Duration.ofSeconds(5))) {
+            query(deviceActorById, adaptiveTimeout);
+        }
+        assertEquals(Duration.ofMillis(10), adaptiveTimeout.timeout());
+
+        slowDelay.set(slowLatency);
+        for (int i = 0; i < 15 && adaptiveTimeout.timeout().compareTo(slowLatency) < 0; i++) {
+            query(deviceActorById, adaptiveTimeout);
+        }
+        assertTrue(adaptiveTimeout.timeout().compareTo(slowLatency) >= 0, () -> "timeout " + adaptiveTimeout.timeout());
+
+        for (int i = 0; i < 10; i++) {
+            var reply = query(deviceActorById, adaptiveTimeout);
+            assertTrue(adaptiveTimeout.timeout().compareTo(slowLatency) >= 0, () -> "timeout " + adaptiveTimeout.timeout());
+            assertEquals(5, reply.temperatures().size());
+        }
+    }
+
+    @Test
+    public void testIgnoreReplyForAnotherDevice() {
+        var requestId = TestRandom.int64();
+        var deviceProbeById = Stream.of("device1", "device2")
+                .collect(toMap(identity(), id -> testKit.createTestProbe(Device.Command.class)));
+        var deviceActorById = deviceProbeById.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> e.getValue().getRef()));
+        var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        testKit.spawn(DeviceGroupQuery.createQuorum(
+                requestId, deviceActorById, 1, tempsProbe.getRef(), Duration.ofSeconds(3)));
+        var readById = expectReads(deviceProbeById);
+
+        // NOTE(mmm): device2 answers under device1's index, and out of range.
+        var read1 = readById.get("device1");
+        var device2Temp = OptionalDouble.of(2);
+        read1.replyTo().tell(new Device.Temperature(read1.requestId(), "device2", device2Temp, read1.index()));
+        read1.replyTo().tell(new Device.Temperature(read1.requestId(), "device2", device2Temp, 42));
+        tempsProbe.expectNoMessage();
+
+        reply(readById, "device1", OptionalDouble.of(1));
+        assertEquals(Map.of("device1", new DeviceManager.Temperature(1)), tempsProbe.receiveMessage().temperatures());
+    }
+
+    private static Map<String, Device.ReadTemperature> expectReads(
+            Map<String, TestProbe<Device.Command>> deviceProbeById
+    ) {
+        var readById = new HashMap<String, Device.ReadTemperature>();
+        deviceProbeById.forEach((deviceId, probe) ->
+                readById.put(deviceId, probe.expectMessageClass(Device.ReadTemperature.class)));
+        return readById;
+    }
+
+    private static void reply(Map<String, Device.ReadTemperature> readById, String deviceId, OptionalDouble value) {
+        var read = readById.get(deviceId);
+        read.replyTo().tell(new Device.Temperature(read.requestId(), deviceId, value, read.index()));
+    }
+
+    private static DeviceManager.ReplyAllTemperatures query(
+            Map<String, ActorRef<Device.Command>> deviceActorById,
+            AdaptiveTimeout adaptiveTimeout
+    ) {
+        var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        var latenciesProbe = testKit.createTestProbe(DeviceGroup.Command.class);
+
+        testKit.spawn(DeviceGroupQuery.createQuorum(
+                TestRandom.int64(), DeviceGroupQuery.Devices.of(deviceActorById), Integer.MAX_VALUE,
+                tempsProbe.getRef(), adaptiveTimeout.timeout(), latenciesProbe.getRef(), null));
+
+        var reply = tempsProbe.receiveMessage(Duration.ofSeconds(10));
+        adaptiveTimeout.record(latenciesProbe.expectMessageClass(DeviceGroup.QueryLatencies.class).latencies());
+        return reply;
+    }
+
+    private static Behavior<Device.Command> answering(String deviceId, AtomicReference<Duration> delay) {
+        return Behaviors.setup(context -> Behaviors.receive(Device.Command.class)
+                .onMessage(Device.ReadTemperature.class, msg -> {
+                    var temperature =
+                            new Device.Temperature(msg.requestId(), deviceId, OptionalDouble.of(1), msg.index());
+                    if (delay.get().isZero()) {
+                        msg.replyTo().tell(temperature);
+                    } else {
+                        context.scheduleOnce(delay.get(), msg.replyTo(), temperature);
+                    }
+                    return Behaviors.same();
+                })
+                .build());
+    }
+}
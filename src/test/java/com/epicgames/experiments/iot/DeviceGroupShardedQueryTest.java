@@ -0,0 +1,81 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.stream.Stream;
+
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DeviceGroupShardedQueryTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @Test
+    public void testMergeTemperaturesFromAllShards() {
+        var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        var deviceIds = Stream.generate(TestRandom::uuid)
+                .limit(5)
+                .collect(toSet());
+        var deviceProbeById = deviceIds.stream()
+                .collect(toMap(identity(), id -> testKit.createTestProbe(Device.Command.class)));
+        var deviceActorById = deviceProbeById.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> e.getValue().getRef()));
+
+        var requestId = TestRandom.int64();
+        testKit.spawn(DeviceGroupShardedQuery.create(
+                requestId, deviceActorById, 2, tempsProbe.getRef(), Duration.ofSeconds(3)));
+
+        var expectedTemperatures = new HashMap<String, DeviceManager.TemperatureReading>();
+        deviceProbeById.forEach((deviceId, probe) -> {
+            var read = probe.expectMessageClass(Device.ReadTemperature.class);
+            var temperature = TestRandom.float64();
+            read.replyTo().tell(
+                    new Device.Temperature(read.requestId(), deviceId, OptionalDouble.of(temperature), read.index()));
+            expectedTemperatures.put(deviceId, new DeviceManager.Temperature(temperature));
+        });
+
+        DeviceManager.ReplyAllTemperatures reply = tempsProbe.receiveMessage();
+        assertEquals(requestId, reply.requestId());
+        assertEquals(expectedTemperatures, reply.temperatures());
+    }
+
+    @Test
+    public void testReturnDeviceTimedOutFromSlowShard() {
+        var tempsProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        var deviceProbeById = Stream.of("device1", "device2", "device3")
+                .collect(toMap(identity(), id -> testKit.createTestProbe(Device.Command.class)));
+        var deviceActorById = deviceProbeById.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, e -> e.getValue().getRef()));
+
+        var requestId = TestRandom.int64();
+        testKit.spawn(DeviceGroupShardedQuery.create(
+                requestId, deviceActorById, 1, tempsProbe.getRef(), Duration.ofMillis(200)));
+
+        // NOTE(mmm): device3 never answers.
+        for (var deviceId : new String[]{"device1", "device2"}) {
+            var read = deviceProbeById.get(deviceId).expectMessageClass(Device.ReadTemperature.class);
+            read.replyTo().tell(
+                    new Device.Temperature(read.requestId(), deviceId, OptionalDouble.of(1), read.index()));
+        }
+
+        DeviceManager.ReplyAllTemperatures reply = tempsProbe.receiveMessage();
+        assertEquals(requestId, reply.requestId());
+        assertEquals(
+                Map.of(
+                        "device1", new DeviceManager.Temperature(1),
+                        "device2", new DeviceManager.Temperature(1),
+                        "device3", DeviceManager.DeviceTimedOut.INSTANCE),
+                reply.temperatures());
+    }
+}
@@ -1,10 +1,15 @@
 package com.epicgames.experiments.iot;
 
+import org.apache.pekko.actor.testkit.typed.javadsl.LoggingTestKit;
 import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
 import org.apache.pekko.actor.typed.ActorRef;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Set;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
@@ -156,4 +161,349 @@ public class DeviceGroupTest {
             return null;
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRecordTemperatureBatch() {
+        var groupId = TestRandom.uuid();
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor1 = registeredProbe.receiveMessage().device();
+        groupActor.tell(new DeviceManager.RequestTrackDevice(1L, groupId, "device2", registeredProbe.getRef()));
+        var deviceActor2 = registeredProbe.receiveMessage().device();
+
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        var requestId = TestRandom.int64();
+        groupActor.tell(new DeviceManager.RecordTemperatures(
+                requestId,
+                groupId,
+                new String[]{"device1", "device2", "unknown", "device1"},
+                new double[]{1, 2, 3, 4},
+                new long[]{10, 10, 10, 20},
+                recordedProbe.getRef()));
+        assertEquals(new DeviceManager.TemperaturesRecorded(requestId, 3, 1), recordedProbe.receiveMessage());
+
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+        deviceActor1.tell(new Device.ReadTemperature(0L, readProbe.getRef()));
+        assertEquals(OptionalDouble.of(4), readProbe.receiveMessage().value());
+        deviceActor2.tell(new Device.ReadTemperature(1L, readProbe.getRef()));
+        assertEquals(OptionalDouble.of(2), readProbe.receiveMessage().value());
+    }
+
+    @Test
+    public void testKeepReadingsOffHeap() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT.withStorage(DeviceGroup.Storage.OFF_HEAP);
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor1 = registeredProbe.receiveMessage().device();
+        groupActor.tell(new DeviceManager.RequestTrackDevice(1L, groupId, "device2", registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+        groupActor.tell(new DeviceManager.RequestTrackDevice(2L, groupId, "device3", registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        deviceActor1.tell(new Device.RecordTemperature(3L, 1, recordProbe.getRef()));
+        assertEquals(3L, recordProbe.receiveMessage().requestId());
+
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        groupActor.tell(new DeviceManager.RecordTemperatures(
+                4L,
+                groupId,
+                new String[]{"device2", "unknown"},
+                new double[]{2, 3},
+                new long[]{10, 10},
+                recordedProbe.getRef()));
+        assertEquals(new DeviceManager.TemperaturesRecorded(4L, 1, 1), recordedProbe.receiveMessage());
+
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+        deviceActor1.tell(new Device.ReadTemperature(5L, readProbe.getRef()));
+        assertEquals(new Device.Temperature(5L, "device1", OptionalDouble.of(1)), readProbe.receiveMessage());
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(6L, groupId, allTempProbe.getRef()));
+        var expectedTemperatures = Map.of(
+                "device1", new DeviceManager.Temperature(1),
+                "device2", new DeviceManager.Temperature(2),
+                "device3", DeviceManager.TemperatureNotAvailable.INSTANCE);
+        assertEquals(
+                new DeviceManager.ReplyAllTemperatures(6L, expectedTemperatures),
+                allTempProbe.receiveMessage());
+    }
+
+    @Test
+    public void testHoldOffHeapAckAtRequestIdGap() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT
+                .withStorage(DeviceGroup.Storage.OFF_HEAP)
+                .withDeviceSettings(Device.Settings.DEFAULT
+                        .withAckBatchSize(10)
+                        .withAckInterval(Duration.ofMillis(200)));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(1L, TestRandom.float64(), recordProbe.getRef()));
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(2L, TestRandom.float64(), recordProbe.getRef()));
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(5L, TestRandom.float64(), recordProbe.getRef()));
+        assertEquals(2L, recordProbe.receiveMessage().requestId());
+
+        // NOTE(mmm): 3 and 4 never arrived, so 5 can't be acked yet.
+        recordProbe.expectNoMessage(Duration.ofMillis(400));
+
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(3L, TestRandom.float64(), recordProbe.getRef()));
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(4L, TestRandom.float64(), recordProbe.getRef()));
+        assertEquals(5L, recordProbe.receiveMessage().requestId());
+    }
+
+    @Test
+    public void testKeepVirtualDevicesInTable() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT.withStorage(DeviceGroup.Storage.VIRTUAL);
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        var deviceIds = Set.of("device1", "device2", "device3");
+        ActorRef<Device.Command> deviceActor = null;
+        for (var deviceId : deviceIds) {
+            groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, deviceId, registeredProbe.getRef()));
+            deviceActor = registeredProbe.receiveMessage().device();
+        }
+
+        // NOTE(mmm): The shared ref can't record, but it answers.
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        deviceActor.tell(new Device.RecordTemperature(4L, 5, recordProbe.getRef()));
+        assertEquals(new Device.TemperatureRecorded(4L, true), recordProbe.receiveMessage());
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+        deviceActor.tell(new Device.ReadTemperature(5L, readProbe.getRef()));
+        assertEquals(OptionalDouble.empty(), readProbe.receiveMessage().value());
+
+        var deviceListProbe = testKit.createTestProbe(DeviceManager.ReplyAllDevices.class);
+        groupActor.tell(new DeviceManager.RequestAllDevices(1L, groupId, deviceListProbe.getRef()));
+        assertEquals(deviceIds, deviceListProbe.receiveMessage().deviceIds());
+
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+        groupActor.tell(new DeviceManager.RecordTemperatures(
+                2L,
+                groupId,
+                new String[]{"device1", "device2", "unknown"},
+                new double[]{1, 2, 3},
+                new long[]{10, 10, 10},
+                recordedProbe.getRef()));
+        assertEquals(new DeviceManager.TemperaturesRecorded(2L, 2, 1), recordedProbe.receiveMessage());
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(3L, groupId, allTempProbe.getRef()));
+        var expectedTemperatures = Map.of(
+                "device1", new DeviceManager.Temperature(1),
+                "device2", new DeviceManager.Temperature(2),
+                "device3", DeviceManager.TemperatureNotAvailable.INSTANCE);
+        assertEquals(
+                new DeviceManager.ReplyAllTemperatures(3L, expectedTemperatures),
+                allTempProbe.receiveMessage());
+    }
+
+    @Test
+    public void testAnswerAllTemperaturesFromSnapshot() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT
+                .withQueryMode(DeviceGroup.QueryMode.SNAPSHOT)
+                .withDeviceSettings(Device.Settings.DEFAULT.withSnapshotFreshness(Duration.ofMillis(50)));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor1 = registeredProbe.receiveMessage().device();
+        groupActor.tell(new DeviceManager.RequestTrackDevice(1L, groupId, "device2", registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        deviceActor1.tell(new Device.RecordTemperature(2L, 1, recordProbe.getRef()));
+        recordProbe.receiveMessage();
+        deviceActor1.tell(new Device.RecordTemperature(3L, 2, recordProbe.getRef()));
+        recordProbe.receiveMessage();
+
+        // NOTE(mmm): The second reading is published once the freshness bound expires.
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        var expectedTemperatures = Map.of(
+                "device1", new DeviceManager.Temperature(2),
+                "device2", DeviceManager.TemperatureNotAvailable.INSTANCE);
+        allTempProbe.awaitAssert(() -> {
+            groupActor.tell(new DeviceManager.RequestAllTemperatures(4L, groupId, allTempProbe.getRef()));
+            assertEquals(expectedTemperatures, allTempProbe.receiveMessage().temperatures());
+            return null;
+        });
+    }
+
+    @Test
+    public void testAnswerConcurrentAllTemperaturesRequestsWithOwnRequestIds() {
+        var groupId = TestRandom.uuid();
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        deviceActor.tell(new Device.RecordTemperature(1L, 1, recordProbe.getRef()));
+        recordProbe.receiveMessage();
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        var requestIds = Set.of(2L, 3L, 4L);
+        for (var requestId : requestIds) {
+            groupActor.tell(new DeviceManager.RequestAllTemperatures(requestId, groupId, allTempProbe.getRef()));
+        }
+
+        var expectedTemperatures = Map.of("device1", new DeviceManager.Temperature(1));
+        var replies = allTempProbe.receiveSeveralMessages(requestIds.size());
+        assertEquals(requestIds, replies.stream().map(DeviceManager.ReplyAllTemperatures::requestId).collect(toSet()));
+        replies.forEach(reply -> assertEquals(expectedTemperatures, reply.temperatures()));
+    }
+
+    @Test
+    public void testAnswerAllTemperaturesFromRecentResult() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT.withQueryCacheTtl(Duration.ofMinutes(1));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(1L, groupId, allTempProbe.getRef()));
+        var first = allTempProbe.receiveMessage();
+
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        deviceActor.tell(new Device.RecordTemperature(2L, 1, recordProbe.getRef()));
+        recordProbe.receiveMessage();
+
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(3L, groupId, allTempProbe.getRef()));
+        var second = allTempProbe.receiveMessage();
+        assertAll(
+                () -> assertEquals(3L, second.requestId()),
+                () -> assertEquals(first.temperatures(), second.temperatures()),
+                () -> assertEquals(
+                        Map.of("device1", DeviceManager.TemperatureNotAvailable.INSTANCE),
+                        second.temperatures()));
+    }
+
+    @Test
+    public void testForgetRecentResultWhenDevicesChange() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT.withQueryCacheTtl(Duration.ofMinutes(1));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor1 = registeredProbe.receiveMessage().device();
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(1L, groupId, allTempProbe.getRef()));
+        assertEquals(Set.of("device1"), allTempProbe.receiveMessage().temperatures().keySet());
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(2L, groupId, "device2", registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(3L, groupId, allTempProbe.getRef()));
+        assertEquals(Set.of("device1", "device2"), allTempProbe.receiveMessage().temperatures().keySet());
+
+        deviceActor1.tell(Device.Passivate.INSTANCE);
+        registeredProbe.expectTerminated(deviceActor1, registeredProbe.getRemainingOrDefault());
+        allTempProbe.awaitAssert(() -> {
+            groupActor.tell(new DeviceManager.RequestAllTemperatures(4L, groupId, allTempProbe.getRef()));
+            assertEquals(Set.of("device2"), allTempProbe.receiveMessage().temperatures().keySet());
+            return null;
+        });
+    }
+
+    @Test
+    public void testAnswerAllTemperaturesWithRequestTimeout() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT
+                .withAdaptiveTimeoutPercentile(99.9)
+                .withAdaptiveTimeoutMin(Duration.ofMillis(100));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(
+                1L, groupId, allTempProbe.getRef(), Duration.ofMillis(500)));
+        assertEquals(
+                new DeviceManager.ReplyAllTemperatures(
+                        1L, Map.of("device1", DeviceManager.TemperatureNotAvailable.INSTANCE)),
+                allTempProbe.receiveMessage());
+
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(2L, groupId, allTempProbe.getRef()));
+        assertEquals(2L, allTempProbe.receiveMessage().requestId());
+    }
+
+    @Test
+    public void testPassivateIdleDevicesAndSpawnThemAgain() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT.withDeviceIdleTimeout(Duration.ofMillis(100));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+
+        LoggingTestKit.info("Device stopped").expect(testKit.system(), () -> {
+            deviceActor.tell(new Device.RecordTemperature(1L, 21.5, recordProbe.getRef()));
+            return recordProbe.receiveMessage();
+        });
+
+        // NOTE(mmm): Answered by the group, without waking the device up.
+        deviceActor.tell(new Device.ReadTemperature(2L, readProbe.getRef()));
+        assertEquals(new Device.Temperature(2L, "device1", OptionalDouble.of(21.5)), readProbe.receiveMessage());
+
+        LoggingTestKit.info("Device started").expect(testKit.system(), () -> {
+            deviceActor.tell(new Device.RecordTemperature(3L, 22.5, recordProbe.getRef()));
+            return recordProbe.receiveMessage();
+        });
+        deviceActor.tell(new Device.ReadTemperature(4L, readProbe.getRef()));
+        assertEquals(new Device.Temperature(4L, "device1", OptionalDouble.of(22.5)), readProbe.receiveMessage());
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(5L, groupId, allTempProbe.getRef()));
+        assertEquals(
+                new DeviceManager.ReplyAllTemperatures(5L, Map.of("device1", new DeviceManager.Temperature(22.5))),
+                allTempProbe.receiveMessage());
+    }
+
+    @Test
+    public void testKeepPassivatedDeviceHistoryFromLastReading() {
+        var groupId = TestRandom.uuid();
+        var settings = DeviceGroup.Settings.DEFAULT.withDeviceIdleTimeout(Duration.ofMillis(100));
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId, settings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(0L, groupId, "device1", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+
+        LoggingTestKit.info("Device stopped").expect(testKit.system(), () -> {
+            deviceActor.tell(new Device.RecordTemperature(1L, 10, recordProbe.getRef()));
+            deviceActor.tell(new Device.RecordTemperature(2L, 20, recordProbe.getRef()));
+            recordProbe.receiveMessage();
+            return recordProbe.receiveMessage();
+        });
+
+        var statsProbe = testKit.createTestProbe(Device.TemperatureStats.class);
+        deviceActor.tell(new Device.ReadTemperatureStats(
+                3L, Duration.ofMinutes(1), new double[]{50}, statsProbe.getRef()));
+        var stats = statsProbe.receiveMessage();
+        assertAll(
+                () -> assertEquals(1, stats.count()),
+                () -> assertEquals(20, stats.max()));
+    }
+}
@@ -119,4 +119,20 @@ public class DeviceManagerTest {
                 "device3", DeviceManager.TemperatureNotAvailable.INSTANCE);
         assertEquals(expectedTemperatures, response.temperatures());
     }
+
+    @Test
+    public void testRejectTemperatureBatchForUnknownGroup() {
+        var managerActor = testKit.spawn(DeviceManager.create());
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+
+        var requestId = TestRandom.int64();
+        managerActor.tell(new DeviceManager.RecordTemperatures(
+                requestId,
+                TestRandom.uuid(),
+                new String[]{TestRandom.uuid(), TestRandom.uuid()},
+                new double[]{TestRandom.float64(), TestRandom.float64()},
+                new long[]{TestRandom.int64(), TestRandom.int64()},
+                recordedProbe.getRef()));
+        assertEquals(new DeviceManager.TemperaturesRecorded(requestId, 0, 2), recordedProbe.receiveMessage());
+    }
 }
\ No newline at end of file
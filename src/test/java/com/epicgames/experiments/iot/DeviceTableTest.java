@@ -0,0 +1,44 @@
+package com.epicgames.experiments.iot;
+
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceTableTest {
+    @Test
+    public void testAssignDenseSlotsAndFindThemAgain() {
+        var table = new DeviceTable(2);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.add("device" + i));
+        }
+        assertEquals(1000, table.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.slotOf("device" + i));
+            assertEquals("device" + i, table.deviceId(i));
+        }
+        assertEquals(-1, table.slotOf("unknown"));
+    }
+
+    @Test
+    public void testReturnSameSlotForSameDeviceId() {
+        var table = new DeviceTable(16);
+        var slot = table.add("device");
+        assertEquals(slot, table.add("device"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testKeepLatestReadingPerSlot() {
+        var table = new DeviceTable(16);
+        var slot = table.add("device");
+        assertFalse(table.hasReading(slot));
+
+        table.put(slot, 10, 1.5);
+        table.put(slot, 20, 2.5);
+        assertAll(
+                () -> assertTrue(table.hasReading(slot)),
+                () -> assertEquals(20, table.timestamp(slot)),
+                () -> assertEquals(2.5, table.value(slot)));
+    }
+}
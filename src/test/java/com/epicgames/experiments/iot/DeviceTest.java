@@ -1,12 +1,15 @@
 package com.epicgames.experiments.iot;
 
+import org.apache.pekko.actor.testkit.typed.javadsl.LoggingTestKit;
 import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.time.Duration;
 import java.util.OptionalDouble;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class DeviceTest {
@@ -56,4 +59,150 @@ public class DeviceTest {
             }
         }
     }
+
+    @Test
+    public void testReplyWithLastReadingOfBatch() {
+        var groupId = TestRandom.uuid();
+        var deviceId = TestRandom.uuid();
+        var deviceActor = testKit.spawn(Device.create(groupId, deviceId));
+
+        var values = new double[]{TestRandom.float64(), TestRandom.float64(), TestRandom.float64()};
+        deviceActor.tell(new Device.RecordTemperatures(TestRandom.int64(), values, new long[]{1, 2, 3}));
+
+        var requestId = TestRandom.int64();
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+        deviceActor.tell(new Device.ReadTemperature(requestId, readProbe.getRef()));
+        var reply = readProbe.receiveMessage();
+        assertAll(
+                () -> assertEquals(requestId, reply.requestId()),
+                () -> assertEquals(OptionalDouble.of(values[2]), reply.value()));
+    }
+
+    @Test
+    public void testAckBatchSliceOnceRecorded() {
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), TestRandom.uuid()));
+        var recordedProbe = testKit.createTestProbe(DeviceGroupBatch.SliceRecorded.class);
+
+        deviceActor.tell(new Device.RecordTemperatureSlice(
+                TestRandom.int64(), new double[]{1, 2}, new long[]{1, 2}, recordedProbe.getRef()));
+        assertEquals(new DeviceGroupBatch.SliceRecorded(2, 0), recordedProbe.receiveMessage());
+
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+        deviceActor.tell(new Device.ReadTemperature(TestRandom.int64(), readProbe.getRef()));
+        assertEquals(OptionalDouble.of(2), readProbe.receiveMessage().value());
+    }
+
+    @Test
+    public void testRecordTemperatureWithoutReply() {
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), TestRandom.uuid()));
+
+        var temperature = TestRandom.float64();
+        deviceActor.tell(new Device.RecordTemperatureNoReply(TestRandom.int64(), temperature));
+
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+        deviceActor.tell(new Device.ReadTemperature(TestRandom.int64(), readProbe.getRef()));
+        assertEquals(OptionalDouble.of(temperature), readProbe.receiveMessage().value());
+    }
+
+    @Test
+    public void testAckHighestContiguousRequestIdEveryBatch() {
+        var settings = Device.Settings.DEFAULT
+                .withAckBatchSize(3)
+                .withAckInterval(Duration.ofMinutes(1));
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), TestRandom.uuid(), settings));
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+
+        for (long requestId = 1; requestId <= 6; requestId++) {
+            deviceActor.tell(new Device.RecordTemperatureCumulativeAck(
+                    requestId, TestRandom.float64(), recordProbe.getRef()));
+        }
+        assertEquals(3L, recordProbe.receiveMessage().requestId());
+        assertEquals(6L, recordProbe.receiveMessage().requestId());
+        recordProbe.expectNoMessage();
+    }
+
+    @Test
+    public void testHoldAckAtRequestIdGap() {
+        var settings = Device.Settings.DEFAULT
+                .withAckBatchSize(10)
+                .withAckInterval(Duration.ofMillis(200));
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), TestRandom.uuid(), settings));
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(1L, TestRandom.float64(), recordProbe.getRef()));
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(2L, TestRandom.float64(), recordProbe.getRef()));
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(5L, TestRandom.float64(), recordProbe.getRef()));
+        assertEquals(2L, recordProbe.receiveMessage().requestId());
+
+        // NOTE(mmm): 3 and 4 never arrived, so 5 can't be acked yet.
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(6L, TestRandom.float64(), recordProbe.getRef()));
+        recordProbe.expectNoMessage(Duration.ofMillis(400));
+
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(3L, TestRandom.float64(), recordProbe.getRef()));
+        deviceActor.tell(new Device.RecordTemperatureCumulativeAck(4L, TestRandom.float64(), recordProbe.getRef()));
+        assertEquals(6L, recordProbe.receiveMessage().requestId());
+        recordProbe.expectNoMessage();
+    }
+
+    @Test
+    public void testLogOneReadingOutOfEverySample() {
+        var settings = Device.Settings.DEFAULT
+                .withReadingLogMode(Device.ReadingLogMode.SAMPLED)
+                .withReadingLogSampleEvery(3);
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), TestRandom.uuid(), settings));
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+
+        LoggingTestKit.info("Temperature reading recorded").withOccurrences(2).expect(testKit.system(), () -> {
+            for (long requestId = 0; requestId < 7; requestId++) {
+                deviceActor.tell(new Device.RecordTemperature(requestId, TestRandom.float64(), recordProbe.getRef()));
+            }
+            return recordProbe.receiveMessages(7);
+        });
+    }
+
+    @Test
+    public void testLogAggregatedReadingsWhenStopped() {
+        var settings = Device.Settings.DEFAULT
+                .withReadingLogMode(Device.ReadingLogMode.AGGREGATED)
+                .withReadingLogInterval(Duration.ofMinutes(1));
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), TestRandom.uuid(), settings));
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+
+        // NOTE(mmm): Nothing is logged per reading, and the interval never
+        //  elapses, so the only line is the one flushed when the device stops.
+        LoggingTestKit.info("Temperature reading").expect(testKit.system(), () -> {
+            for (long requestId = 0; requestId < 5; requestId++) {
+                deviceActor.tell(new Device.RecordTemperature(requestId, TestRandom.float64(), recordProbe.getRef()));
+            }
+            recordProbe.receiveMessages(5);
+            testKit.stop(deviceActor);
+            return null;
+        });
+    }
+
+    @Test
+    public void testReplyWithTemperatureStatsOverWindow() {
+        var deviceId = TestRandom.uuid();
+        var deviceActor = testKit.spawn(Device.create(TestRandom.uuid(), deviceId));
+
+        var now = System.currentTimeMillis();
+        deviceActor.tell(new Device.RecordTemperatures(
+                TestRandom.int64(),
+                new double[]{100, 1, 2, 3, 4},
+                new long[]{now - Duration.ofHours(2).toMillis(), now - 3, now - 2, now - 1, now}));
+
+        var requestId = TestRandom.int64();
+        var statsProbe = testKit.createTestProbe(Device.TemperatureStats.class);
+        deviceActor.tell(new Device.ReadTemperatureStats(
+                requestId, Duration.ofMinutes(1), new double[]{50, 100}, statsProbe.getRef()));
+        var stats = statsProbe.receiveMessage();
+        assertAll(
+                () -> assertEquals(requestId, stats.requestId()),
+                () -> assertEquals(deviceId, stats.deviceId()),
+                () -> assertEquals(4, stats.count()),
+                () -> assertEquals(1, stats.min()),
+                () -> assertEquals(4, stats.max()),
+                () -> assertEquals(2.5, stats.mean()),
+                () -> assertArrayEquals(new double[]{2, 4}, stats.percentiles()));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.ActorCell;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorRefWithCell;
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.actor.typed.DispatcherSelector;
+import org.apache.pekko.actor.typed.javadsl.Adapter;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DispatcherProfileTest {
+    private static final String[] PROFILES = {"default", "tiered", "latency", "throughput"};
+
+    @ClassRule
+    public static final TestKitJunitResource testKit =
+            new TestKitJunitResource(ConfigFactory.parseResources("dispatchers.conf").resolve());
+
+    @Test
+    public void testEveryProfileNamesExistingDispatchers() {
+        var config = testKit.system().settings().config();
+        for (var name : PROFILES) {
+            var profile = DispatcherProfile.fromConfig(config, name);
+            var paths = new String[]{
+                    profile.manager(), profile.group(), profile.hotGroup(), profile.device(), profile.query(),
+                    profile.blockingIo()};
+            for (var path : paths) {
+                if (path != null) {
+                    assertNotNull(testKit.system().dispatchers().lookup(DispatcherSelector.fromConfig(path)), path);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlockingIoRunsOnVirtualThreads() throws Exception {
+        var executor = testKit.system().dispatchers().lookup(DispatcherSelector.fromConfig("iot.dispatchers.blocking-io"));
+        var isVirtual = new CompletableFuture<Boolean>();
+        executor.execute(() -> isVirtual.complete(Thread.currentThread().isVirtual()));
+        assertTrue(isVirtual.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGroupsAnswerOnTieredDispatchers() throws Exception {
+        var groupId = TestRandom.uuid();
+        var hotGroupId = TestRandom.uuid();
+        var dispatchers = DispatcherProfile.fromConfig(testKit.system().settings().config(), "tiered")
+                .withHotGroups(Set.of(hotGroupId));
+        var managerActor = testKit.spawn(
+                DeviceManager.create(DeviceGroup.Settings.DEFAULT.withDispatchers(dispatchers)),
+                dispatchers.managerProps());
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        assertEquals("iot.dispatchers.manager", dispatcherOf(Adapter.toClassic(managerActor)));
+        for (var id : new String[]{groupId, hotGroupId}) {
+            managerActor.tell(new DeviceManager.RequestTrackDevice(1L, id, "device", registeredProbe.getRef()));
+            var deviceActor = registeredProbe.receiveMessage().device();
+            deviceActor.tell(new Device.RecordTemperature(2L, 21.5, recordProbe.getRef()));
+            recordProbe.receiveMessage();
+
+            managerActor.tell(new DeviceManager.RequestAllTemperatures(3L, id, allTempProbe.getRef()));
+            assertEquals(new DeviceManager.Temperature(21.5), allTempProbe.receiveMessage().temperatures().get("device"));
+
+            var groupActor = Adapter.toClassic(testKit.system())
+                    .actorSelection(deviceActor.path().parent())
+                    .resolveOne(Duration.ofSeconds(3))
+                    .toCompletableFuture()
+                    .get();
+            assertEquals(
+                    id.equals(hotGroupId) ? "iot.dispatchers.hot-group" : "iot.dispatchers.group",
+                    dispatcherOf(groupActor));
+            assertEquals("iot.dispatchers.device", dispatcherOf(Adapter.toClassic(deviceActor)));
+        }
+    }
+
+    private static String dispatcherOf(ActorRef actor) {
+        var cell = (ActorCell) ((ActorRefWithCell) actor).underlying();
+        return cell.dispatcher().id();
+    }
+}
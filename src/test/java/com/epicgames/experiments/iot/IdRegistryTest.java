@@ -0,0 +1,61 @@
+package com.epicgames.experiments.iot;
+
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdRegistryTest {
+    @Test
+    public void testInternDenseHandlesAndFindThemAgain() {
+        var registry = new IdRegistry(2);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, registry.intern("device" + i));
+        }
+        assertEquals(1000, registry.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, registry.handleOf("device" + i));
+            assertEquals("device" + i, registry.id(i));
+        }
+        assertEquals(IdRegistry.NO_HANDLE, registry.handleOf("unknown"));
+    }
+
+    @Test
+    public void testReturnSameHandleForSameId() {
+        var registry = new IdRegistry(16);
+        var handle = registry.intern("device");
+        assertEquals(handle, registry.intern(new String("device")));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testHandOutReleasedHandlesAgain() {
+        var registry = new IdRegistry(2);
+        for (int i = 0; i < 100; i++) {
+            registry.intern("device" + i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            registry.release(i);
+        }
+
+        assertAll(
+                () -> assertEquals(50, registry.size()),
+                () -> assertEquals(IdRegistry.NO_HANDLE, registry.handleOf("device0")),
+                () -> assertNull(registry.id(0)),
+                () -> assertEquals(1, registry.handleOf("device1")),
+                () -> assertEquals(99, registry.handleOf("device99")),
+                () -> assertThrows(IllegalArgumentException.class, () -> registry.release(0)));
+
+        // NOTE(mmm): Churn of the same number of ids doesn't grow the handles
+        //  past what was ever in use at once.
+        for (int i = 0; i < 50; i++) {
+            var handle = registry.intern("other" + i);
+            assertTrue(handle < 100 && handle % 2 == 0, "handle " + handle);
+            assertEquals(handle, registry.handleOf("other" + i));
+        }
+        assertEquals(100, registry.size());
+        for (int i = 1; i < 100; i += 2) {
+            assertEquals(i, registry.handleOf("device" + i));
+        }
+    }
+}
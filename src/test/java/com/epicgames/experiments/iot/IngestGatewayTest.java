@@ -0,0 +1,43 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+public class IngestGatewayTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @Test
+    public void testIngestReadingsOverTcp() throws Exception {
+        var managerActor = testKit.spawn(DeviceManager.create());
+        var settings = IngestGateway.Settings.DEFAULT
+                .withPort(0)
+                .withMaxBatchSize(100);
+        var binding = IngestGateway.bind(testKit.system(), managerActor, settings)
+                .toCompletableFuture()
+                .get(5, TimeUnit.SECONDS);
+
+        // NOTE(mmm): 3 groups of 4 devices, so 12 tracks and then the readings.
+        var result = IngestLoadGenerator.run(testKit.system(), binding.localAddress(), 3, 4, 10_000)
+                .toCompletableFuture()
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(new IngestLoadGenerator.Result(12 + 10_000, 0), result);
+
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+        managerActor.tell(new DeviceManager.RequestAllTemperatures(
+                1L, IngestLoadGenerator.groupId(1), allTempProbe.getRef()));
+        var temperatures = allTempProbe.receiveMessage().temperatures();
+        assertEquals(4, temperatures.size());
+        for (var reading : temperatures.values()) {
+            assertInstanceOf(DeviceManager.Temperature.class, reading);
+        }
+
+        binding.unbind().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+}
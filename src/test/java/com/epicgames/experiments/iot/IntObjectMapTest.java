@@ -0,0 +1,56 @@
+package com.epicgames.experiments.iot;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IntObjectMapTest {
+    @Test
+    public void testPutGetAndRemove() {
+        var map = new IntObjectMap<String>(2);
+        assertNull(map.put(1, "a"));
+        assertEquals("a", map.put(1, "b"));
+        assertNull(map.put(2, "c"));
+
+        assertAll(
+                () -> assertEquals(2, map.size()),
+                () -> assertEquals("b", map.get(1)),
+                () -> assertNull(map.get(3)),
+                () -> assertNull(map.get(IdRegistry.NO_HANDLE)));
+
+        assertEquals("b", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertTrue(map.containsKey(2));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testMatchHashMapUnderRandomChurn() {
+        // NOTE(mmm): Few distinct keys and many removals, so removals keep
+        //  shifting probe runs around.
+        var random = new Random(42);
+        var map = new IntObjectMap<Integer>(4);
+        var expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 100_000; i++) {
+            var key = random.nextInt(512);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        var seen = new HashMap<Integer, Integer>();
+        for (int slot = 0; slot < map.slotCount(); slot++) {
+            if (map.valueAt(slot) != null) {
+                seen.put(map.keyAt(slot), map.valueAt(slot));
+            }
+        }
+        assertEquals(expected, seen);
+    }
+}
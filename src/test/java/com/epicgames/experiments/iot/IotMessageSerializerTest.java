@@ -0,0 +1,169 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.actor.typed.javadsl.Adapter;
+import org.apache.pekko.serialization.SerializationExtension;
+import org.apache.pekko.serialization.SerializerWithStringManifest;
+import org.apache.pekko.serialization.Serializers;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.NotSerializableException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.OptionalDouble;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IotMessageSerializerTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit =
+            new TestKitJunitResource(ConfigFactory.parseResources("serialization.conf"));
+
+    @Test
+    public void testRoundTripCommandsAndReplies() {
+        var replyTo = testKit.<Object>createTestProbe().getRef();
+        var messages = new Object[]{
+                new DeviceManager.RequestTrackDevice(TestRandom.int64(), "group", "device", replyTo.narrow()),
+                new DeviceManager.RequestAllTemperatures(-1L, "group", replyTo.narrow()),
+                new DeviceManager.RequestAllTemperatures(2L, "group", replyTo.narrow(), Duration.ofMillis(1500)),
+                new DeviceManager.RequestQuorumTemperatures(3L, "group", 7, replyTo.narrow()),
+                new DeviceManager.ReplyAllDevices(4L, Set.of("device1", "device2", "sensor-01", "sensor-02")),
+                new DeviceManager.TemperaturesRecorded(Long.MIN_VALUE, 10, 0),
+                new DeviceManager.TemperaturesRecorded(7L, 0, 10, true),
+                new Device.TemperatureRecorded(8L, true),
+                new Device.RecordTemperature(Long.MAX_VALUE, 21.5, replyTo.narrow()),
+                new Device.Temperature(5L, "device", OptionalDouble.of(-3.25)),
+                new Device.Temperature(6L, "device", OptionalDouble.empty()),
+                new Device.Temperature(9L, "device", OptionalDouble.of(1), 3),
+                new Device.ReadTemperature(10L, replyTo.narrow(), 3),
+                Device.Passivate.INSTANCE,
+                DeviceManager.DeviceTimedOut.INSTANCE,
+        };
+
+        for (var msg : messages) {
+            assertEquals(msg, roundTrip(msg));
+        }
+    }
+
+    @Test
+    public void testRoundTripTemperatureMap() {
+        var temperatures = new HashMap<String, DeviceManager.TemperatureReading>();
+        for (int i = 0; i < 1000; i++) {
+            temperatures.put("sensor-" + i, new DeviceManager.Temperature(TestRandom.float64()));
+        }
+        temperatures.put("no-reading", DeviceManager.TemperatureNotAvailable.INSTANCE);
+        temperatures.put("stopped", DeviceManager.DeviceNotAvailable.INSTANCE);
+        temperatures.put("slow", DeviceManager.DeviceTimedOut.INSTANCE);
+
+        var reply = new DeviceManager.ReplyAllTemperatures(1L, temperatures);
+        assertEquals(reply, roundTrip(reply));
+    }
+
+    @Test
+    public void testRoundTripRecordTemperatures() {
+        var replyTo = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class).getRef();
+        var size = 1000;
+        var deviceIds = new String[size];
+        var values = new double[size];
+        var timestamps = new long[size];
+        var now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            // NOTE(mmm): Ids that only differ past a surrogate pair.
+            deviceIds[i] = "th\uD83C\uDF21rmo-" + (i % 10);
+            values[i] = TestRandom.float64();
+            timestamps[i] = now + i;
+        }
+        var msg = new DeviceManager.RecordTemperatures(7L, "group", deviceIds, values, timestamps, replyTo, true);
+
+        var bytes = serialize(msg);
+        var copy = (DeviceManager.RecordTemperatures) deserialize(msg, bytes);
+        assertEquals(msg.requestId(), copy.requestId());
+        assertEquals(msg.groupId(), copy.groupId());
+        assertArrayEquals(msg.deviceIds(), copy.deviceIds());
+        assertArrayEquals(msg.values(), copy.values());
+        assertArrayEquals(msg.timestamps(), copy.timestamps());
+        assertEquals(msg.replyTo(), copy.replyTo());
+        assertEquals(msg.replay(), copy.replay());
+
+        // NOTE(mmm): 8 bytes per value, and a byte each for the device index
+        //  and the timestamp delta.
+        assertTrue(bytes.length < size * 11, "Encoded size " + bytes.length);
+    }
+
+    @Test
+    public void testRoundTripJournalSnapshot() {
+        // NOTE(mmm): The first two ids share the high surrogate of their emoji.
+        var snapshot = new DeviceGroupJournal.Snapshot(
+                new String[]{"device\uD83C\uDF211", "device\uD83C\uDF222", "device3"},
+                new long[]{1_700_000_000_000L, DeviceTable.NO_READING, 1_700_000_000_500L},
+                new double[]{20, 0, Double.NaN});
+
+        var copy = (DeviceGroupJournal.Snapshot) roundTrip(snapshot);
+        assertArrayEquals(snapshot.deviceIds(), copy.deviceIds());
+        assertArrayEquals(snapshot.timestamps(), copy.timestamps());
+        assertArrayEquals(snapshot.values(), copy.values());
+    }
+
+    @Test
+    public void testRoundTripTemperatureStatsWithLargeCount() {
+        var stats = new Device.TemperatureStats(
+                1L, "device", Integer.MAX_VALUE, -40, 85, 21.5, new double[]{20, 25, 30});
+
+        var copy = (Device.TemperatureStats) roundTrip(stats);
+        assertEquals(Integer.MAX_VALUE, copy.count());
+        assertEquals(stats.mean(), copy.mean());
+        assertArrayEquals(stats.percentiles(), copy.percentiles());
+    }
+
+    @Test
+    public void testRejectTruncatedPayloads() {
+        var replyTo = testKit.<Object>createTestProbe().getRef();
+        var messages = new Object[]{
+                new Device.RecordTemperature(Long.MAX_VALUE, 21.5, replyTo.narrow()),
+                new Device.Temperature(5L, "device", OptionalDouble.of(-3.25)),
+                new Device.TemperatureStats(1L, "device", 3, -40, 85, 21.5, new double[]{20, 25}),
+                new DeviceManager.TemperaturesRecorded(7L, 0, 10, true),
+                new DeviceManager.RecordTemperatures(
+                        1L, "group", new String[]{"device1", "device2"}, new double[]{1, 2}, new long[]{1, 2},
+                        replyTo.narrow()),
+                new DeviceGroupJournal.Snapshot(new String[]{"device1", "device2"}, new long[]{1, 2}, new double[]{1, 2}),
+        };
+
+        for (var msg : messages) {
+            var bytes = serialize(msg);
+            var serializer = (SerializerWithStringManifest) SerializationExtension
+                    .get(Adapter.toClassic(testKit.system()))
+                    .findSerializerFor(msg);
+            var manifest = serializer.manifest(msg);
+            for (int length = 0; length < bytes.length; length++) {
+                var truncated = Arrays.copyOf(bytes, length);
+                assertThrows(NotSerializableException.class, () -> serializer.fromBinary(truncated, manifest),
+                        () -> msg.getClass().getSimpleName() + " cut at " + truncated.length + " bytes");
+            }
+        }
+    }
+
+    private static Object roundTrip(Object msg) {
+        return deserialize(msg, serialize(msg));
+    }
+
+    private static byte[] serialize(Object msg) {
+        var serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+        assertInstanceOf(IotMessageSerializer.class, serialization.findSerializerFor(msg));
+        return serialization.serialize(msg).get();
+    }
+
+    private static Object deserialize(Object msg, byte[] bytes) {
+        var serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+        var serializer = serialization.findSerializerFor(msg);
+        return serialization.deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, msg)).get();
+    }
+}
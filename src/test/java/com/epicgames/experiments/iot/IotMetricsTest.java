@@ -0,0 +1,121 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IotMetricsTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @BeforeClass
+    public static void startMetrics() {
+        IotMetrics.start();
+    }
+
+    @AfterClass
+    public static void stopMetrics() {
+        IotMetrics.stop();
+    }
+
+    @Test
+    public void testCountReadingsAndDevicesOfVirtualGroup() throws Exception {
+        var groupId = TestRandom.uuid();
+        var groupActor = testKit.spawn(DeviceGroup.create(
+                groupId, DeviceGroup.Settings.DEFAULT.withStorage(DeviceGroup.Storage.VIRTUAL)));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+
+        for (var deviceId : new String[]{"device1", "device2", "device1"}) {
+            groupActor.tell(new DeviceManager.RequestTrackDevice(1L, groupId, deviceId, registeredProbe.getRef()));
+            registeredProbe.receiveMessage();
+        }
+        groupActor.tell(new DeviceManager.RecordTemperatures(
+                2L, groupId, new String[]{"device1", "device2", "device3"}, new double[]{1, 2, 3}, new long[]{1, 2, 3},
+                recordedProbe.getRef()));
+        recordedProbe.receiveMessage();
+
+        assertEquals(2L, groupAttribute(groupId, "Readings"));
+        assertEquals(2L, groupAttribute(groupId, "Devices"));
+        assertTrue(IotMetrics.prometheusText().contains(
+                "iot_group_readings_total{group=\"" + groupId + "\"} 2\n"));
+
+        testKit.stop(groupActor);
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(groupName(groupId)));
+    }
+
+    @Test
+    public void testCountDeviceReadingsAndQueries() throws Exception {
+        var groupId = TestRandom.uuid();
+        var groupActor = testKit.spawn(DeviceGroup.create(groupId));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        groupActor.tell(new DeviceManager.RequestTrackDevice(1L, groupId, "device", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+        deviceActor.tell(new Device.RecordTemperature(2L, 21.5, recordProbe.getRef()));
+        recordProbe.receiveMessage();
+        assertEquals(1L, groupAttribute(groupId, "Readings"));
+
+        groupActor.tell(new DeviceManager.RequestAllTemperatures(3L, groupId, allTempProbe.getRef()));
+        allTempProbe.receiveMessage();
+
+        // NOTE(mmm): The query counts itself right after it replies.
+        allTempProbe.awaitAssert(() -> {
+            assertEquals(1L, groupAttribute(groupId, "Queries"));
+            assertEquals(0.0, groupAttribute(groupId, "QueryTimeoutRatio"));
+            return null;
+        });
+    }
+
+    @Test
+    public void testKeepBeansUntilTheLastStop() throws Exception {
+        var totalsName = new ObjectName("com.epicgames.experiments.iot:type=IotMetrics");
+        IotMetrics.start();
+        IotMetrics.stop();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(totalsName));
+    }
+
+    @Test
+    public void testServePrometheusText() throws Exception {
+        var endpoint = MetricsEndpoint.start(new InetSocketAddress("127.0.0.1", 0));
+        try {
+            var uri = URI.create("http://127.0.0.1:" + endpoint.getAddress().getPort() + "/metrics");
+            var response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("# TYPE iot_devices_spawned_total counter\n"));
+        } finally {
+            endpoint.stop(0);
+        }
+    }
+
+    private static Object groupAttribute(String groupId, String attribute) {
+        try {
+            return ManagementFactory.getPlatformMBeanServer().getAttribute(groupName(groupId), attribute);
+        } catch (JMException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static ObjectName groupName(String groupId) throws JMException {
+        return new ObjectName("com.epicgames.experiments.iot:type=DeviceGroup,name=" + ObjectName.quote(groupId));
+    }
+}
@@ -0,0 +1,53 @@
+package com.epicgames.experiments.iot;
+
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testReportPercentilesWithinBucketPrecision() {
+        var histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10_000, histogram.count());
+        for (var percentile : new double[]{50, 90, 99, 99.9}) {
+            var expected = percentile / 100.0 * 10_000;
+            var actual = histogram.valueAtPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 1.125,
+                    () -> "p" + percentile + " = " + actual + ", expected ~" + expected);
+        }
+    }
+
+    @Test
+    public void testReportSmallValuesExactly() {
+        var histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(5);
+        histogram.record(15);
+
+        assertAll(
+                () -> assertEquals(3, histogram.valueAtPercentile(0)),
+                () -> assertEquals(5, histogram.valueAtPercentile(50)),
+                () -> assertEquals(15, histogram.valueAtPercentile(100)));
+    }
+
+    @Test
+    public void testMergeAndDecay() {
+        var histogram = new LatencyHistogram();
+        var other = new LatencyHistogram();
+        for (int i = 0; i < 4; i++) {
+            histogram.record(10);
+            other.record(1_000_000);
+        }
+
+        histogram.merge(other);
+        assertEquals(8, histogram.count());
+        assertTrue(histogram.valueAtPercentile(100) >= 1_000_000);
+
+        histogram.decay();
+        assertEquals(4, histogram.count());
+    }
+}
@@ -0,0 +1,98 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.cluster.sharding.typed.ShardingEnvelope;
+import org.junit.ClassRule;
+import org.junit.Test;
+import scala.Option;
+
+import java.util.HashSet;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MessageTraceTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.parseString("""
+                    iot.mailbox.traced.manager.sample-every = 1
+                    iot.mailbox.traced.group.sample-every = 1
+                    iot.mailbox.traced.device.sample-every = 1
+                    iot.mailbox.traced.query.sample-every = 1
+                    """)
+            .withFallback(ConfigFactory.parseResources("mailboxes.conf")));
+
+    private static final DeviceGroup.Settings TRACED = DeviceGroup.Settings.DEFAULT
+            .withManagerMailbox("iot.mailbox.traced.manager")
+            .withGroupMailbox("iot.mailbox.traced.group")
+            .withDeviceMailbox("iot.mailbox.traced.device")
+            .withQueryMailbox("iot.mailbox.traced.query");
+
+    @Test
+    public void testTraceQueryThroughEveryTier() {
+        var groupId = TestRandom.uuid();
+        var managerActor = testKit.spawn(DeviceManager.create(TRACED), TRACED.managerProps());
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var quorumProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+
+        managerActor.tell(new DeviceManager.RequestTrackDevice(
+                TestRandom.int64(), groupId, "device", registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+
+        var requestId = TestRandom.int64();
+        managerActor.tell(new DeviceManager.RequestQuorumTemperatures(requestId, groupId, 1, quorumProbe.getRef()));
+        quorumProbe.receiveMessage();
+
+        // NOTE(mmm): Spans are written as their message is taken out, so the
+        //  device's and the query's are there by the time the reply is. The
+        //  device is asked under the caller's requestId.
+        var spans = MessageTrace.dump(requestId);
+        var tiers = spans.stream().map(MessageTrace.Span::tier).collect(Collectors.toSet());
+        assertEquals(Set.of("manager", "group", "device", "query"), tiers);
+        assertEquals(
+                Set.of("device ReadTemperature", "query Temperature"),
+                spans.stream()
+                        .filter(span -> span.tier().equals("device") || span.tier().equals("query"))
+                        .map(span -> span.tier() + " " + span.message())
+                        .collect(Collectors.toSet()));
+        for (var span : spans) {
+            assertTrue(span.queuedNanos() >= 0);
+        }
+        assertTrue(MessageTrace.dumpText().contains("request " + requestId + "\n"));
+    }
+
+    @Test
+    public void testSampleByRequestId() {
+        var sampled = new HashSet<Long>();
+        for (long requestId = 0; requestId < 10_000; requestId++) {
+            if (MessageTrace.sampled(requestId, 100)) {
+                sampled.add(requestId);
+            }
+        }
+        assertTrue(sampled.size() > 50 && sampled.size() < 150, "sampled " + sampled.size());
+
+        // NOTE(mmm): Every mailbox has to pick the same requests, in every JVM
+        //  of a cluster, so the sample can't change from run to run.
+        var firstSampled = sampled.stream().filter(requestId -> requestId < 1000).collect(Collectors.toSet());
+        assertEquals(Set.of(0L, 12L, 47L, 381L, 515L, 650L, 686L), firstSampled);
+        assertFalse(MessageTrace.sampled(MessageTrace.NO_REQUEST_ID, 1));
+    }
+
+    @Test
+    public void testFindRequestIdOfWrappedMessages() {
+        var probe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var reading = new Device.RecordTemperature(42L, 21.5, probe.getRef());
+
+        assertEquals(42L, MessageTrace.requestIdOf(reading));
+        assertEquals(42L, MessageTrace.requestIdOf(new DeviceGroup.SlotCommand(3, reading)));
+        assertEquals(42L, MessageTrace.requestIdOf(new ShardingEnvelope<>("group", reading)));
+        assertEquals(42L, MessageTrace.requestIdOf(new Device.ReadTemperature(42L, null, 3)));
+        assertEquals(42L, MessageTrace.requestIdOf(new Device.Temperature(42L, "device", OptionalDouble.empty(), 3)));
+        assertEquals(MessageTrace.NO_REQUEST_ID, MessageTrace.requestIdOf(DeviceGroupQuery.CollectionTimeout.INSTANCE));
+        assertEquals(MessageTrace.NO_REQUEST_ID, MessageTrace.requestIdOf(Option.apply(reading)));
+    }
+}
@@ -0,0 +1,54 @@
+package com.epicgames.experiments.iot;
+
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadingHistoryTest {
+    @Test
+    public void testStatsOverReadingsInWindow() {
+        var history = new ReadingHistory(8);
+        history.add(10, 100);
+        history.add(20, 4);
+        history.add(30, 1);
+        history.add(40, 3);
+        history.add(50, 2);
+
+        var stats = history.stats(7L, "device", 20, new double[]{50, 100});
+        assertAll(
+                () -> assertEquals(7L, stats.requestId()),
+                () -> assertEquals("device", stats.deviceId()),
+                () -> assertEquals(4, stats.count()),
+                () -> assertEquals(1, stats.min()),
+                () -> assertEquals(4, stats.max()),
+                () -> assertEquals(2.5, stats.mean()),
+                () -> assertArrayEquals(new double[]{2, 4}, stats.percentiles()));
+    }
+
+    @Test
+    public void testOverwriteOldestReadingsWhenFull() {
+        var history = new ReadingHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            history.add(i, i);
+        }
+        assertEquals(3, history.size());
+
+        var stats = history.stats(0L, "device", Long.MIN_VALUE, new double[0]);
+        assertAll(
+                () -> assertEquals(3, stats.count()),
+                () -> assertEquals(3, stats.min()),
+                () -> assertEquals(5, stats.max()));
+    }
+
+    @Test
+    public void testReturnNaNForEmptyWindow() {
+        var history = new ReadingHistory(3);
+        history.add(1, 1);
+
+        var stats = history.stats(0L, "device", 2, new double[]{99});
+        assertAll(
+                () -> assertEquals(0, stats.count()),
+                () -> assertTrue(Double.isNaN(stats.mean())),
+                () -> assertTrue(Double.isNaN(stats.percentiles()[0])));
+    }
+}
@@ -0,0 +1,155 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.actor.typed.ActorRef;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReadingSegmentLogTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @Test
+    public void testReplayReadingsFromEarlierRun() throws IOException {
+        var dir = Files.createTempDirectory("iot-reading-log-test");
+        var groupId = TestRandom.uuid();
+
+        // NOTE(mmm): Segments of 4 readings, so the 6 readings below span two.
+        try (var segmentLog = ReadingSegmentLog.open(dir, 4, Duration.ofMillis(10))) {
+            var settings = DeviceGroup.Settings.DEFAULT
+                    .withStorage(DeviceGroup.Storage.VIRTUAL)
+                    .withSegmentLog(segmentLog);
+            var managerActor = testKit.spawn(DeviceManager.create(settings));
+            track(managerActor, groupId, "device1");
+            track(managerActor, groupId, "device2");
+
+            var recordedProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+            managerActor.tell(new DeviceManager.RecordTemperatures(
+                    1L,
+                    groupId,
+                    new String[]{"device1", "device2", "device1", "device2", "device1", "unknown"},
+                    new double[]{1, 2, 3, 4, 5, 6},
+                    new long[]{1, 2, 3, 4, 5, 6},
+                    recordedProbe.getRef()));
+            assertEquals(new DeviceManager.TemperaturesRecorded(1L, 5, 1), recordedProbe.receiveMessage());
+            testKit.stop(managerActor);
+        }
+
+        try (var segmentLog = ReadingSegmentLog.open(dir)) {
+            var managerActor = testKit.spawn(DeviceManager.create(
+                    DeviceGroup.Settings.DEFAULT.withSegmentLog(segmentLog)));
+            assertEquals(5, segmentLog.replay(testKit.system(), managerActor, 2));
+
+            var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+            managerActor.tell(new DeviceManager.RequestAllTemperatures(2L, groupId, allTempProbe.getRef()));
+            assertEquals(
+                    Map.of(
+                            "device1", new DeviceManager.Temperature(5),
+                            "device2", new DeviceManager.Temperature(4)),
+                    allTempProbe.receiveMessage().temperatures());
+        }
+    }
+
+    @Test
+    public void testReplayedReadingsAreNotAppendedAgain() throws IOException {
+        var dir = Files.createTempDirectory("iot-reading-log-test");
+        try (var segmentLog = ReadingSegmentLog.open(dir)) {
+            segmentLog.append("group", "device", 1, 21.5);
+        }
+
+        try (var segmentLog = ReadingSegmentLog.open(dir)) {
+            var settings = DeviceGroup.Settings.DEFAULT
+                    .withStorage(DeviceGroup.Storage.VIRTUAL)
+                    .withSegmentLog(segmentLog);
+            var managerActor = testKit.spawn(DeviceManager.create(settings));
+            assertEquals(1, segmentLog.replay(testKit.system(), managerActor, 16));
+
+            var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+            managerActor.tell(new DeviceManager.RequestAllTemperatures(1L, "group", allTempProbe.getRef()));
+            assertEquals(
+                    Map.of("device", new DeviceManager.Temperature(21.5)),
+                    allTempProbe.receiveMessage().temperatures());
+        }
+
+        try (var segmentLog = ReadingSegmentLog.open(dir)) {
+            var managerActor = testKit.spawn(DeviceManager.create());
+            assertEquals(1, segmentLog.replay(testKit.system(), managerActor, 16));
+        }
+    }
+
+    @Test
+    public void testCheckpointKeepsRecentReadingsAndLatestOfEveryDevice() throws IOException {
+        var dir = Files.createTempDirectory("iot-reading-log-test");
+        try (var segmentLog = ReadingSegmentLog.open(dir, 4, Duration.ofMillis(10))) {
+            segmentLog.append("group", "device2", 2, 2);
+            for (int i = 1; i <= 5; i++) {
+                segmentLog.append("group", "device1", 10 * i, i);
+            }
+        }
+
+        // NOTE(mmm): Only device1's readings at 40 and 50 are recent enough,
+        //  device2 keeps its only one. Two runs fold into the same checkpoint.
+        for (int run = 0; run < 2; run++) {
+            try (var segmentLog = ReadingSegmentLog.open(dir, 4, Duration.ofMillis(10), Duration.ofMillis(10))) {
+                var managerActor = testKit.spawn(DeviceManager.create());
+                assertEquals(3, segmentLog.replay(testKit.system(), managerActor, 16));
+                assertEquals(2, segments(dir));
+
+                var allTempProbe = testKit.createTestProbe(DeviceManager.ReplyAllTemperatures.class);
+                managerActor.tell(new DeviceManager.RequestAllTemperatures(1L, "group", allTempProbe.getRef()));
+                assertEquals(
+                        Map.of(
+                                "device1", new DeviceManager.Temperature(5),
+                                "device2", new DeviceManager.Temperature(2)),
+                        allTempProbe.receiveMessage().temperatures());
+            }
+        }
+    }
+
+    @Test
+    public void testAppendFromManyThreads() throws Exception {
+        var dir = Files.createTempDirectory("iot-reading-log-test");
+        var threads = new ArrayList<Thread>();
+        try (var segmentLog = ReadingSegmentLog.open(dir, 64, Duration.ofMillis(1))) {
+            for (int t = 0; t < 4; t++) {
+                var deviceId = "device" + t;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 1; i <= 1000; i++) {
+                        segmentLog.append("group", deviceId, i, i);
+                    }
+                }));
+            }
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+
+        try (var segmentLog = ReadingSegmentLog.open(dir)) {
+            var managerActor = testKit.spawn(DeviceManager.create());
+            assertEquals(4000, segmentLog.replay(testKit.system(), managerActor, 256));
+        }
+    }
+
+    private static long segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+
+    private static void track(ActorRef<DeviceManager.Command> managerActor, String groupId, String deviceId) {
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        managerActor.tell(new DeviceManager.RequestTrackDevice(
+                TestRandom.int64(), groupId, deviceId, registeredProbe.getRef()));
+        registeredProbe.receiveMessage();
+    }
+}
@@ -0,0 +1,65 @@
+package com.epicgames.experiments.iot;
+
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedDeviceManagerTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @Test
+    public void testRouteGroupToSameShardEveryTime() {
+        var manager = new ShardedDeviceManager(IntStream.range(0, 4)
+                .mapToObj(i -> testKit.spawn(DeviceManager.create()))
+                .toList());
+
+        var groupIds = Stream.generate(TestRandom::uuid)
+                .limit(100)
+                .toList();
+        for (var groupId : groupIds) {
+            assertEquals(manager.shardFor(groupId), manager.shardFor(groupId));
+        }
+
+        var usedShards = groupIds.stream()
+                .map(manager::shardFor)
+                .collect(toSet());
+        assertTrue(usedShards.size() > 1);
+    }
+
+    @Test
+    public void testListActiveDevicesThroughShards() {
+        var manager = new ShardedDeviceManager(IntStream.range(0, 4)
+                .mapToObj(i -> testKit.spawn(DeviceManager.create()))
+                .toList());
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var deviceListProbe = testKit.createTestProbe(DeviceManager.ReplyAllDevices.class);
+
+        var groupIds = Stream.generate(TestRandom::uuid)
+                .limit(8)
+                .toList();
+        for (var groupId : groupIds) {
+            var deviceIds = Stream.generate(TestRandom::uuid)
+                    .limit(3)
+                    .collect(toSet());
+            for (var deviceId : deviceIds) {
+                manager.tell(new DeviceManager.RequestTrackDevice(
+                        TestRandom.int64(), groupId, deviceId, registeredProbe.getRef()));
+                registeredProbe.receiveMessage();
+            }
+
+            var requestId = TestRandom.int64();
+            manager.tell(new DeviceManager.RequestAllDevices(requestId, groupId, deviceListProbe.getRef()));
+            var reply = deviceListProbe.receiveMessage();
+            assertEquals(requestId, reply.requestId());
+            assertEquals(deviceIds, reply.deviceIds());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.epicgames.experiments.iot;
+
+import com.typesafe.config.ConfigFactory;
+import org.apache.pekko.actor.ActorCell;
+import org.apache.pekko.actor.ActorRef;
+import org.apache.pekko.actor.ActorRefWithCell;
+import org.apache.pekko.actor.DeadLetter;
+import org.apache.pekko.actor.testkit.typed.javadsl.TestKitJunitResource;
+import org.apache.pekko.actor.typed.javadsl.Adapter;
+import org.apache.pekko.dispatch.Envelope;
+import org.apache.pekko.dispatch.MessageQueue;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SheddingMailboxTest {
+    @ClassRule
+    public static final TestKitJunitResource testKit =
+            new TestKitJunitResource(ConfigFactory.parseResources("mailboxes.conf"));
+
+    @Test
+    public void testRejectRepliesBusyAndLetsControlMessagesThrough() {
+        var shed = new LongAdder();
+        var queue = new SheddingMailbox.SheddingMessageQueue(
+                SheddingMailbox.Policy.REJECT, 2, 10, deadLetters(), shed, new LongAdder());
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+
+        var first = new Device.RecordTemperature(1L, 20.0, recordProbe.getRef());
+        var second = new Device.RecordTemperature(2L, 21.0, recordProbe.getRef());
+        var read = new Device.ReadTemperature(4L, readProbe.getRef());
+        enqueue(queue, first);
+        enqueue(queue, second);
+        enqueue(queue, new Device.RecordTemperature(3L, 22.0, recordProbe.getRef()));
+        enqueue(queue, read);
+
+        assertEquals(new Device.TemperatureRecorded(3L, true), recordProbe.receiveMessage());
+        assertEquals(1, shed.sum());
+        assertEquals(3, queue.numberOfMessages());
+        assertEquals(read, queue.dequeue().message());
+        assertEquals(first, queue.dequeue().message());
+        assertEquals(second, queue.dequeue().message());
+        assertNull(queue.dequeue());
+    }
+
+    @Test
+    public void testDropOldestRepliesBusyToTheDroppedReading() {
+        var shed = new LongAdder();
+        var queue = new SheddingMailbox.SheddingMessageQueue(
+                SheddingMailbox.Policy.DROP_OLDEST, 2, 10, deadLetters(), shed, new LongAdder());
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+
+        var second = new Device.RecordTemperatureNoReply(2L, 21.0);
+        var third = new Device.RecordTemperature(3L, 22.0, recordProbe.getRef());
+        enqueue(queue, new Device.RecordTemperature(1L, 20.0, recordProbe.getRef()));
+        enqueue(queue, second);
+        enqueue(queue, third);
+
+        assertEquals(new Device.TemperatureRecorded(1L, true), recordProbe.receiveMessage());
+        assertEquals(1, shed.sum());
+        assertEquals(second, queue.dequeue().message());
+        assertEquals(third, queue.dequeue().message());
+        assertNull(queue.dequeue());
+    }
+
+    @Test
+    public void testKeepLatestOverwritesTheQueuedReadingOfTheSameDevice() {
+        var shed = new LongAdder();
+        var queue = new SheddingMailbox.SheddingMessageQueue(
+                SheddingMailbox.Policy.KEEP_LATEST, 2, 10, deadLetters(), shed, new LongAdder());
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var batchProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+
+        var other = new DeviceGroup.SlotCommand(1, new Device.RecordTemperatureNoReply(2L, 21.0));
+        var latest = new DeviceGroup.SlotCommand(0, new Device.RecordTemperature(3L, 22.0, recordProbe.getRef()));
+        enqueue(queue, new DeviceGroup.SlotCommand(0, new Device.RecordTemperature(1L, 20.0, recordProbe.getRef())));
+        enqueue(queue, other);
+        enqueue(queue, latest);
+
+        assertEquals(new Device.TemperatureRecorded(1L, true), recordProbe.receiveMessage());
+        assertEquals(latest, queue.dequeue().message());
+
+        // NOTE(mmm): Batches have no device of their own, so they push out the
+        //  oldest reading instead.
+        var batch = new DeviceManager.RecordTemperatures(
+                4L, "group", new String[]{"device"}, new double[]{23.0}, new long[]{0L}, batchProbe.getRef());
+        var next = new DeviceGroup.SlotCommand(2, new Device.RecordTemperatureNoReply(5L, 24.0));
+        enqueue(queue, next);
+        enqueue(queue, batch);
+
+        assertEquals(2, shed.sum());
+        assertEquals(next, queue.dequeue().message());
+        assertEquals(batch, queue.dequeue().message());
+        assertNull(queue.dequeue());
+    }
+
+    @Test
+    public void testSendQueriesPastTheirCapacityToDeadLetters() {
+        var shed = new LongAdder();
+        var deadLetterProbe = testKit.createTestProbe(DeadLetter.class);
+        var queue = new SheddingMailbox.SheddingMessageQueue(
+                SheddingMailbox.Policy.REJECT, 1, 1, Adapter.toClassic(deadLetterProbe.getRef()), shed, new LongAdder());
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+
+        var read = new Device.ReadTemperature(1L, readProbe.getRef());
+        var overflow = new Device.ReadTemperature(2L, readProbe.getRef());
+        var reading = new Device.RecordTemperatureNoReply(3L, 20.0);
+        enqueue(queue, read);
+        enqueue(queue, overflow);
+        enqueue(queue, reading);
+
+        assertEquals(overflow, deadLetterProbe.receiveMessage().message());
+        assertEquals(1, shed.sum());
+        assertEquals(2, queue.numberOfMessages());
+        assertEquals(read, queue.dequeue().message());
+        assertEquals(reading, queue.dequeue().message());
+        assertNull(queue.dequeue());
+    }
+
+    @Test
+    public void testKeepLatestFromManyThreads() throws Exception {
+        var shed = new LongAdder();
+        var depth = new LongAdder();
+        var queue = new SheddingMailbox.SheddingMessageQueue(
+                SheddingMailbox.Policy.KEEP_LATEST, 16, 16, deadLetters(), shed, depth);
+        var threads = 4;
+        var readingsPerThread = 10_000;
+
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var t = 0; t < threads; t++) {
+                var slot = t;
+                futures.add(executor.submit(() -> {
+                    for (var i = 0; i < readingsPerThread; i++) {
+                        enqueue(queue, new DeviceGroup.SlotCommand(slot, new Device.RecordTemperatureNoReply(i, i)));
+                    }
+                }));
+            }
+            var dequeued = 0;
+            while (!futures.stream().allMatch(Future::isDone) || queue.hasMessages()) {
+                if (queue.dequeue() != null) {
+                    dequeued++;
+                }
+            }
+            for (var future : futures) {
+                future.get();
+            }
+
+            assertEquals(threads * readingsPerThread, dequeued + shed.sum());
+            assertEquals(0, queue.numberOfMessages());
+            assertEquals(0, depth.sum());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplayedReadingsAndLifecycleMessagesAreNeverShed() {
+        var shed = new LongAdder();
+        var queue = new SheddingMailbox.SheddingMessageQueue(
+                SheddingMailbox.Policy.REJECT, 1, 1, deadLetters(), shed, new LongAdder());
+        var batchProbe = testKit.createTestProbe(DeviceManager.TemperaturesRecorded.class);
+
+        for (var i = 0; i < 3; i++) {
+            enqueue(queue, new DeviceManager.RecordTemperatures(
+                    i, "group", new String[]{"device"}, new double[]{i}, new long[]{i}, batchProbe.getRef(), true));
+        }
+        enqueue(queue, DeviceGroup.Stop.INSTANCE);
+        enqueue(queue, Device.Passivate.INSTANCE);
+
+        assertEquals(0, shed.sum());
+        assertEquals(5, queue.numberOfMessages());
+        batchProbe.expectNoMessage();
+    }
+
+    @Test
+    public void testGroupsAndDevicesRunOnConfiguredMailboxes() throws Exception {
+        var groupSettings = DeviceGroup.Settings.DEFAULT
+                .withGroupMailbox("iot.mailbox.group")
+                .withDeviceMailbox("iot.mailbox.device");
+        var managerActor = testKit.spawn(DeviceManager.create(groupSettings));
+        var registeredProbe = testKit.createTestProbe(DeviceManager.DeviceRegistered.class);
+        var recordProbe = testKit.createTestProbe(Device.TemperatureRecorded.class);
+        var readProbe = testKit.createTestProbe(Device.Temperature.class);
+
+        managerActor.tell(new DeviceManager.RequestTrackDevice(
+                1L, TestRandom.uuid(), "device", registeredProbe.getRef()));
+        var deviceActor = registeredProbe.receiveMessage().device();
+
+        deviceActor.tell(new Device.RecordTemperature(2L, 21.5, recordProbe.getRef()));
+        assertEquals(new Device.TemperatureRecorded(2L), recordProbe.receiveMessage());
+        deviceActor.tell(new Device.ReadTemperature(3L, readProbe.getRef()));
+        assertEquals(21.5, readProbe.receiveMessage().value().getAsDouble());
+
+        assertInstanceOf(SheddingMailbox.SheddingMessageQueue.class, messageQueueOf(Adapter.toClassic(deviceActor)));
+        var groupActor = Adapter.toClassic(testKit.system())
+                .actorSelection(deviceActor.path().parent())
+                .resolveOne(Duration.ofSeconds(3))
+                .toCompletableFuture()
+                .get();
+        assertInstanceOf(SheddingMailbox.SheddingMessageQueue.class, messageQueueOf(groupActor));
+
+        var shedCounts = SheddingMailbox.shedCounts();
+        assertTrue(shedCounts.containsKey("group"));
+        assertTrue(shedCounts.containsKey("device"));
+    }
+
+    private static ActorRef deadLetters() {
+        return Adapter.toClassic(testKit.system()).deadLetters();
+    }
+
+    private static MessageQueue messageQueueOf(ActorRef actor) {
+        var cell = (ActorCell) ((ActorRefWithCell) actor).underlying();
+        return cell.mailbox().messageQueue();
+    }
+
+    private static void enqueue(SheddingMailbox.SheddingMessageQueue queue, Object message) {
+        queue.enqueue(ActorRef.noSender(), Envelope.apply(message, ActorRef.noSender(), Adapter.toClassic(testKit.system())));
+    }
+}
@@ -0,0 +1,81 @@
+package com.epicgames.experiments.iot;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TemperatureColumnsTest {
+    private static TemperatureColumns columns() {
+        return new TemperatureColumns(
+                new String[]{"device1", "device2", "device3", "device4"},
+                new double[]{21.5, Double.NaN, Double.NaN, Double.NaN},
+                new byte[]{
+                        TemperatureColumns.TEMPERATURE,
+                        TemperatureColumns.TEMPERATURE_NOT_AVAILABLE,
+                        TemperatureColumns.DEVICE_NOT_AVAILABLE,
+                        TemperatureColumns.DEVICE_TIMED_OUT});
+    }
+
+    private static Map<String, DeviceManager.TemperatureReading> expected() {
+        return Map.of(
+                "device1", new DeviceManager.Temperature(21.5),
+                "device2", DeviceManager.TemperatureNotAvailable.INSTANCE,
+                "device3", DeviceManager.DeviceNotAvailable.INSTANCE,
+                "device4", DeviceManager.DeviceTimedOut.INSTANCE);
+    }
+
+    @Test
+    public void testReadAsMap() {
+        var columns = columns();
+
+        assertAll(
+                () -> assertEquals(expected(), columns),
+                () -> assertEquals(columns, expected()),
+                () -> assertEquals(expected().hashCode(), columns.hashCode()),
+                () -> assertEquals(new DeviceManager.Temperature(21.5), columns.get("device1")),
+                () -> assertTrue(columns.containsKey("device4")),
+                () -> assertFalse(columns.containsKey("device5")),
+                () -> assertNull(columns.get("device5")),
+                () -> assertNull(columns.get(42)));
+    }
+
+    @Test
+    public void testReadColumns() {
+        var columns = columns();
+
+        assertAll(
+                () -> assertEquals(4, columns.size()),
+                () -> assertEquals("device3", columns.deviceId(2)),
+                () -> assertEquals(TemperatureColumns.TEMPERATURE, columns.status(0)),
+                () -> assertEquals(21.5, columns.value(0)),
+                () -> assertTrue(Double.isNaN(columns.value(1))),
+                () -> assertEquals(1, columns.count(TemperatureColumns.DEVICE_TIMED_OUT)),
+                () -> assertEquals(0, TemperatureColumns.EMPTY.size()));
+    }
+
+    @Test
+    public void testConvertFromMap() {
+        var columns = TemperatureColumns.of(new HashMap<>(expected()));
+
+        assertEquals(expected(), columns);
+        assertSame(columns, TemperatureColumns.of(columns));
+        for (int i = 0; i < columns.size(); i++) {
+            assertEquals(
+                    TemperatureColumns.statusOf(expected().get(columns.deviceId(i))), columns.status(i));
+        }
+    }
+
+    @Test
+    public void testRejectChanges() {
+        var columns = columns();
+
+        assertThrows(UnsupportedOperationException.class,
+                () -> columns.put("device5", DeviceManager.TemperatureNotAvailable.INSTANCE));
+        assertThrows(UnsupportedOperationException.class, () -> columns.entrySet().iterator().next().setValue(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new TemperatureColumns(new String[1], new double[0], new byte[1]));
+    }
+}